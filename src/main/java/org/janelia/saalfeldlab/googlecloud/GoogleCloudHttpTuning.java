@@ -0,0 +1,212 @@
+package org.janelia.saalfeldlab.googlecloud;
+
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.apache.v2.ApacheHttpTransport;
+import com.google.api.gax.retrying.RetrySettings;
+import com.google.cloud.http.HttpTransportOptions;
+import com.google.cloud.storage.HttpStorageOptions;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.config.SocketConfig;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.impl.NoConnectionReuseStrategy;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+
+/**
+ * Connection and retry tuning for the HTTP/JSON transport of many-threaded
+ * clients.
+ * <p>
+ * The default transport is backed by {@link java.net.HttpURLConnection},
+ * whose connection reuse is limited by the JVM-wide {@code http.maxConnections}
+ * system property (idle connections kept per destination, default 5). With
+ * hundreds of threads this causes connection churn, so clients configured
+ * with a profile use a transport with its own connection pool instead, sized
+ * by {@link #setMaxConnectionsPerRoute(int)}. No system properties are
+ * changed.
+ * <p>
+ * All clients configured with the same profile share one {@link HttpTransport}
+ * and thus one connection pool. Changing a connection setting shuts that
+ * transport down and releases its pool, clients configured before the change
+ * must be recreated.
+ */
+public class GoogleCloudHttpTuning {
+
+	private int maxConnectionsPerRoute = 5;
+	private boolean keepAlive = true;
+	private int socketSendBufferSize = -1;
+	private int socketReceiveBufferSize = -1;
+	private int connectTimeoutMillis = -1;
+	private int readTimeoutMillis = -1;
+	private RetrySettings retrySettings = null;
+
+	private HttpTransport sharedTransport = null;
+
+	/**
+	 * A profile for {@code numThreads} threads issuing concurrent requests.
+	 *
+	 * @param numThreads the number of concurrent requests
+	 * @return the profile
+	 */
+	public static GoogleCloudHttpTuning forParallelism(final int numThreads) {
+
+		return new GoogleCloudHttpTuning()
+				.setMaxConnectionsPerRoute(Math.max(5, numThreads))
+				.setKeepAlive(true)
+				.setSocketReceiveBufferSize(1 << 20)
+				.setConnectTimeoutMillis(20_000)
+				.setReadTimeoutMillis(60_000)
+				.setRetrySettings(RetrySettings.newBuilder()
+						.setMaxAttempts(6)
+						.setInitialRetryDelayDuration(Duration.ofMillis(100))
+						.setRetryDelayMultiplier(2.0)
+						.setMaxRetryDelayDuration(Duration.ofSeconds(10))
+						.setTotalTimeoutDuration(Duration.ofMinutes(5))
+						.build());
+	}
+
+	/**
+	 * @param maxConnectionsPerRoute the number of connections pooled per destination
+	 * @return this
+	 */
+	public synchronized GoogleCloudHttpTuning setMaxConnectionsPerRoute(final int maxConnectionsPerRoute) {
+
+		if (maxConnectionsPerRoute < 1)
+			throw new IllegalArgumentException("maxConnectionsPerRoute must be positive");
+		this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+		resetTransport();
+		return this;
+	}
+
+	/**
+	 * @param keepAlive whether connections are reused for further requests
+	 * @return this
+	 */
+	public synchronized GoogleCloudHttpTuning setKeepAlive(final boolean keepAlive) {
+
+		this.keepAlive = keepAlive;
+		resetTransport();
+		return this;
+	}
+
+	/**
+	 * @param socketSendBufferSize the TLS socket send buffer size in bytes, or -1 for the system default
+	 * @return this
+	 */
+	public synchronized GoogleCloudHttpTuning setSocketSendBufferSize(final int socketSendBufferSize) {
+
+		this.socketSendBufferSize = socketSendBufferSize;
+		resetTransport();
+		return this;
+	}
+
+	/**
+	 * @param socketReceiveBufferSize the TLS socket receive buffer size in bytes, or -1 for the system default
+	 * @return this
+	 */
+	public synchronized GoogleCloudHttpTuning setSocketReceiveBufferSize(final int socketReceiveBufferSize) {
+
+		this.socketReceiveBufferSize = socketReceiveBufferSize;
+		resetTransport();
+		return this;
+	}
+
+	/**
+	 * @param connectTimeoutMillis the connect timeout, or -1 for the client default
+	 * @return this
+	 */
+	public GoogleCloudHttpTuning setConnectTimeoutMillis(final int connectTimeoutMillis) {
+
+		this.connectTimeoutMillis = connectTimeoutMillis;
+		return this;
+	}
+
+	/**
+	 * @param readTimeoutMillis the read timeout, or -1 for the client default
+	 * @return this
+	 */
+	public GoogleCloudHttpTuning setReadTimeoutMillis(final int readTimeoutMillis) {
+
+		this.readTimeoutMillis = readTimeoutMillis;
+		return this;
+	}
+
+	/**
+	 * @param retrySettings the retry settings, or null for the client default
+	 * @return this
+	 */
+	public GoogleCloudHttpTuning setRetrySettings(final RetrySettings retrySettings) {
+
+		this.retrySettings = retrySettings;
+		return this;
+	}
+
+	/* shut down the current transport, the next one is built with the new settings */
+	private void resetTransport() {
+
+		if (sharedTransport == null)
+			return;
+		try {
+			sharedTransport.shutdown();
+		} catch (final IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			sharedTransport = null;
+		}
+	}
+
+	/**
+	 * @return the transport shared by all clients configured with this profile
+	 */
+	public synchronized HttpTransport getSharedTransport() {
+
+		if (sharedTransport == null) {
+			final Registry<ConnectionSocketFactory> socketFactories = RegistryBuilder.<ConnectionSocketFactory>create()
+					.register("http", PlainConnectionSocketFactory.getSocketFactory())
+					.register("https", SSLConnectionSocketFactory.getSocketFactory())
+					.build();
+			final PoolingHttpClientConnectionManager pool = new PoolingHttpClientConnectionManager(socketFactories);
+			pool.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+			pool.setMaxTotal(2 * maxConnectionsPerRoute);
+			final SocketConfig.Builder socketConfig = SocketConfig.custom();
+			if (socketSendBufferSize > 0)
+				socketConfig.setSndBufSize(socketSendBufferSize);
+			if (socketReceiveBufferSize > 0)
+				socketConfig.setRcvBufSize(socketReceiveBufferSize);
+			pool.setDefaultSocketConfig(socketConfig.build());
+
+			final HttpClientBuilder client = ApacheHttpTransport.newDefaultHttpClientBuilder()
+					.setConnectionManager(pool);
+			if (!keepAlive)
+				client.setConnectionReuseStrategy(NoConnectionReuseStrategy.INSTANCE);
+			sharedTransport = new ApacheHttpTransport(client.build());
+		}
+		return sharedTransport;
+	}
+
+	/**
+	 * Apply this profile to {@code builder}.
+	 *
+	 * @param builder the HTTP storage options builder
+	 */
+	public void apply(final HttpStorageOptions.Builder builder) {
+
+		final HttpTransport transport = getSharedTransport();
+		final HttpTransportOptions.Builder transportOptions = HttpTransportOptions.newBuilder()
+				.setHttpTransportFactory(() -> transport);
+		if (connectTimeoutMillis >= 0)
+			transportOptions.setConnectTimeout(connectTimeoutMillis);
+		if (readTimeoutMillis >= 0)
+			transportOptions.setReadTimeout(readTimeoutMillis);
+		builder.setTransportOptions(transportOptions.build());
+
+		if (retrySettings != null)
+			builder.setRetrySettings(retrySettings);
+	}
+}
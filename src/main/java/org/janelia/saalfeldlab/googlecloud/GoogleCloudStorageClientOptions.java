@@ -0,0 +1,131 @@
+package org.janelia.saalfeldlab.googlecloud;
+
+import com.google.cloud.storage.GrpcStorageOptions;
+import com.google.cloud.storage.HttpStorageOptions;
+import com.google.cloud.storage.StorageOptions;
+
+import javax.annotation.Nullable;
+import java.util.function.Consumer;
+
+/**
+ * Transport and tuning options for the {@link com.google.cloud.storage.Storage}
+ * clients created by {@link GoogleCloudUtils}.
+ * <p>
+ * The default is the HTTP/JSON transport. The gRPC transport has much lower
+ * per-request overhead for workloads dominated by small objects. Further,
+ * transport specific settings can be applied with
+ * {@link #setHttpConfig(Consumer)} and {@link #setGrpcConfig(Consumer)}.
+ */
+public class GoogleCloudStorageClientOptions {
+
+	public enum Transport {
+		HTTP,
+		GRPC
+	}
+
+	private Transport transport = Transport.HTTP;
+	private String host = null;
+	private Boolean attemptDirectPath = null;
+	private GoogleCloudHttpTuning httpTuning = null;
+	private Consumer<HttpStorageOptions.Builder> httpConfig = null;
+	private Consumer<GrpcStorageOptions.Builder> grpcConfig = null;
+
+	public Transport getTransport() {
+
+		return transport;
+	}
+
+	public GoogleCloudStorageClientOptions setTransport(final Transport transport) {
+
+		this.transport = transport;
+		return this;
+	}
+
+	/**
+	 * @param host the service endpoint, e.g. {@code http://localhost:8080} for
+	 *             a local stand-in server, or null for the default endpoint.
+	 *             For gRPC, an {@code http} endpoint uses a plaintext channel.
+	 * @return this
+	 */
+	public GoogleCloudStorageClientOptions setHost(@Nullable final String host) {
+
+		this.host = host;
+		return this;
+	}
+
+	/**
+	 * @param attemptDirectPath whether the gRPC transport should attempt to
+	 *                          connect via DirectPath when running in Google
+	 *                          Cloud, or null for the client default
+	 * @return this
+	 */
+	public GoogleCloudStorageClientOptions setAttemptDirectPath(@Nullable final Boolean attemptDirectPath) {
+
+		this.attemptDirectPath = attemptDirectPath;
+		return this;
+	}
+
+	/**
+	 * @param httpTuning connection and retry tuning applied if the transport
+	 *                   is {@link Transport#HTTP}, or null for client defaults
+	 * @return this
+	 */
+	public GoogleCloudStorageClientOptions setHttpTuning(@Nullable final GoogleCloudHttpTuning httpTuning) {
+
+		this.httpTuning = httpTuning;
+		return this;
+	}
+
+	/**
+	 * @param httpConfig applied to the builder if the transport is {@link Transport#HTTP}
+	 * @return this
+	 */
+	public GoogleCloudStorageClientOptions setHttpConfig(@Nullable final Consumer<HttpStorageOptions.Builder> httpConfig) {
+
+		this.httpConfig = httpConfig;
+		return this;
+	}
+
+	/**
+	 * @param grpcConfig applied to the builder if the transport is {@link Transport#GRPC}
+	 * @return this
+	 */
+	public GoogleCloudStorageClientOptions setGrpcConfig(@Nullable final Consumer<GrpcStorageOptions.Builder> grpcConfig) {
+
+		this.grpcConfig = grpcConfig;
+		return this;
+	}
+
+	/**
+	 * Create a {@link StorageOptions.Builder} for the configured transport.
+	 *
+	 * @return the builder
+	 */
+	public StorageOptions.Builder newBuilder() {
+
+		final StorageOptions.Builder builder;
+		switch (transport) {
+		case GRPC:
+			final GrpcStorageOptions.Builder grpcBuilder = StorageOptions.grpc();
+			if (attemptDirectPath != null)
+				grpcBuilder.setAttemptDirectPath(attemptDirectPath);
+			if (grpcConfig != null)
+				grpcConfig.accept(grpcBuilder);
+			builder = grpcBuilder;
+			break;
+		case HTTP:
+		default:
+			final HttpStorageOptions.Builder httpBuilder = StorageOptions.http();
+			if (httpTuning != null)
+				httpTuning.apply(httpBuilder);
+			if (httpConfig != null)
+				httpConfig.accept(httpBuilder);
+			builder = httpBuilder;
+		}
+
+		if (host != null)
+			builder.setHost(host);
+
+		return builder;
+	}
+}
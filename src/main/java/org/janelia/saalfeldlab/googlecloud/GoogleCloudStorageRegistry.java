@@ -0,0 +1,231 @@
+package org.janelia.saalfeldlab.googlecloud;
+
+import com.google.auth.Credentials;
+import com.google.cloud.TransportOptions;
+import com.google.cloud.http.HttpTransportOptions;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.StorageOptions;
+
+import javax.annotation.Nullable;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A process-wide, reference-counted registry of {@link Storage} clients.
+ * <p>
+ * Clients are keyed by their {@link StorageOptions}, which compare equal
+ * when project id, credentials, endpoint, transport and retry settings are
+ * equal, and by the HTTP transport they use, which {@link StorageOptions}
+ * compare by class only. Opening many containers through {@link #acquire}
+ * therefore reuses one client with warm connections and a single credential
+ * refresh. A client is closed when the last {@link Lease} on it is closed.
+ */
+public class GoogleCloudStorageRegistry {
+
+	private static final Map<Key, Entry> clients = new HashMap<>();
+
+	private GoogleCloudStorageRegistry() {
+
+	}
+
+	private static class Key {
+
+		final StorageOptions options;
+		final Object transport;
+
+		Key(final StorageOptions options) {
+
+			this.options = options;
+			this.transport = transport(options);
+		}
+
+		/* the HTTP transport clients with these options use, compared by identity */
+		private static Object transport(final StorageOptions options) {
+
+			final TransportOptions transportOptions = options.getTransportOptions();
+			if (transportOptions instanceof HttpTransportOptions)
+				return ((HttpTransportOptions)transportOptions).getHttpTransportFactory().create();
+			return null;
+		}
+
+		@Override
+		public boolean equals(final Object o) {
+
+			if (!(o instanceof Key))
+				return false;
+			final Key other = (Key)o;
+			return transport == other.transport && options.equals(other.options);
+		}
+
+		@Override
+		public int hashCode() {
+
+			return 31 * options.hashCode() + System.identityHashCode(transport);
+		}
+	}
+
+	private static class Entry {
+
+		final Storage storage;
+		int references = 0;
+
+		Entry(final Storage storage) {
+
+			this.storage = storage;
+		}
+	}
+
+	/**
+	 * A reference to a shared {@link Storage} client. Do not close the
+	 * client directly, close the lease instead.
+	 */
+	public static class Lease implements AutoCloseable {
+
+		private final Key key;
+		private volatile Storage storage;
+
+		private Lease(final Key key, final Storage storage) {
+
+			this.key = key;
+			this.storage = storage;
+		}
+
+		public Storage getStorage() {
+
+			final Storage storage = this.storage;
+			if (storage == null)
+				throw new IllegalStateException("Lease was closed");
+			return storage;
+		}
+
+		@Override
+		public void close() {
+
+			synchronized (this) {
+				if (storage == null)
+					return;
+				storage = null;
+			}
+			release(key);
+		}
+	}
+
+	/**
+	 * Acquire the shared client for {@code options}, creating it if necessary.
+	 *
+	 * @param options the storage options
+	 * @return a lease on the client
+	 */
+	public static Lease acquire(final StorageOptions options) {
+
+		final Key key = new Key(options);
+		synchronized (clients) {
+			Entry entry = clients.get(key);
+			if (entry == null) {
+				entry = new Entry(options.getService());
+				clients.put(key, entry);
+			}
+			++entry.references;
+			return new Lease(key, entry.storage);
+		}
+	}
+
+	/**
+	 * Acquire the shared client for {@code options} as a {@link Storage}
+	 * whose {@link Storage#close()} releases the lease instead of closing
+	 * the client.
+	 *
+	 * @param options the storage options
+	 * @return the shared client
+	 */
+	public static Storage share(final StorageOptions options) {
+
+		final Lease lease = acquire(options);
+		return (Storage)Proxy.newProxyInstance(
+				Storage.class.getClassLoader(),
+				new Class<?>[]{Storage.class},
+				(proxy, method, args) -> {
+					switch (method.getName()) {
+					case "close":
+						if (method.getParameterCount() == 0) {
+							lease.close();
+							return null;
+						}
+						break;
+					case "equals":
+						if (method.getParameterCount() == 1)
+							return proxy == args[0];
+						break;
+					case "hashCode":
+						if (method.getParameterCount() == 0)
+							return System.identityHashCode(proxy);
+						break;
+					}
+					try {
+						return method.invoke(lease.getStorage(), args);
+					} catch (final InvocationTargetException e) {
+						throw e.getCause();
+					}
+				});
+	}
+
+	/**
+	 * Acquire the shared client for a project and credentials.
+	 *
+	 * @param googleCloudProjectId the project id, or null for the default project
+	 * @param credentials          the credentials, or null for application default credentials
+	 * @param clientOptions        the transport options
+	 * @return a lease on the client
+	 */
+	public static Lease acquire(
+			@Nullable final String googleCloudProjectId,
+			@Nullable final Credentials credentials,
+			final GoogleCloudStorageClientOptions clientOptions) {
+
+		return acquire(GoogleCloudUtils.createGoogleCloudStorageOptions(
+				googleCloudProjectId,
+				clientOptions,
+				builder -> {
+					if (credentials != null)
+						builder.setCredentials(credentials);
+				}));
+	}
+
+	/**
+	 * Acquire the shared HTTP/JSON client for a project with application default credentials.
+	 *
+	 * @param googleCloudProjectId the project id, or null for the default project
+	 * @return a lease on the client
+	 */
+	public static Lease acquire(@Nullable final String googleCloudProjectId) {
+
+		return acquire(googleCloudProjectId, null, new GoogleCloudStorageClientOptions());
+	}
+
+	/**
+	 * @return the number of clients currently held by the registry
+	 */
+	public static int size() {
+
+		synchronized (clients) {
+			return clients.size();
+		}
+	}
+
+	private static void release(final Key key) {
+
+		final Entry entry;
+		synchronized (clients) {
+			entry = clients.get(key);
+			if (entry == null || --entry.references > 0)
+				return;
+			clients.remove(key);
+		}
+
+		try {
+			entry.storage.close();
+		} catch (final Exception ignore) {}
+	}
+}
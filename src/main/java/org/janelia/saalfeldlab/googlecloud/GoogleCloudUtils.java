@@ -45,13 +45,73 @@ public class GoogleCloudUtils {
             @Nullable final String googleCloudProjectId,
             @Nullable final Consumer<StorageOptions.Builder> builderConfig) {
 
+		return createGoogleCloudStorage(googleCloudProjectId, new GoogleCloudStorageClientOptions(), builderConfig);
+	}
+
+	/**
+	 * Create a {@link Storage} using the HTTP/JSON transport tuned for
+	 * {@code numThreads} concurrent requests.
+	 *
+	 * @param googleCloudProjectId the project id, or null for the default project
+	 * @param numThreads           the expected number of concurrent requests
+	 * @return the storage
+	 * @see GoogleCloudHttpTuning#forParallelism(int)
+	 */
+	public static Storage createGoogleCloudStorage(@Nullable final String googleCloudProjectId, final int numThreads) {
+
+		return createGoogleCloudStorage(
+				googleCloudProjectId,
+				new GoogleCloudStorageClientOptions().setHttpTuning(GoogleCloudHttpTuning.forParallelism(numThreads)));
+	}
+
+	public static Storage createGoogleCloudStorage(
+			@Nullable final String googleCloudProjectId,
+			final GoogleCloudStorageClientOptions clientOptions) {
+
+		return createGoogleCloudStorage(googleCloudProjectId, clientOptions, opts -> {});
+	}
+
+	/**
+	 * Create a {@link Storage} for the given project and transport.
+	 * <p>
+	 * Clients with equal options are shared through the
+	 * {@link GoogleCloudStorageRegistry}; closing the returned storage
+	 * releases this reference, the client is closed with the last one.
+	 *
+	 * @param googleCloudProjectId the project id, or null for the default project
+	 * @param clientOptions        the transport options
+	 * @param builderConfig        applied to the builder last, may be null
+	 * @return the storage
+	 */
+	public static Storage createGoogleCloudStorage(
+			@Nullable final String googleCloudProjectId,
+			final GoogleCloudStorageClientOptions clientOptions,
+			@Nullable final Consumer<StorageOptions.Builder> builderConfig) {
+
+		return GoogleCloudStorageRegistry.share(createGoogleCloudStorageOptions(googleCloudProjectId, clientOptions, builderConfig));
+	}
+
+	/**
+	 * Build the {@link StorageOptions} for the given project and transport
+	 * without creating a service.
+	 *
+	 * @param googleCloudProjectId the project id, or null for the default project
+	 * @param clientOptions        the transport options
+	 * @param builderConfig        applied to the builder last, may be null
+	 * @return the storage options
+	 */
+	public static StorageOptions createGoogleCloudStorageOptions(
+			@Nullable final String googleCloudProjectId,
+			final GoogleCloudStorageClientOptions clientOptions,
+			@Nullable final Consumer<StorageOptions.Builder> builderConfig) {
+
         final String projectId = googleCloudProjectId != null ? googleCloudProjectId : StorageOptions.getDefaultProjectId();
-        final StorageOptions.Builder builder = StorageOptions.newBuilder().setProjectId(projectId);
+        final StorageOptions.Builder builder = clientOptions.newBuilder();
+		builder.setProjectId(projectId);
 
 		if (builderConfig != null)
 			builderConfig.accept(builder);
 
-        return builder.build().getService();
-
+        return builder.build();
     }
 }
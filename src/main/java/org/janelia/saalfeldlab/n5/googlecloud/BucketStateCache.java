@@ -0,0 +1,127 @@
+package org.janelia.saalfeldlab.n5.googlecloud;
+
+import com.google.cloud.storage.Storage;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Time-bounded cache of bucket existence, shared by all
+ * {@link GoogleCloudStorageKeyValueAccess} instances using the same
+ * {@link Storage} client.
+ * <p>
+ * Positive and negative results are cached. Concurrent lookups of the same
+ * bucket wait for a single probe instead of issuing their own.
+ */
+class BucketStateCache {
+
+	private static volatile long positiveTtlNanos = TimeUnit.MINUTES.toNanos(5);
+	private static volatile long negativeTtlNanos = TimeUnit.SECONDS.toNanos(10);
+
+	private static final Map<Storage, ConcurrentHashMap<String, Probe>> caches = new WeakHashMap<>();
+
+	private BucketStateCache() {
+
+	}
+
+	private static class Probe {
+
+		final CompletableFuture<Boolean> result = new CompletableFuture<>();
+		volatile long expiresAt = Long.MAX_VALUE;
+
+		boolean isExpired() {
+
+			return expiresAt != Long.MAX_VALUE && System.nanoTime() - expiresAt > 0;
+		}
+
+		void complete(final boolean exists) {
+
+			expiresAt = System.nanoTime() + (exists ? positiveTtlNanos : negativeTtlNanos);
+			result.complete(exists);
+		}
+	}
+
+	/**
+	 * Set how long probe results are trusted.
+	 *
+	 * @param positiveTtlMillis time to live of "bucket exists"
+	 * @param negativeTtlMillis time to live of "bucket does not exist"
+	 */
+	static void setTimeToLive(final long positiveTtlMillis, final long negativeTtlMillis) {
+
+		positiveTtlNanos = TimeUnit.MILLISECONDS.toNanos(positiveTtlMillis);
+		negativeTtlNanos = TimeUnit.MILLISECONDS.toNanos(negativeTtlMillis);
+	}
+
+	private static ConcurrentHashMap<String, Probe> cache(final Storage storage) {
+
+		synchronized (caches) {
+			return caches.computeIfAbsent(storage, s -> new ConcurrentHashMap<>());
+		}
+	}
+
+	/**
+	 * @param storage    the storage client
+	 * @param bucketName the bucket
+	 * @param probe      determines whether the bucket exists, called only if
+	 *                   there is no current result and no probe in flight
+	 * @return whether the bucket exists
+	 */
+	static boolean exists(final Storage storage, final String bucketName, final BooleanSupplier probe) {
+
+		final ConcurrentHashMap<String, Probe> cache = cache(storage);
+		while (true) {
+			final Probe current = cache.get(bucketName);
+			if (current != null && !current.isExpired()) {
+				try {
+					return current.result.join();
+				} catch (final CompletionException e) {
+					/* the probe failed and was removed, try again */
+					continue;
+				}
+			}
+
+			final Probe fresh = new Probe();
+			final boolean installed = current == null
+					? cache.putIfAbsent(bucketName, fresh) == null
+					: cache.replace(bucketName, current, fresh);
+			if (!installed)
+				continue;
+
+			try {
+				final boolean exists = probe.getAsBoolean();
+				fresh.complete(exists);
+				return exists;
+			} catch (final Throwable e) {
+				/* also errors, waiters must not block on a probe that never completes */
+				cache.remove(bucketName, fresh);
+				fresh.result.completeExceptionally(e);
+				throw e;
+			}
+		}
+	}
+
+	/**
+	 * Record a known bucket state, e.g. after creating or deleting it.
+	 *
+	 * @param storage    the storage client
+	 * @param bucketName the bucket
+	 * @param exists     whether the bucket exists
+	 */
+	static void set(final Storage storage, final String bucketName, final boolean exists) {
+
+		final Probe probe = new Probe();
+		probe.complete(exists);
+		cache(storage).put(bucketName, probe);
+	}
+
+	static void invalidate(final Storage storage, final String bucketName) {
+
+		cache(storage).remove(bucketName);
+	}
+}
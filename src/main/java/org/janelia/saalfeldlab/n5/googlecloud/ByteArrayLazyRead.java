@@ -0,0 +1,43 @@
+package org.janelia.saalfeldlab.n5.googlecloud;
+
+import org.janelia.saalfeldlab.n5.readdata.LazyRead;
+import org.janelia.saalfeldlab.n5.readdata.ReadData;
+
+import java.util.Arrays;
+
+/**
+ * A {@link LazyRead} of content that is already in memory.
+ */
+class ByteArrayLazyRead implements LazyRead {
+
+	private final byte[] bytes;
+
+	ByteArrayLazyRead(final byte[] bytes) {
+
+		this.bytes = bytes;
+	}
+
+	@Override
+	public long size() {
+
+		return bytes.length;
+	}
+
+	@Override
+	public ReadData materialize(final long offset, final long length) {
+
+		if (!GcsIoPolicy.validBounds(bytes.length, offset, length))
+			throw new IndexOutOfBoundsException();
+
+		if (offset == 0 && (length < 0 || length == bytes.length))
+			return ReadData.from(bytes);
+
+		final long end = length < 0 ? bytes.length : offset + length;
+		return ReadData.from(Arrays.copyOfRange(bytes, (int) offset, (int) end));
+	}
+
+	@Override
+	public void close() {
+
+	}
+}
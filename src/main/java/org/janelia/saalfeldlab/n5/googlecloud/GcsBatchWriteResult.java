@@ -0,0 +1,62 @@
+package org.janelia.saalfeldlab.n5.googlecloud;
+
+import org.janelia.saalfeldlab.n5.N5Exception.N5IOException;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The outcome of a batch of writes, per key.
+ */
+public class GcsBatchWriteResult {
+
+	private final Set<String> written;
+	private final Map<String, Exception> failures;
+
+	GcsBatchWriteResult(final Set<String> written, final Map<String, Exception> failures) {
+
+		this.written = Collections.unmodifiableSet(written);
+		this.failures = Collections.unmodifiableMap(failures);
+	}
+
+	/**
+	 * @return the paths that were written
+	 */
+	public Set<String> getWritten() {
+
+		return written;
+	}
+
+	/**
+	 * @return the paths that could not be written, with the cause
+	 */
+	public Map<String, Exception> getFailures() {
+
+		return failures;
+	}
+
+	public boolean isSuccess() {
+
+		return failures.isEmpty();
+	}
+
+	/**
+	 * @throws N5IOException if any write failed, with the first failure as
+	 *                       cause and the others attached as suppressed exceptions
+	 */
+	public void throwOnFailure() throws N5IOException {
+
+		if (failures.isEmpty())
+			return;
+
+		N5IOException e = null;
+		for (final Map.Entry<String, Exception> failure : failures.entrySet()) {
+			if (e == null)
+				e = new N5IOException(failures.size() + " of " + (failures.size() + written.size()) + " writes failed, first: " + failure.getKey(), failure.getValue());
+			else
+				e.addSuppressed(failure.getValue());
+		}
+		throw e;
+	}
+}
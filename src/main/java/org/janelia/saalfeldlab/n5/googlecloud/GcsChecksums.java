@@ -0,0 +1,164 @@
+package org.janelia.saalfeldlab.n5.googlecloud;
+
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.StorageException;
+import org.janelia.saalfeldlab.n5.N5Exception.N5IOException;
+
+import java.lang.reflect.Constructor;
+import java.util.Base64;
+import java.util.zip.Checksum;
+
+/**
+ * CRC32C checksums as reported by Google Cloud Storage.
+ * <p>
+ * Uses the intrinsified {@code java.util.zip.CRC32C} where available (Java 9
+ * and later) and a table-driven implementation otherwise, so checksums can be
+ * computed while the bytes are transferred instead of in a second pass.
+ */
+public class GcsChecksums {
+
+	private static final Constructor<? extends Checksum> jdkCrc32c = jdkCrc32c();
+
+	private GcsChecksums() {
+
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Constructor<? extends Checksum> jdkCrc32c() {
+
+		try {
+			return (Constructor<? extends Checksum>) Class.forName("java.util.zip.CRC32C").getConstructor();
+		} catch (final ReflectiveOperationException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return a new CRC32C checksum
+	 */
+	public static Checksum newCrc32c() {
+
+		if (jdkCrc32c != null) {
+			try {
+				return jdkCrc32c.newInstance();
+			} catch (final ReflectiveOperationException e) {
+				/* fall through */
+			}
+		}
+		return new Crc32c();
+	}
+
+	/**
+	 * @param crc32c the checksum value
+	 * @return the base64 encoding of the big-endian value, as in
+	 * {@code BlobInfo.getCrc32c()}
+	 */
+	public static String toBase64(final long crc32c) {
+
+		return Base64.getEncoder().encodeToString(new byte[]{
+				(byte) (crc32c >>> 24),
+				(byte) (crc32c >>> 16),
+				(byte) (crc32c >>> 8),
+				(byte) crc32c});
+	}
+
+	/**
+	 * @param checksum the computed checksum
+	 * @param expected the base64 checksum reported by GCS, may be null if
+	 *                 none was reported
+	 * @param bucketName the bucket
+	 * @param key the object key
+	 * @throws N5IOException if the checksums differ
+	 */
+	static void verify(final Checksum checksum, final String expected, final String bucketName, final String key) throws N5IOException {
+
+		if (expected == null)
+			return;
+
+		final String actual = toBase64(checksum.getValue());
+		if (!actual.equals(expected))
+			throw new N5IOException("CRC32C mismatch (expected " + expected + ", got " + actual + "). bucket: " + bucketName + ". key: " + key);
+	}
+
+	/**
+	 * Verify the CRC32C reported for a written generation. If the checksums
+	 * differ, that generation is deleted so that the corrupt object does not
+	 * stay live. The delete is conditional on the generation, an object
+	 * written by someone else in the meantime is left alone.
+	 *
+	 * @param storage    the google cloud interface
+	 * @param checksum   the checksum computed while uploading
+	 * @param bucketName the bucket
+	 * @param key        the object key
+	 * @param written    the written object, carrying its generation and CRC32C
+	 * @throws N5IOException if the checksums differ
+	 */
+	static void verifyWritten(
+			final Storage storage,
+			final Checksum checksum,
+			final String bucketName,
+			final String key,
+			final Blob written) throws N5IOException {
+
+		try {
+			verify(checksum, written.getCrc32c(), bucketName, key);
+		} catch (final N5IOException e) {
+			if (written.getGeneration() != null) {
+				try {
+					storage.delete(BlobId.of(bucketName, key), Storage.BlobSourceOption.generationMatch(written.getGeneration()));
+				} catch (final StorageException deleteFailure) {
+					e.addSuppressed(deleteFailure);
+				}
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * CRC32C (Castagnoli) for JVMs without {@code java.util.zip.CRC32C}.
+	 */
+	static class Crc32c implements Checksum {
+
+		private static final int[] TABLE = new int[256];
+
+		static {
+			for (int i = 0; i < 256; ++i) {
+				int crc = i;
+				for (int j = 0; j < 8; ++j)
+					crc = (crc & 1) != 0 ? (crc >>> 1) ^ 0x82F63B78 : crc >>> 1;
+				TABLE[i] = crc;
+			}
+		}
+
+		private int crc = 0xFFFFFFFF;
+
+		@Override
+		public void update(final int b) {
+
+			crc = (crc >>> 8) ^ TABLE[(crc ^ b) & 0xFF];
+		}
+
+		@Override
+		public void update(final byte[] b, final int off, final int len) {
+
+			int c = crc;
+			for (int i = off; i < off + len; ++i)
+				c = (c >>> 8) ^ TABLE[(c ^ b[i]) & 0xFF];
+			crc = c;
+		}
+
+		@Override
+		public long getValue() {
+
+			return ~crc & 0xFFFFFFFFL;
+		}
+
+		@Override
+		public void reset() {
+
+			crc = 0xFFFFFFFF;
+		}
+	}
+}
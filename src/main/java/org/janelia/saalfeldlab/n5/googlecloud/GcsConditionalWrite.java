@@ -0,0 +1,200 @@
+package org.janelia.saalfeldlab.n5.googlecloud;
+
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.Storage.BlobField;
+import com.google.cloud.storage.Storage.BlobWriteOption;
+import com.google.cloud.storage.StorageException;
+import org.janelia.saalfeldlab.n5.N5Exception;
+import org.janelia.saalfeldlab.n5.N5Exception.N5IOException;
+import org.janelia.saalfeldlab.n5.readdata.ReadData;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.UnaryOperator;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.Checksum;
+
+/**
+ * Writes guarded by object generation preconditions.
+ * <p>
+ * A generation of 0 means that the object is expected not to exist
+ * ({@code ifGenerationMatch=0}).
+ */
+public class GcsConditionalWrite {
+
+	public static final int DEFAULT_MAX_ATTEMPTS = 8;
+	public static final long DEFAULT_INITIAL_BACKOFF_MILLIS = 50;
+	public static final long MAX_BACKOFF_MILLIS = 5000;
+
+	private GcsConditionalWrite() {
+
+	}
+
+	/**
+	 * Upload {@code readData} to {@code key} if the object is at {@code expectedGeneration}.
+	 *
+	 * @param storage            the google cloud interface
+	 * @param bucketName         the bucket
+	 * @param key                the object key
+	 * @param readData           the data
+	 * @param expectedGeneration the expected generation, 0 if the object must not exist
+	 * @return the written blob, carrying its new generation
+	 * @throws IOException if the upload failed
+	 * @throws N5Exception.N5ConcurrentModificationException if the precondition failed
+	 */
+	public static Blob write(
+			final Storage storage,
+			final String bucketName,
+			final String key,
+			final ReadData readData,
+			final long expectedGeneration) throws IOException {
+
+		return write(storage, bucketName, key, readData, expectedGeneration, null);
+	}
+
+	/**
+	 * Upload {@code readData} to {@code key} if the object is at
+	 * {@code expectedGeneration}, and verify the CRC32C reported for the
+	 * written object. A written generation with a different CRC32C is
+	 * deleted again.
+	 *
+	 * @param storage            the google cloud interface
+	 * @param bucketName         the bucket
+	 * @param key                the object key
+	 * @param readData           the data
+	 * @param expectedGeneration the expected generation, 0 if the object must not exist
+	 * @param crc32c             computes the CRC32C of the uploaded bytes, see
+	 *                           {@link GcsChecksums#newCrc32c()}; null to skip verification
+	 * @return the written blob, carrying its new generation
+	 * @throws IOException if the upload failed or the checksums differ
+	 * @throws N5Exception.N5ConcurrentModificationException if the precondition failed
+	 */
+	public static Blob write(
+			final Storage storage,
+			final String bucketName,
+			final String key,
+			final ReadData readData,
+			final long expectedGeneration,
+			final Checksum crc32c) throws IOException {
+
+		final BlobInfo blobInfo;
+		final BlobWriteOption precondition;
+		if (expectedGeneration == 0) {
+			blobInfo = BlobInfo.newBuilder(bucketName, key).build();
+			precondition = BlobWriteOption.doesNotExist();
+		} else {
+			blobInfo = BlobInfo.newBuilder(BlobId.of(bucketName, key, expectedGeneration)).build();
+			precondition = BlobWriteOption.generationMatch();
+		}
+
+		final Blob blob;
+		try (InputStream inputStream = readData.inputStream()) {
+			blob = storage.createFrom(blobInfo, crc32c == null ? inputStream : new CheckedInputStream(inputStream, crc32c), precondition);
+		} catch (final StorageException e) {
+			throw GcsIoPolicy.translate(e, bucketName, key);
+		}
+		if (crc32c != null)
+			GcsChecksums.verifyWritten(storage, crc32c, bucketName, key, blob);
+		return blob;
+	}
+
+	/**
+	 * Atomically update the object at {@code key}.
+	 * <p>
+	 * Reads the current content and generation, applies {@code update} and
+	 * writes the result guarded by the generation that was read. If another
+	 * writer modified the object in the meantime, the cycle is repeated after
+	 * a randomized exponential backoff.
+	 *
+	 * @param storage    the google cloud interface
+	 * @param bucketName the bucket
+	 * @param key        the object key
+	 * @param update     maps the current content ({@code null} if the object does not exist)
+	 *                   to the new content, or to {@code null} to leave the object unchanged.
+	 *                   May be called more than once.
+	 * @return the written blob, or null if {@code update} returned null
+	 * @throws N5Exception.N5ConcurrentModificationException if the update did not succeed
+	 *                                                       within {@link #DEFAULT_MAX_ATTEMPTS} attempts
+	 */
+	public static Blob readModifyWrite(
+			final Storage storage,
+			final String bucketName,
+			final String key,
+			final UnaryOperator<ReadData> update) {
+
+		return readModifyWrite(storage, bucketName, key, update, DEFAULT_MAX_ATTEMPTS, DEFAULT_INITIAL_BACKOFF_MILLIS);
+	}
+
+	/**
+	 * Atomically update the object at {@code key}.
+	 *
+	 * @param storage              the google cloud interface
+	 * @param bucketName           the bucket
+	 * @param key                  the object key
+	 * @param update               maps the current content ({@code null} if the object does not exist)
+	 *                             to the new content, or to {@code null} to leave the object unchanged
+	 * @param maxAttempts          the maximum number of read-modify-write cycles
+	 * @param initialBackoffMillis the delay before the first retry, doubled on each further retry
+	 * @return the written blob, or null if {@code update} returned null
+	 * @see #readModifyWrite(Storage, String, String, UnaryOperator)
+	 */
+	public static Blob readModifyWrite(
+			final Storage storage,
+			final String bucketName,
+			final String key,
+			final UnaryOperator<ReadData> update,
+			final int maxAttempts,
+			final long initialBackoffMillis) {
+
+		long backoff = initialBackoffMillis;
+		for (int attempt = 1; ; ++attempt) {
+			try {
+				final Blob current = storage.get(BlobId.of(bucketName, key), Storage.BlobGetOption.fields(BlobField.GENERATION));
+				final long generation;
+				final ReadData currentData;
+				if (current == null || current.getGeneration() == null) {
+					generation = 0;
+					currentData = null;
+				} else {
+					generation = current.getGeneration();
+					currentData = ReadData.from(storage.readAllBytes(BlobId.of(bucketName, key, generation)));
+				}
+
+				final ReadData updated = update.apply(currentData);
+				if (updated == null)
+					return null;
+
+				return write(storage, bucketName, key, updated, generation);
+
+			} catch (final N5Exception.N5ConcurrentModificationException | N5Exception.N5NoSuchKeyException e) {
+				/* precondition failed, or the generation we read was replaced before we could fetch it */
+				if (attempt >= maxAttempts)
+					throw new N5Exception.N5ConcurrentModificationException(
+							"Could not update " + key + " in bucket " + bucketName + " after " + attempt + " attempts");
+			} catch (final StorageException e) {
+				final RuntimeException translated = GcsIoPolicy.translate(e, bucketName, key);
+				if (translated == e || attempt >= maxAttempts)
+					throw translated;
+			} catch (final IOException e) {
+				throw new N5IOException("Could not update " + key + " in bucket " + bucketName, e);
+			}
+
+			sleep(ThreadLocalRandom.current().nextLong(backoff / 2, backoff + 1));
+			backoff = Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+		}
+	}
+
+	private static void sleep(final long millis) {
+
+		try {
+			Thread.sleep(millis);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new N5IOException("Interrupted while waiting to retry", e);
+		}
+	}
+}
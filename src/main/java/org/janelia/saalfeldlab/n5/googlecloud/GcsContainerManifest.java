@@ -0,0 +1,421 @@
+package org.janelia.saalfeldlab.n5.googlecloud;
+
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.Storage.BlobField;
+import com.google.cloud.storage.Storage.BlobListOption;
+import com.google.cloud.storage.StorageException;
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+import org.janelia.saalfeldlab.n5.N5Exception.N5IOException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * A consolidated manifest of a container, stored as a single object at the
+ * container root.
+ * <p>
+ * The manifest holds the complete directory tree, the content of all
+ * metadata files (e.g. {@code attributes.json}), and optionally the keys and
+ * sizes of all other objects (blocks, shards). A reader can open a container
+ * and answer group discovery and attribute reads from this one object
+ * instead of thousands of listings and GETs.
+ * <p>
+ * Keys are stored relative to the container root, so the manifest stays
+ * valid when the container is copied.
+ * <p>
+ * The generations of the metadata files are recorded as well, so that a
+ * reader can check with {@link #isCurrent} that none of them was changed or
+ * removed since the manifest was built. Without blocks, the directories
+ * below arrays (block rows) are left out.
+ */
+public class GcsContainerManifest {
+
+	public static final String MANIFEST_KEY = "n5-manifest.json";
+
+	private static final int VERSION = 2;
+
+	/* metadata requests per batch when checking generations */
+	private static final int BATCH_SIZE = 100;
+
+	private static final Set<String> METADATA_FILES = new HashSet<>(Arrays.asList(
+			"attributes.json",
+			"zarr.json",
+			".zattrs",
+			".zgroup",
+			".zarray"));
+
+	private static final Gson gson = new Gson();
+
+	/* the serialized form */
+	private static class Json {
+
+		int version = VERSION;
+		List<String> directories = new ArrayList<>();
+		Map<String, String> metadata = new TreeMap<>();
+		Map<String, Long> generations = new TreeMap<>();
+		List<String> arrays = new ArrayList<>();
+		Map<String, Long> objects = null;
+	}
+
+	private final String prefix;
+	private final NavigableSet<String> directories;
+	private final Map<String, byte[]> metadata;
+	private final Map<String, Long> generations;
+	private final NavigableSet<String> arrays;
+	private final TreeMap<String, Long> objects;
+
+	private GcsContainerManifest(final String prefix, final Json json) {
+
+		this.prefix = prefix;
+		this.directories = new TreeSet<>(json.directories);
+		this.metadata = new TreeMap<>();
+		for (final Map.Entry<String, String> entry : json.metadata.entrySet())
+			metadata.put(entry.getKey(), entry.getValue().getBytes(StandardCharsets.UTF_8));
+		this.generations = new TreeMap<>(json.generations);
+		this.arrays = new TreeSet<>(json.arrays);
+		this.objects = json.objects == null ? null : new TreeMap<>(json.objects);
+	}
+
+	static boolean isMetadataKey(final String key) {
+
+		final int slash = key.lastIndexOf('/');
+		return METADATA_FILES.contains(slash < 0 ? key : key.substring(slash + 1));
+	}
+
+	/* whether the metadata file makes its directory an array, whose subdirectories are block rows */
+	private static boolean isArrayMetadata(final String key, final String content) {
+
+		final int slash = key.lastIndexOf('/');
+		final String name = slash < 0 ? key : key.substring(slash + 1);
+		if (name.equals(".zarray"))
+			return true;
+		if (!name.equals("attributes.json") && !name.equals("zarr.json"))
+			return false;
+		try {
+			final JsonElement json = new JsonParser().parse(content);
+			if (!json.isJsonObject())
+				return false;
+			final JsonObject object = (JsonObject) json;
+			if (name.equals("attributes.json"))
+				return object.has("dimensions");
+			final JsonElement nodeType = object.get("node_type");
+			return nodeType != null && nodeType.isJsonPrimitive() && nodeType.getAsString().equals("array");
+		} catch (final JsonParseException | IllegalStateException | UnsupportedOperationException e) {
+			return false;
+		}
+	}
+
+	private static long generation(final Blob blob) {
+
+		return blob.getGeneration() == null ? 0 : blob.getGeneration();
+	}
+
+	/* whether relative is strictly below one of arrays */
+	private static boolean isBelowArray(final NavigableSet<String> arrays, final String relative) {
+
+		final String array = arrays.lower(relative);
+		return array != null && relative.startsWith(array);
+	}
+
+	/**
+	 * List the container and build its manifest.
+	 *
+	 * @param storage       the google cloud interface
+	 * @param bucketName    the bucket
+	 * @param prefix        the container root key, empty or with trailing slash
+	 * @param includeBlocks whether to include the keys and sizes of all
+	 *                      non-metadata objects, and the directories below
+	 *                      arrays
+	 * @return the manifest
+	 */
+	public static GcsContainerManifest build(
+			final Storage storage,
+			final String bucketName,
+			final String prefix,
+			final boolean includeBlocks) {
+
+		final Json json = new Json();
+		final Set<String> directories = new LinkedHashSet<>();
+		directories.add("");
+		if (includeBlocks)
+			json.objects = new TreeMap<>();
+
+		for (final Blob blob : storage.list(
+				bucketName,
+				BlobListOption.prefix(prefix),
+				BlobListOption.fields(BlobField.NAME, BlobField.SIZE, BlobField.GENERATION)).iterateAll()) {
+
+			final String key = blob.getName().substring(prefix.length());
+			if (key.equals(MANIFEST_KEY))
+				continue;
+
+			for (int slash = key.indexOf('/'); slash >= 0; slash = key.indexOf('/', slash + 1))
+				directories.add(key.substring(0, slash + 1));
+
+			if (key.isEmpty() || key.endsWith("/"))
+				continue;
+
+			if (isMetadataKey(key)) {
+				/* read the listed generation, so content and recorded generation match */
+				final long generation = generation(blob);
+				final BlobId blobId = generation == 0 ? BlobId.of(bucketName, blob.getName()) : BlobId.of(bucketName, blob.getName(), generation);
+				final String content = new String(storage.readAllBytes(blobId), StandardCharsets.UTF_8);
+				json.metadata.put(key, content);
+				json.generations.put(key, generation);
+				if (isArrayMetadata(key, content))
+					json.arrays.add(key.substring(0, key.lastIndexOf('/') + 1));
+			} else if (includeBlocks)
+				json.objects.put(key, blob.getSize() == null ? 0 : blob.getSize());
+		}
+
+		final NavigableSet<String> arrays = new TreeSet<>(json.arrays);
+		for (final String directory : new TreeSet<>(directories)) {
+			if (includeBlocks || !isBelowArray(arrays, directory))
+				json.directories.add(directory);
+		}
+		json.arrays.clear();
+		json.arrays.addAll(arrays);
+		return new GcsContainerManifest(prefix, json);
+	}
+
+	/**
+	 * Load the manifest of the container at {@code prefix}.
+	 *
+	 * @param storage    the google cloud interface
+	 * @param bucketName the bucket
+	 * @param prefix     the container root key, empty or with trailing slash
+	 * @return the manifest, or null if there is none
+	 */
+	public static GcsContainerManifest load(final Storage storage, final String bucketName, final String prefix) {
+
+		final byte[] bytes;
+		try {
+			bytes = storage.readAllBytes(BlobId.of(bucketName, prefix + MANIFEST_KEY));
+		} catch (final StorageException e) {
+			if (e.getCode() == GoogleCloudStorageKeyValueAccess.NOT_FOUND)
+				return null;
+			throw e;
+		}
+
+		try {
+			final Json json = gson.fromJson(new String(bytes, StandardCharsets.UTF_8), Json.class);
+			if (json == null || json.version != VERSION || json.directories == null || json.metadata == null || json.generations == null || json.arrays == null)
+				return null;
+			return new GcsContainerManifest(prefix, json);
+		} catch (final JsonParseException e) {
+			throw new N5IOException("Invalid manifest gs://" + bucketName + "/" + prefix + MANIFEST_KEY, e);
+		}
+	}
+
+	/**
+	 * Check that none of the metadata files recorded in this manifest was
+	 * changed or removed since it was built, with batched metadata requests.
+	 * Objects added by writers that do not maintain the manifest are not
+	 * detected.
+	 *
+	 * @param storage    the google cloud interface
+	 * @param bucketName the bucket
+	 * @return whether all recorded metadata files are at their recorded generation
+	 */
+	public boolean isCurrent(final Storage storage, final String bucketName) {
+
+		final List<String> keys = new ArrayList<>(generations.keySet());
+		for (int i = 0; i < keys.size(); i += BATCH_SIZE) {
+			final List<String> batch = keys.subList(i, Math.min(keys.size(), i + BATCH_SIZE));
+			final List<BlobId> blobIds = new ArrayList<>(batch.size());
+			for (final String key : batch)
+				blobIds.add(BlobId.of(bucketName, prefix + key));
+			final List<Blob> blobs = storage.get(blobIds);
+			for (int j = 0; j < batch.size(); ++j) {
+				final Blob blob = blobs.get(j);
+				if (blob == null || generation(blob) != generations.get(batch.get(j)))
+					return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Store this manifest at the container root.
+	 *
+	 * @param storage    the google cloud interface
+	 * @param bucketName the bucket
+	 */
+	public void write(final Storage storage, final String bucketName) {
+
+		final Json json = new Json();
+		json.directories.addAll(directories);
+		for (final Map.Entry<String, byte[]> entry : metadata.entrySet())
+			json.metadata.put(entry.getKey(), new String(entry.getValue(), StandardCharsets.UTF_8));
+		json.generations.putAll(generations);
+		json.arrays.addAll(arrays);
+		json.objects = objects;
+
+		final BlobInfo blobInfo = BlobInfo.newBuilder(bucketName, prefix + MANIFEST_KEY).setContentType("application/json").build();
+		storage.create(blobInfo, gson.toJson(json).getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Remove the manifest of the container at {@code prefix}.
+	 *
+	 * @param storage    the google cloud interface
+	 * @param bucketName the bucket
+	 * @param prefix     the container root key, empty or with trailing slash
+	 */
+	public static void delete(final Storage storage, final String bucketName, final String prefix) {
+
+		storage.delete(BlobId.of(bucketName, prefix + MANIFEST_KEY));
+	}
+
+	private String relative(final String key) {
+
+		return key.startsWith(prefix) ? key.substring(prefix.length()) : null;
+	}
+
+	/**
+	 * @param key the object or directory key
+	 * @return whether {@code key} is inside the container of this manifest
+	 */
+	public boolean covers(final String key) {
+
+		return relative(key) != null;
+	}
+
+	public boolean includesBlocks() {
+
+		return objects != null;
+	}
+
+	/**
+	 * @param directoryKey the key with trailing slash, or empty for the root
+	 * @return whether {@link #isDirectory(String)} can answer for
+	 *         {@code directoryKey}, i.e. it is not a block row left out of
+	 *         a manifest without blocks
+	 */
+	public boolean coversDirectory(final String directoryKey) {
+
+		final String relative = relative(directoryKey);
+		return relative != null && (objects != null || !isBelowArray(arrays, relative));
+	}
+
+	/**
+	 * @param directoryKey    the key with trailing slash, or empty for the root
+	 * @param onlyDirectories whether only child directories are listed
+	 * @return whether {@link #children(String, boolean)} can answer for
+	 *         {@code directoryKey}
+	 */
+	public boolean coversChildren(final String directoryKey, final boolean onlyDirectories) {
+
+		if (objects != null)
+			return covers(directoryKey);
+		final String relative = relative(directoryKey);
+		return onlyDirectories && relative != null && !arrays.contains(relative) && !isBelowArray(arrays, relative);
+	}
+
+	/**
+	 * @param key the object key
+	 * @return whether {@link #isFile(String)} can answer for {@code key}
+	 */
+	public boolean coversFile(final String key) {
+
+		final String relative = relative(key);
+		return relative != null && !relative.equals(MANIFEST_KEY) && (objects != null || isMetadataKey(relative));
+	}
+
+	public boolean isFile(final String key) {
+
+		final String relative = relative(key);
+		if (relative == null || relative.isEmpty() || relative.endsWith("/"))
+			return false;
+		return metadata.containsKey(relative) || (objects != null && objects.containsKey(relative));
+	}
+
+	/**
+	 * @param key the object key
+	 * @return the size of the object, or -1 if it is not in the manifest
+	 */
+	public long size(final String key) {
+
+		final String relative = relative(key);
+		if (relative == null)
+			return -1;
+		final byte[] bytes = metadata.get(relative);
+		if (bytes != null)
+			return bytes.length;
+		final Long size = objects == null ? null : objects.get(relative);
+		return size == null ? -1 : size;
+	}
+
+	/**
+	 * @param directoryKey the key with trailing slash, or empty for the root
+	 * @return whether {@code directoryKey} is a directory of this container
+	 */
+	public boolean isDirectory(final String directoryKey) {
+
+		final String relative = relative(directoryKey);
+		return relative != null && directories.contains(relative);
+	}
+
+	/**
+	 * @param key the key of a metadata file
+	 * @return its content, or null if there is none
+	 */
+	public byte[] metadata(final String key) {
+
+		final String relative = relative(key);
+		return relative == null ? null : metadata.get(relative);
+	}
+
+	/**
+	 * @param directoryKey the key with trailing slash, or empty for the root
+	 * @param onlyDirectories only list child directories
+	 * @see #coversChildren(String, boolean)
+	 * @return the child names, directories with trailing slash
+	 */
+	public List<String> children(final String directoryKey, final boolean onlyDirectories) {
+
+		final String relative = relative(directoryKey);
+		if (relative == null)
+			return Collections.emptyList();
+
+		final List<String> children = new ArrayList<>();
+		for (final String directory : directories.tailSet(relative, false)) {
+			if (!directory.startsWith(relative))
+				break;
+			if (directory.indexOf('/', relative.length()) == directory.length() - 1)
+				children.add(directory.substring(relative.length()));
+		}
+		if (!onlyDirectories) {
+			addFiles(children, metadata.keySet(), relative);
+			if (objects != null)
+				addFiles(children, objects.keySet(), relative);
+		}
+		return children;
+	}
+
+	private static void addFiles(final List<String> children, final Set<String> keys, final String relative) {
+
+		for (final String key : keys) {
+			if (key.startsWith(relative) && key.indexOf('/', relative.length()) < 0)
+				children.add(key.substring(relative.length()));
+		}
+	}
+}
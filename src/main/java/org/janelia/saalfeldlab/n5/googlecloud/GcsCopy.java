@@ -0,0 +1,238 @@
+package org.janelia.saalfeldlab.n5.googlecloud;
+
+import com.google.cloud.RestorableState;
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.CopyWriter;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.Storage.BlobField;
+import com.google.cloud.storage.Storage.BlobListOption;
+import com.google.cloud.storage.Storage.BlobSourceOption;
+import com.google.cloud.storage.Storage.CopyRequest;
+import com.google.cloud.storage.StorageException;
+import org.janelia.saalfeldlab.n5.N5Exception.N5IOException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Server-side copy and move of objects with the GCS rewrite API.
+ * <p>
+ * Object bytes never pass through the client. Many objects are rewritten
+ * concurrently, large objects are rewritten in chunks and resumed from their
+ * last rewrite token when a chunk fails with a retryable error. Moving
+ * deletes each source object after it was copied, guarded by the source
+ * generation that was copied.
+ */
+public class GcsCopy {
+
+	public static final int DEFAULT_PARALLELISM = 32;
+	private static final int MAX_CHUNK_RETRIES = 5;
+
+	/**
+	 * Receives progress of a copy. May be called concurrently.
+	 */
+	public interface ProgressListener {
+
+		/**
+		 * @param objectsCopied the number of objects copied so far
+		 * @param objectsListed the number of objects listed so far
+		 * @param bytesCopied   the number of bytes copied so far
+		 */
+		void progress(long objectsCopied, long objectsListed, long bytesCopied);
+	}
+
+	private final Storage storage;
+	private int parallelism = DEFAULT_PARALLELISM;
+	private Long megabytesCopiedPerChunk = null;
+	private ProgressListener progressListener = null;
+
+	private final AtomicLong objectsListed = new AtomicLong();
+	private final AtomicLong objectsCopied = new AtomicLong();
+	private final AtomicLong bytesCopied = new AtomicLong();
+
+	public GcsCopy(final Storage storage) {
+
+		this.storage = storage;
+	}
+
+	/**
+	 * @param parallelism the number of objects rewritten concurrently
+	 * @return this
+	 */
+	public GcsCopy setParallelism(final int parallelism) {
+
+		if (parallelism < 1)
+			throw new IllegalArgumentException("parallelism must be positive");
+		this.parallelism = parallelism;
+		return this;
+	}
+
+	/**
+	 * @param megabytesCopiedPerChunk the maximum number of megabytes rewritten per request,
+	 *                                or null for the server's choice
+	 * @return this
+	 */
+	public GcsCopy setMegabytesCopiedPerChunk(final Long megabytesCopiedPerChunk) {
+
+		this.megabytesCopiedPerChunk = megabytesCopiedPerChunk;
+		return this;
+	}
+
+	public GcsCopy setProgressListener(final ProgressListener progressListener) {
+
+		this.progressListener = progressListener;
+		return this;
+	}
+
+	/**
+	 * Copy a single object.
+	 *
+	 * @param sourceBucket the source bucket
+	 * @param sourceKey    the source object key
+	 * @param targetBucket the target bucket
+	 * @param targetKey    the target object key
+	 * @param move         if true, delete the source after copying
+	 */
+	public void copyObject(
+			final String sourceBucket,
+			final String sourceKey,
+			final String targetBucket,
+			final String targetKey,
+			final boolean move) {
+
+		final Blob source = storage.get(BlobId.of(sourceBucket, sourceKey), Storage.BlobGetOption.fields(BlobField.GENERATION));
+		if (source == null)
+			throw new N5IOException("No such key. bucket: " + sourceBucket + ". key: " + sourceKey);
+
+		objectsListed.incrementAndGet();
+		rewrite(BlobId.of(sourceBucket, sourceKey, source.getGeneration()), BlobId.of(targetBucket, targetKey), move);
+	}
+
+	/**
+	 * Copy all objects whose key starts with {@code sourcePrefix}, replacing
+	 * {@code sourcePrefix} with {@code targetPrefix}.
+	 *
+	 * @param sourceBucket the source bucket
+	 * @param sourcePrefix the source key prefix
+	 * @param targetBucket the target bucket
+	 * @param targetPrefix the target key prefix
+	 * @param move         if true, delete each source after copying it
+	 * @throws N5IOException if any object could not be copied, with the
+	 *                       individual failures attached as suppressed exceptions
+	 * @throws IllegalArgumentException if the target prefix lies below the
+	 *                                  source prefix in the same bucket
+	 */
+	public void copyPrefix(
+			final String sourceBucket,
+			final String sourcePrefix,
+			final String targetBucket,
+			final String targetPrefix,
+			final boolean move) throws N5IOException {
+
+		/* the listing is paged while copying, it would pick up the copies */
+		if (sourceBucket.equals(targetBucket) && targetPrefix.startsWith(sourcePrefix))
+			throw new IllegalArgumentException("Cannot copy gs://" + sourceBucket + "/" + sourcePrefix + " into itself: " + targetPrefix);
+
+		final ConcurrentLinkedQueue<Exception> failures = new ConcurrentLinkedQueue<>();
+		final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+				parallelism,
+				parallelism,
+				0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<>(parallelism * 4),
+				new ThreadPoolExecutor.CallerRunsPolicy());
+
+		try {
+			for (final Blob blob : storage.list(
+					sourceBucket,
+					BlobListOption.prefix(sourcePrefix),
+					BlobListOption.fields(BlobField.NAME, BlobField.GENERATION)).iterateAll()) {
+
+				objectsListed.incrementAndGet();
+				final BlobId source = BlobId.of(sourceBucket, blob.getName(), blob.getGeneration());
+				final BlobId target = BlobId.of(targetBucket, targetPrefix + blob.getName().substring(sourcePrefix.length()));
+				executor.execute(() -> {
+					try {
+						rewrite(source, target, move);
+					} catch (final Exception e) {
+						failures.add(e);
+					}
+				});
+			}
+		} finally {
+			executor.shutdown();
+			awaitTermination(executor);
+		}
+
+		if (!failures.isEmpty()) {
+			final N5IOException e = new N5IOException(
+					"Failed to copy " + failures.size() + " objects from gs://" + sourceBucket + "/" + sourcePrefix);
+			final List<Exception> list = new ArrayList<>(failures);
+			for (final Exception failure : list)
+				e.addSuppressed(failure);
+			throw e;
+		}
+	}
+
+	private void rewrite(final BlobId source, final BlobId target, final boolean move) {
+
+		final CopyRequest.Builder request = CopyRequest.newBuilder()
+				.setSource(source)
+				.setTarget(target);
+		if (megabytesCopiedPerChunk != null)
+			request.setMegabytesCopiedPerChunk(megabytesCopiedPerChunk);
+
+		CopyWriter copyWriter = storage.copy(request.build());
+		RestorableState<CopyWriter> state = copyWriter.capture();
+		long copied = copyWriter.getTotalBytesCopied();
+		int retries = 0;
+		while (!copyWriter.isDone()) {
+			try {
+				copyWriter.copyChunk();
+				state = copyWriter.capture();
+				retries = 0;
+			} catch (final StorageException e) {
+				if (!e.isRetryable() || ++retries > MAX_CHUNK_RETRIES)
+					throw e;
+				/* resume from the last rewrite token */
+				copyWriter = state.restore();
+			}
+			bytesCopied.addAndGet(copyWriter.getTotalBytesCopied() - copied);
+			copied = copyWriter.getTotalBytesCopied();
+			reportProgress();
+		}
+		bytesCopied.addAndGet(copyWriter.getTotalBytesCopied() - copied);
+
+		if (move) {
+			if (source.getGeneration() != null)
+				storage.delete(BlobId.of(source.getBucket(), source.getName()), BlobSourceOption.generationMatch(source.getGeneration()));
+			else
+				storage.delete(source);
+		}
+
+		objectsCopied.incrementAndGet();
+		reportProgress();
+	}
+
+	private void reportProgress() {
+
+		if (progressListener != null)
+			progressListener.progress(objectsCopied.get(), objectsListed.get(), bytesCopied.get());
+	}
+
+	private static void awaitTermination(final ThreadPoolExecutor executor) {
+
+		try {
+			while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {}
+		} catch (final InterruptedException e) {
+			executor.shutdownNow();
+			Thread.currentThread().interrupt();
+			throw new N5IOException("Interrupted while copying", e);
+		}
+	}
+}
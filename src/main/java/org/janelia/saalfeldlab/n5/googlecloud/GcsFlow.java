@@ -0,0 +1,54 @@
+package org.janelia.saalfeldlab.n5.googlecloud;
+
+/**
+ * Interfaces for demand-driven publishing with the same shape and contract as
+ * {@code java.util.concurrent.Flow} (and Reactive Streams), because this library
+ * still targets Java 8. Adapting to either is a matter of forwarding calls.
+ */
+public final class GcsFlow {
+
+	private GcsFlow() {
+
+	}
+
+	/**
+	 * A producer of items that are received by a {@link Subscriber} as it
+	 * requests them.
+	 *
+	 * @param <T> the item type
+	 */
+	@FunctionalInterface
+	public interface Publisher<T> {
+
+		void subscribe(Subscriber<? super T> subscriber);
+	}
+
+	/**
+	 * A receiver of items. Signals are never concurrent.
+	 *
+	 * @param <T> the item type
+	 */
+	public interface Subscriber<T> {
+
+		void onSubscribe(Subscription subscription);
+
+		void onNext(T item);
+
+		void onError(Throwable throwable);
+
+		void onComplete();
+	}
+
+	/**
+	 * The link between a {@link Publisher} and a {@link Subscriber}.
+	 */
+	public interface Subscription {
+
+		/**
+		 * @param n the number of additional items the subscriber can receive, must be positive
+		 */
+		void request(long n);
+
+		void cancel();
+	}
+}
@@ -2,6 +2,7 @@ package org.janelia.saalfeldlab.n5.googlecloud;
 
 import com.google.api.gax.paging.Page;
 import com.google.cloud.ReadChannel;
+import com.google.cloud.WriteChannel;
 import com.google.cloud.storage.*;
 import org.janelia.saalfeldlab.n5.IoPolicy;
 import org.janelia.saalfeldlab.n5.N5Exception;
@@ -10,9 +11,22 @@ import org.janelia.saalfeldlab.n5.readdata.ReadData;
 import org.janelia.saalfeldlab.n5.readdata.VolatileReadData;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.nio.channels.Channels;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongConsumer;
+import java.util.function.Predicate;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.Checksum;
 
 public interface GcsIoPolicy extends IoPolicy {
 
@@ -28,29 +42,170 @@ public interface GcsIoPolicy extends IoPolicy {
         return true;
     }
 
+    int PRECONDITION_FAILED = 412;
+
+    /**
+     * Translate a {@link StorageException} into the corresponding {@link N5Exception}.
+     */
+    static RuntimeException translate(final StorageException e, final String bucketName, final String key) {
+
+        if (e.getCode() == 404)
+            return new N5Exception.N5NoSuchKeyException("No such key. bucket: " + bucketName + ". key: " + key);
+        if (e.getCode() == PRECONDITION_FAILED)
+            return new N5Exception.N5ConcurrentModificationException("Generation mismatch. bucket: " + bucketName + ". key: " + key);
+        return e;
+    }
+
     class Unsafe implements GcsIoPolicy {
 
+        /**
+         * Custom metadata that identifies the generation of a verified
+         * streamed or journaled upload.
+         */
+        public static final String UPLOAD_ID_METADATA_KEY = "n5-upload-id";
+
         protected final Storage storage;
         protected final String bucketName;
+        private GcsStreamingUpload streamingUpload = null;
+        private GcsUploadJournal uploadJournal = null;
+        private boolean verifyChecksums = false;
+        private int pageSize = 0;
 
         public Unsafe(Storage storage, String bucketName) {
             this.storage = storage;
             this.bucketName = bucketName;
         }
 
+        /**
+         * Upload with a pipelined {@link GcsStreamingUpload} instead of
+         * writing through a single channel stream, or {@code null} for the
+         * latter.
+         */
+        public void setStreamingUpload(GcsStreamingUpload streamingUpload) {
+            this.streamingUpload = streamingUpload;
+        }
+
+        /**
+         * Journal uploads with a {@link GcsUploadJournal}, so that an upload
+         * interrupted by a restart of the process continues where it left
+         * off when the same object is written again, or {@code null} to
+         * upload without a journal. Takes precedence over a streaming upload.
+         */
+        public void setUploadJournal(GcsUploadJournal uploadJournal) {
+            this.uploadJournal = uploadJournal;
+        }
+
+        /**
+         * Verify the CRC32C of uploaded objects and of whole-object reads
+         * against the checksum reported by GCS. The checksum is computed
+         * while the bytes are transferred. A plain upload is verified
+         * against the object it returns; streamed and journaled uploads are
+         * tagged with an upload id ({@value #UPLOAD_ID_METADATA_KEY}), kept
+         * when a journaled upload is resumed, and cost one metadata request
+         * after the upload. A generation that fails
+         * verification is deleted again.
+         */
+        public void setVerifyChecksums(boolean verifyChecksums) {
+            this.verifyChecksums = verifyChecksums;
+        }
+
+        public boolean isVerifyChecksums() {
+            return verifyChecksums;
+        }
+
+        /**
+         * Read objects in pages of {@code pageSize} bytes that are fetched on
+         * first touch (see {@link GcsPagedLazyRead}), so that sub-reads only
+         * cost the pages they cover. Paged reads are always pinned to one
+         * generation and are not checksum-verified. 0 disables paging.
+         */
+        public void setPageSize(int pageSize) {
+            this.pageSize = pageSize;
+        }
+
+        public int getPageSize() {
+            return pageSize;
+        }
+
+        protected LazyRead lazyRead(String key, boolean generationMatch, LongConsumer generationObserver) {
+            if (pageSize > 0)
+                return new GcsPagedLazyRead(storage, bucketName, key, pageSize, GcsPagedLazyRead.DEFAULT_MAX_PAGES, generationObserver);
+            return new GCSLazyRead(storage, bucketName, key, generationMatch, generationObserver, verifyChecksums);
+        }
+
         @Override
         public void write(String key, ReadData readData) throws IOException {
 
-            BlobInfo blobInfo = BlobInfo.newBuilder(bucketName, key).build();
-            try (OutputStream outputStream = Channels.newOutputStream(storage.writer(blobInfo))) {
-                readData.writeTo(outputStream);
+            if (verifyChecksums) {
+                writeVerified(key, readData);
+                return;
+            }
+            final BlobInfo blobInfo = BlobInfo.newBuilder(bucketName, key).build();
+            if (uploadJournal != null) {
+                uploadJournal.upload(blobInfo, readData, null);
+                return;
+            }
+            final WriteChannel channel = storage.writer(blobInfo);
+            if (streamingUpload != null) {
+                streamingUpload.upload(channel, readData);
+            } else {
+                try (OutputStream outputStream = Channels.newOutputStream(channel)) {
+                    readData.writeTo(outputStream);
+                }
+            }
+        }
+
+        /*
+         * Verifies the generation this upload created. A plain upload gets it
+         * back from createFrom. Channels do not report the object they
+         * finalized, so those uploads carry an id in their metadata that
+         * identifies their generation in a single metadata request. If another
+         * writer replaced the object in the meantime, there is nothing left
+         * to verify.
+         */
+        private void writeVerified(String key, ReadData readData) throws IOException {
+
+            final Checksum checksum = GcsChecksums.newCrc32c();
+            if (uploadJournal == null && streamingUpload == null) {
+                final Blob blob;
+                try (InputStream inputStream = readData.inputStream()) {
+                    blob = storage.createFrom(BlobInfo.newBuilder(bucketName, key).build(), new CheckedInputStream(inputStream, checksum));
+                }
+                GcsChecksums.verifyWritten(storage, checksum, bucketName, key, blob);
+                return;
+            }
+
+            /* a resumed upload keeps the id of the session it continues */
+            final String uploadId = pendingUploadId(key);
+            final BlobInfo blobInfo = BlobInfo.newBuilder(bucketName, key)
+                    .setMetadata(Collections.singletonMap(UPLOAD_ID_METADATA_KEY, uploadId))
+                    .build();
+            if (uploadJournal != null)
+                uploadJournal.upload(blobInfo, readData, checksum);
+            else
+                streamingUpload.upload(storage.writer(blobInfo), readData, checksum);
+
+            final Blob blob = storage.get(
+                    BlobId.of(bucketName, key),
+                    Storage.BlobGetOption.fields(Storage.BlobField.GENERATION, Storage.BlobField.CRC32C, Storage.BlobField.METADATA));
+            if (blob != null && blob.getMetadata() != null && uploadId.equals(blob.getMetadata().get(UPLOAD_ID_METADATA_KEY)))
+                GcsChecksums.verifyWritten(storage, checksum, bucketName, key, blob);
+        }
+
+        private String pendingUploadId(String key) {
+
+            if (uploadJournal != null) {
+                final Map<String, String> metadata = uploadJournal.getPendingMetadata(bucketName, key);
+                if (metadata != null && metadata.get(UPLOAD_ID_METADATA_KEY) != null)
+                    return metadata.get(UPLOAD_ID_METADATA_KEY);
             }
+            return UUID.randomUUID().toString();
         }
 
         @Override
         public VolatileReadData read(String key) {
 
-            return VolatileReadData.from(new GCSLazyRead(storage, bucketName, key, false));
+            return VolatileReadData.from(lazyRead(key, false, null));
         }
 
         @Override
@@ -61,7 +216,8 @@ public interface GcsIoPolicy extends IoPolicy {
 
 
             /*
-             * TODO consider instead using Object Lifecycle Management when deleting many items see:
+             * For very large prefixes, GoogleCloudStorageKeyValueAccess#deleteDeferred
+             * hides the prefix with a tombstone and leaves this to a reclaimer, see:
              * https://cloud.google.com/storage/docs/deleting-objects#delete-objects-in-bulk
              */
             Page<Blob> page = storage.list(
@@ -86,7 +242,425 @@ public interface GcsIoPolicy extends IoPolicy {
 
         @Override
         public VolatileReadData read(String key) {
-            return VolatileReadData.from(new GCSLazyRead(storage, bucketName, key, true));
+            return VolatileReadData.from(lazyRead(key, true, null));
+        }
+    }
+
+    /**
+     * Compare-and-swap writes.
+     * <p>
+     * Reads pin the generation like {@link GenerationMatch} and remember the
+     * generation observed for each key. A later write of that key is only
+     * applied if the object is still at the observed generation (or still
+     * does not exist), otherwise it fails with
+     * {@link N5Exception.N5ConcurrentModificationException}. Keys that were
+     * never read through this policy are written unconditionally. The
+     * generations of the most recently used keys are kept, up to
+     * {@link #DEFAULT_MAX_OBSERVED} by default; a key whose generation was
+     * evicted is written unconditionally as well.
+     * <p>
+     * Use {@link GcsConditionalWrite#readModifyWrite} to retry a whole
+     * read-modify-write cycle on conflicts.
+     */
+    class CompareAndSwap extends GenerationMatch {
+
+        public static final int DEFAULT_MAX_OBSERVED = 1 << 16;
+
+        /* guarded by itself */
+        private final Map<String, Long> observedGenerations;
+
+        public CompareAndSwap(Storage storage, String bucketName) {
+            this(storage, bucketName, DEFAULT_MAX_OBSERVED);
+        }
+
+        /**
+         * @param maxObserved the number of keys whose observed generation is kept
+         */
+        public CompareAndSwap(Storage storage, String bucketName, int maxObserved) {
+            super(storage, bucketName);
+            this.observedGenerations = Collections.synchronizedMap(new LinkedHashMap<String, Long>(16, 0.75f, true) {
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                    return size() > maxObserved;
+                }
+            });
+        }
+
+        /**
+         * @return the number of keys whose observed generation is kept
+         */
+        public int numObserved() {
+            return observedGenerations.size();
+        }
+
+        @Override
+        public VolatileReadData read(String key) {
+            return VolatileReadData.from(lazyRead(key, true, generation -> observedGenerations.put(key, generation)));
+        }
+
+        @Override
+        public void write(String key, ReadData readData) throws IOException {
+
+            final Long expectedGeneration = observedGenerations.get(key);
+            if (expectedGeneration == null) {
+                super.write(key, readData);
+                return;
+            }
+            write(key, readData, expectedGeneration);
+        }
+
+        /**
+         * Write {@code readData} if the object is at {@code expectedGeneration}.
+         *
+         * @param key                the object key
+         * @param readData           the data
+         * @param expectedGeneration the expected generation, 0 if the object must not exist
+         * @throws IOException if the upload failed
+         * @throws N5Exception.N5ConcurrentModificationException if the precondition failed
+         */
+        public void write(String key, ReadData readData, long expectedGeneration) throws IOException {
+
+            try {
+                final Checksum checksum = isVerifyChecksums() ? GcsChecksums.newCrc32c() : null;
+                final Blob blob = GcsConditionalWrite.write(storage, bucketName, key, readData, expectedGeneration, checksum);
+                observedGenerations.put(key, blob.getGeneration());
+            } catch (final N5Exception.N5ConcurrentModificationException e) {
+                observedGenerations.remove(key);
+                throw e;
+            }
+        }
+
+        /**
+         * Forget the generation observed for {@code key}, so the next write is unconditional.
+         *
+         * @param key the object key
+         */
+        public void forget(String key) {
+            observedGenerations.remove(key);
+        }
+
+        @Override
+        public void delete(String key) {
+            /* directory keys may come without trailing slash */
+            final String prefix = key.endsWith("/") ? key : key + "/";
+            synchronized (observedGenerations) {
+                observedGenerations.remove(key);
+                observedGenerations.keySet().removeIf(k -> k.startsWith(prefix));
+            }
+            super.delete(key);
+        }
+    }
+
+    /**
+     * For write-once containers, e.g. published datasets.
+     * <p>
+     * Reads skip generation tracking, preconditions and metadata requests:
+     * by default an object is fetched with a single GET the first time it is
+     * touched and its bytes are cached for the lifetime of the process,
+     * shared by all instances. This cache is unbounded; use
+     * {@link #clearCache()} to release it.
+     * <p>
+     * With {@link #setMaxCacheBytes(long) a bound}, the generation and size
+     * of an object are looked up with one metadata request instead, and its
+     * bytes are fetched in pages (see {@link GcsPagedLazyRead}) as they are
+     * read, so reading the index of a large shard does not fetch the whole
+     * shard. Pages are evicted least recently used first beyond the bound.
+     * <p>
+     * Writes and deletes through this policy evict the affected entries,
+     * changes by other processes are never observed.
+     */
+    class Immutable extends Unsafe {
+
+        public static final long UNBOUNDED = -1;
+
+        private static final int MAX_CACHED_OBJECTS = 1 << 16;
+
+        private static class PageKey {
+
+            final String cacheKey;
+            final int pageSize;
+            final long page;
+
+            PageKey(String cacheKey, int pageSize, long page) {
+                this.cacheKey = cacheKey;
+                this.pageSize = pageSize;
+                this.page = page;
+            }
+
+            @Override
+            public boolean equals(Object o) {
+                if (!(o instanceof PageKey))
+                    return false;
+                final PageKey other = (PageKey) o;
+                return page == other.page && pageSize == other.pageSize && cacheKey.equals(other.cacheKey);
+            }
+
+            @Override
+            public int hashCode() {
+                return 31 * (31 * cacheKey.hashCode() + pageSize) + Long.hashCode(page);
+            }
+        }
+
+        /* whole objects, if unbounded */
+        private static final Map<String, byte[]> cache = new ConcurrentHashMap<>();
+
+        /* pages and the number of pages per object and page size, if bounded, guarded by pages */
+        private static final LinkedHashMap<PageKey, byte[]> pages = new LinkedHashMap<>(16, 0.75f, true);
+        private static final Map<PageKey, Integer> pageCounts = new HashMap<>();
+        private static long cachedBytes = 0;
+        private static volatile long maxCacheBytes = UNBOUNDED;
+
+        /* {generation, size} by object, if bounded, guarded by objects */
+        private static final LinkedHashMap<String, long[]> objects = new LinkedHashMap<String, long[]>(16, 0.75f, true) {
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, long[]> eldest) {
+                return size() > MAX_CACHED_OBJECTS;
+            }
+        };
+
+        public Immutable(Storage storage, String bucketName) {
+            super(storage, bucketName);
+        }
+
+        public static void clearCache() {
+            cache.clear();
+            synchronized (pages) {
+                pages.clear();
+                pageCounts.clear();
+                cachedBytes = 0;
+            }
+            synchronized (objects) {
+                objects.clear();
+            }
+        }
+
+        /**
+         * Keep at most {@code maxCacheBytes} of pages for all instances, or
+         * cache whole objects without bound with {@link #UNBOUNDED}, the
+         * default. Switching between the two clears the cache.
+         */
+        public static void setMaxCacheBytes(long maxCacheBytes) {
+            if (maxCacheBytes < 0 && maxCacheBytes != UNBOUNDED)
+                throw new IllegalArgumentException("Negative cache size " + maxCacheBytes);
+            synchronized (pages) {
+                final boolean switched = (maxCacheBytes == UNBOUNDED) != (Immutable.maxCacheBytes == UNBOUNDED);
+                Immutable.maxCacheBytes = maxCacheBytes;
+                if (switched)
+                    clearCache();
+                else
+                    trim();
+            }
+        }
+
+        public static long getMaxCacheBytes() {
+            return maxCacheBytes;
+        }
+
+        /**
+         * @return the number of bytes currently cached
+         */
+        public static long getCachedBytes() {
+            long bytes = 0;
+            for (final byte[] object : cache.values())
+                bytes += object.length;
+            synchronized (pages) {
+                return bytes + cachedBytes;
+            }
+        }
+
+        /* evict least recently used pages until the cache fits, holding pages */
+        private static void trim() {
+            final Iterator<Map.Entry<PageKey, byte[]>> it = pages.entrySet().iterator();
+            while (maxCacheBytes != UNBOUNDED && cachedBytes > maxCacheBytes && it.hasNext()) {
+                final Map.Entry<PageKey, byte[]> entry = it.next();
+                it.remove();
+                removed(entry.getKey(), entry.getValue());
+            }
+        }
+
+        /* account for a page removed from pages, holding pages */
+        private static void removed(PageKey key, byte[] bytes) {
+            cachedBytes -= bytes.length;
+            pageCounts.computeIfPresent(new PageKey(key.cacheKey, key.pageSize, -1), (k, n) -> n == 1 ? null : n - 1);
+        }
+
+        /* evict cacheKey and, if prefix is not null, everything below prefix */
+        private static void evict(String cacheKey, String prefix) {
+            final Predicate<String> affected = k -> k.equals(cacheKey) || (prefix != null && k.startsWith(prefix));
+            cache.keySet().removeIf(affected);
+            synchronized (pages) {
+                final Iterator<Map.Entry<PageKey, byte[]>> it = pages.entrySet().iterator();
+                while (it.hasNext()) {
+                    final Map.Entry<PageKey, byte[]> entry = it.next();
+                    if (affected.test(entry.getKey().cacheKey)) {
+                        it.remove();
+                        removed(entry.getKey(), entry.getValue());
+                    }
+                }
+            }
+            synchronized (objects) {
+                objects.keySet().removeIf(affected);
+            }
+        }
+
+        private String cacheKey(String key) {
+            return bucketName + "/" + key;
+        }
+
+        @Override
+        public VolatileReadData read(String key) {
+            final String cacheKey = cacheKey(key);
+            if (maxCacheBytes == UNBOUNDED)
+                return VolatileReadData.from(new ImmutableLazyRead(key, cacheKey));
+
+            final int pageSize = getPageSize() > 0 ? getPageSize() : GcsPagedLazyRead.DEFAULT_PAGE_SIZE;
+            return VolatileReadData.from(new GcsPagedLazyRead(storage, bucketName, key, pageSize, new SharedPageTable(cacheKey, pageSize), null) {
+
+                @Override
+                GcsSnapshot.PinnedLazyRead pin() {
+                    return Immutable.this.pin(key, cacheKey);
+                }
+            });
+        }
+
+        /* the whole object, fetched with a single GET the first time */
+        private byte[] bytes(String key, String cacheKey) {
+            final byte[] cached = cache.get(cacheKey);
+            if (cached != null)
+                return cached;
+
+            final byte[] bytes;
+            try {
+                bytes = storage.readAllBytes(BlobId.of(bucketName, key));
+            } catch (StorageException e) {
+                throw translate(e, bucketName, key);
+            }
+            final byte[] previous = cache.putIfAbsent(cacheKey, bytes);
+            return previous == null ? bytes : previous;
+        }
+
+        /* the object at its cached generation and size, looked up once */
+        private GcsSnapshot.PinnedLazyRead pin(String key, String cacheKey) {
+
+            long[] object;
+            synchronized (objects) {
+                object = objects.get(cacheKey);
+            }
+            if (object == null) {
+                final Blob blob;
+                try {
+                    blob = storage.get(BlobId.of(bucketName, key), Storage.BlobGetOption.fields(Storage.BlobField.SIZE, Storage.BlobField.GENERATION));
+                } catch (StorageException e) {
+                    throw translate(e, bucketName, key);
+                }
+                if (blob == null)
+                    throw new N5Exception.N5NoSuchKeyException("No such key. bucket: " + bucketName + ". key: " + key);
+                object = new long[]{
+                        blob.getGeneration() == null ? 0 : blob.getGeneration(),
+                        blob.getSize() == null ? 0 : blob.getSize()};
+                synchronized (objects) {
+                    objects.put(cacheKey, object);
+                }
+            }
+            return new GcsSnapshot.PinnedLazyRead(
+                    storage,
+                    object[0] == 0 ? BlobId.of(bucketName, key) : BlobId.of(bucketName, key, object[0]),
+                    object[1]);
+        }
+
+        @Override
+        public void write(String key, ReadData readData) throws IOException {
+            evict(cacheKey(key), null);
+            super.write(key, readData);
+        }
+
+        @Override
+        public void delete(String key) {
+            /* directory keys may come without trailing slash */
+            final String cacheKey = cacheKey(key);
+            evict(cacheKey, cacheKey.endsWith("/") ? cacheKey : cacheKey + "/");
+            super.delete(key);
+        }
+
+        private class ImmutableLazyRead implements LazyRead {
+
+            private final String key;
+            private final String cacheKey;
+
+            ImmutableLazyRead(String key, String cacheKey) {
+                this.key = key;
+                this.cacheKey = cacheKey;
+            }
+
+            @Override
+            public long size() {
+                return bytes(key, cacheKey).length;
+            }
+
+            @Override
+            public ReadData materialize(long offset, long length) {
+
+                final byte[] bytes = bytes(key, cacheKey);
+                if (!validBounds(bytes.length, offset, length))
+                    throw new IndexOutOfBoundsException();
+
+                if (offset == 0 && (length < 0 || length == bytes.length))
+                    return ReadData.from(bytes);
+
+                final long end = length < 0 ? bytes.length : offset + length;
+                return ReadData.from(Arrays.copyOfRange(bytes, (int) offset, (int) end));
+            }
+
+            @Override
+            public void close() {}
+        }
+
+        /* a view of the process-wide pages of one object */
+        private static class SharedPageTable implements GcsPagedLazyRead.PageTable {
+
+            private final String cacheKey;
+            private final int pageSize;
+            private final PageKey table;
+
+            SharedPageTable(String cacheKey, int pageSize) {
+                this.cacheKey = cacheKey;
+                this.pageSize = pageSize;
+                this.table = new PageKey(cacheKey, pageSize, -1);
+            }
+
+            @Override
+            public byte[] get(long page) {
+                synchronized (pages) {
+                    return pages.get(new PageKey(cacheKey, pageSize, page));
+                }
+            }
+
+            @Override
+            public void put(long page, byte[] bytes) {
+                synchronized (pages) {
+                    final byte[] previous = pages.put(new PageKey(cacheKey, pageSize, page), bytes);
+                    if (previous != null)
+                        cachedBytes -= previous.length;
+                    else
+                        pageCounts.merge(table, 1, Integer::sum);
+                    cachedBytes += bytes.length;
+                    trim();
+                }
+            }
+
+            @Override
+            public int size() {
+                synchronized (pages) {
+                    return pageCounts.getOrDefault(table, 0);
+                }
+            }
+
+            @Override
+            public void clear() {
+                /* shared with other reads, kept until evicted */
+            }
         }
     }
 
@@ -96,6 +670,8 @@ public interface GcsIoPolicy extends IoPolicy {
         private final String bucketName;
         private final String normalKey;
         private final boolean generationMatch;
+        private final LongConsumer generationObserver;
+        private final boolean verifyChecksum;
         private Long generation = null;
 
 
@@ -104,10 +680,38 @@ public interface GcsIoPolicy extends IoPolicy {
                 final String bucketName,
                 final String normalKey,
                 final boolean generationMatch) {
+            this(storage, bucketName, normalKey, generationMatch, null);
+        }
+
+        /**
+         * @param generationObserver is notified of the generation this read is pinned to,
+         *                           or 0 if the key does not exist. May be null.
+         */
+        GCSLazyRead(
+                final Storage storage,
+                final String bucketName,
+                final String normalKey,
+                final boolean generationMatch,
+                final LongConsumer generationObserver) {
+            this(storage, bucketName, normalKey, generationMatch, generationObserver, false);
+        }
+
+        /**
+         * @param verifyChecksum verify whole-object reads against the CRC32C reported by GCS
+         */
+        GCSLazyRead(
+                final Storage storage,
+                final String bucketName,
+                final String normalKey,
+                final boolean generationMatch,
+                final LongConsumer generationObserver,
+                final boolean verifyChecksum) {
             this.storage = storage;
             this.bucketName = bucketName;
             this.normalKey = normalKey;
             this.generationMatch = generationMatch;
+            this.generationObserver = generationObserver;
+            this.verifyChecksum = verifyChecksum;
         }
 
         private Blob getBlob(String normalKey, Storage.BlobGetOption... options) {
@@ -124,18 +728,22 @@ public interface GcsIoPolicy extends IoPolicy {
                     blob = storage.get(blobId, options);
                 }
             } catch (StorageException e) {
-                if (e.getCode() == 404)
-                    throw new N5Exception.N5NoSuchKeyException("No such key. bucket: " + bucketName + ". key: " + normalKey);
-                if (e.getCode() == 412)
-                    throw new N5Exception.N5ConcurrentModificationException("Generation mismatch. bucket: " + bucketName + ". key: " + normalKey);
-                throw e;
+                if (e.getCode() == 404 && generationObserver != null && generation == null)
+                    generationObserver.accept(0);
+                throw translate(e, bucketName, normalKey);
             }
 
-            if (blob == null)
+            if (blob == null) {
+                if (generationObserver != null && generation == null)
+                    generationObserver.accept(0);
                 throw new N5Exception.N5NoSuchKeyException("No such key. bucket: " + bucketName + ". key: " + normalKey);
+            }
 
-            if (generationMatch && generation == null)
+            if (generationMatch && generation == null) {
                 generation = blob.getGeneration();
+                if (generationObserver != null && generation != null)
+                    generationObserver.accept(generation);
+            }
 
             return blob;
         }
@@ -166,12 +774,30 @@ public interface GcsIoPolicy extends IoPolicy {
 
                 long readLength;
                 if (length < 0)
-                    readLength = channelSize;
+                    readLength = channelSize - offset;
                 else
                     readLength = length;
 
+                /* only whole-object reads can be checked against the object checksum */
+                final Checksum checksum = verifyChecksum && offset == 0 && readLength == channelSize
+                        ? GcsChecksums.newCrc32c()
+                        : null;
+
                 final ByteBuffer buf = ByteBuffer.allocate((int) readLength);
-                from.read(buf);
+                while (buf.hasRemaining()) {
+                    final int position = buf.position();
+                    final int n = from.read(buf);
+                    if (n < 0)
+                        break;
+                    if (checksum != null)
+                        checksum.update(buf.array(), position, n);
+                }
+                if (checksum != null) {
+                    if (buf.hasRemaining())
+                        throw new N5Exception.N5IOException("Short read. bucket: " + bucketName + ". key: " + normalKey);
+                    GcsChecksums.verify(checksum, blob.getCrc32c(), bucketName, normalKey);
+                }
+                buf.flip();
                 return ReadData.from(buf);
 
             } catch (IOException e) {
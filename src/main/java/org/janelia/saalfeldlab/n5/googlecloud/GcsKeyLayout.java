@@ -0,0 +1,253 @@
+package org.janelia.saalfeldlab.n5.googlecloud;
+
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.StorageException;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import org.janelia.saalfeldlab.n5.N5Exception;
+import org.janelia.saalfeldlab.n5.N5Exception.N5IOException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Maps the logical keys of a container to object keys.
+ * <p>
+ * N5 block keys like {@code dataset/0/0/1}, {@code dataset/0/0/2} are
+ * lexicographically sequential, and GCS distributes load by key range, so
+ * massively parallel writes of a fresh dataset all hit the same range until
+ * it is split. The hashed layout stores every object that is neither a
+ * metadata file nor a directory marker below
+ * {@code .n5-blocks/<hash>/<key>}, where {@code <hash>} is a short
+ * hexadecimal hash of the key, which spreads such writes over
+ * {@code 16^hashLength} ranges from the start. Metadata and directory
+ * markers keep their keys, so groups are listed as before.
+ * <p>
+ * Listing a directory that holds objects under hashed keys costs one listing
+ * per hash value, i.e. {@code 16^hashLength} listings, which is why the hash
+ * length is limited to {@link #MAX_HASH_LENGTH}. Such directories are
+ * recorded below {@link #DIRECTORY} (see {@link #blockDirectoryKey}) so that
+ * all other directories are listed with a single request.
+ * <p>
+ * The layout is stored in {@link #DESCRIPTOR_KEY} at the container root, so
+ * readers pick it up automatically.
+ */
+public class GcsKeyLayout {
+
+	public static final String DESCRIPTOR_KEY = "n5-key-layout.json";
+	public static final String DIRECTORY = ".n5-blocks/";
+
+	public static final int DEFAULT_HASH_LENGTH = 2;
+	/* 256 listings per block directory */
+	public static final int MAX_HASH_LENGTH = 2;
+
+	/* below DIRECTORY, never a hash value */
+	private static final String BLOCK_DIRECTORIES = "directories/";
+
+	private static final int VERSION = 1;
+	private static final String HASHED = "hashed";
+
+	private static final Gson gson = new Gson();
+
+	/**
+	 * Keys are object keys.
+	 */
+	public static final GcsKeyLayout IDENTITY = new GcsKeyLayout(0);
+
+	/* the serialized form */
+	private static class Json {
+
+		int version = VERSION;
+		String type = HASHED;
+		int hashLength;
+	}
+
+	private final int hashLength;
+
+	private GcsKeyLayout(final int hashLength) {
+
+		this.hashLength = hashLength;
+	}
+
+	/**
+	 * @param hashLength the number of hexadecimal digits of the hash, 1 to
+	 *                   {@link #MAX_HASH_LENGTH}
+	 * @return the hashed layout
+	 */
+	public static GcsKeyLayout hashed(final int hashLength) {
+
+		if (hashLength < 1 || hashLength > MAX_HASH_LENGTH)
+			throw new IllegalArgumentException("hashLength must be between 1 and " + MAX_HASH_LENGTH);
+		return new GcsKeyLayout(hashLength);
+	}
+
+	/**
+	 * Load the layout of the container at {@code prefix}.
+	 *
+	 * @param storage    the google cloud interface
+	 * @param bucketName the bucket
+	 * @param prefix     the container root key, empty or with trailing slash
+	 * @return the layout, {@link #IDENTITY} if there is no descriptor
+	 */
+	public static GcsKeyLayout load(final Storage storage, final String bucketName, final String prefix) {
+
+		final byte[] bytes;
+		try {
+			bytes = storage.readAllBytes(BlobId.of(bucketName, prefix + DESCRIPTOR_KEY));
+		} catch (final StorageException e) {
+			if (e.getCode() == GoogleCloudStorageKeyValueAccess.NOT_FOUND)
+				return IDENTITY;
+			throw e;
+		}
+
+		final Json json;
+		try {
+			json = gson.fromJson(new String(bytes, StandardCharsets.UTF_8), Json.class);
+		} catch (final JsonParseException e) {
+			throw new N5IOException("Invalid key layout gs://" + bucketName + "/" + prefix + DESCRIPTOR_KEY, e);
+		}
+		if (json == null || json.version != VERSION || !HASHED.equals(json.type))
+			throw new N5Exception("Unsupported key layout gs://" + bucketName + "/" + prefix + DESCRIPTOR_KEY);
+		return hashed(json.hashLength);
+	}
+
+	/**
+	 * Store this layout at the container root.
+	 *
+	 * @param storage    the google cloud interface
+	 * @param bucketName the bucket
+	 * @param prefix     the container root key, empty or with trailing slash
+	 */
+	public void write(final Storage storage, final String bucketName, final String prefix) {
+
+		if (!isHashed()) {
+			storage.delete(BlobId.of(bucketName, prefix + DESCRIPTOR_KEY));
+			return;
+		}
+
+		final Json json = new Json();
+		json.hashLength = hashLength;
+		final BlobInfo blobInfo = BlobInfo.newBuilder(bucketName, prefix + DESCRIPTOR_KEY).setContentType("application/json").build();
+		storage.create(blobInfo, gson.toJson(json).getBytes(StandardCharsets.UTF_8));
+	}
+
+	public boolean isHashed() {
+
+		return hashLength > 0;
+	}
+
+	public int getHashLength() {
+
+		return hashLength;
+	}
+
+	/**
+	 * @param prefix the container root key, empty or with trailing slash
+	 * @param key    the logical key
+	 * @return whether {@code key} is stored under a different object key
+	 */
+	public boolean maps(final String prefix, final String key) {
+
+		return isHashed()
+				&& key.startsWith(prefix)
+				&& key.length() > prefix.length()
+				&& !key.endsWith("/")
+				&& !key.startsWith(prefix + DIRECTORY)
+				&& !key.equals(prefix + DESCRIPTOR_KEY)
+				&& !key.equals(prefix + GcsStripedKeyValueAccess.STRIPES_KEY)
+				&& !key.equals(prefix + GcsContainerManifest.MANIFEST_KEY)
+				&& !key.startsWith(prefix + GcsTombstones.DIRECTORY)
+				&& !GcsContainerManifest.isMetadataKey(key);
+	}
+
+	/**
+	 * @param prefix the container root key, empty or with trailing slash
+	 * @param key    the logical key
+	 * @return the object key of {@code key}
+	 */
+	public String toObjectKey(final String prefix, final String key) {
+
+		if (!maps(prefix, key))
+			return key;
+
+		final String relative = key.substring(prefix.length());
+		return prefix + DIRECTORY + hash(relative) + "/" + relative;
+	}
+
+	/**
+	 * The reverse of {@link #toObjectKey}.
+	 *
+	 * @param prefix    the container root key, empty or with trailing slash
+	 * @param objectKey the object key
+	 * @return the logical key of {@code objectKey}
+	 */
+	public String toLogicalKey(final String prefix, final String objectKey) {
+
+		final String hashed = prefix + DIRECTORY;
+		if (!isHashed()
+				|| !objectKey.startsWith(hashed)
+				|| objectKey.length() < hashed.length() + hashLength + 1
+				|| objectKey.charAt(hashed.length() + hashLength) != '/')
+			return objectKey;
+		return prefix + objectKey.substring(hashed.length() + hashLength + 1);
+	}
+
+	/**
+	 * @param prefix    the container root key, empty or with trailing slash
+	 * @param directory the logical directory key with trailing slash
+	 * @return the object key prefixes under which objects below
+	 * {@code directory} are stored, one per hash value
+	 */
+	public List<String> objectPrefixes(final String prefix, final String directory) {
+
+		final List<String> prefixes = new ArrayList<>();
+		if (!isHashed() || !directory.startsWith(prefix))
+			return prefixes;
+
+		final String relative = directory.substring(prefix.length());
+		final int numHashes = 1 << (4 * hashLength);
+		for (int i = 0; i < numHashes; ++i)
+			prefixes.add(prefix + DIRECTORY + hex(i) + "/" + relative);
+		return prefixes;
+	}
+
+	/**
+	 * @param key a logical key that {@link #maps maps} to a hashed key
+	 * @return the logical key of its directory, with trailing slash
+	 */
+	public static String directoryOf(final String key) {
+
+		return key.substring(0, key.lastIndexOf('/') + 1);
+	}
+
+	/**
+	 * @param prefix    the container root key, empty or with trailing slash
+	 * @param directory the logical directory key with trailing slash
+	 * @return the key of the empty object that records that
+	 * {@code directory} holds objects stored under hashed keys
+	 */
+	public String blockDirectoryKey(final String prefix, final String directory) {
+
+		return prefix + DIRECTORY + BLOCK_DIRECTORIES + directory.substring(prefix.length());
+	}
+
+	private String hash(final String relative) {
+
+		final CRC32 crc = new CRC32();
+		crc.update(relative.getBytes(StandardCharsets.UTF_8));
+		return hex((int) (crc.getValue() >>> (32 - 4 * hashLength)));
+	}
+
+	private String hex(final int value) {
+
+		final String hex = Integer.toHexString(value);
+		final StringBuilder padded = new StringBuilder(hashLength);
+		for (int i = hex.length(); i < hashLength; ++i)
+			padded.append('0');
+		return padded.append(hex).toString();
+	}
+}
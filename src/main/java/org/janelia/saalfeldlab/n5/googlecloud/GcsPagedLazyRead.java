@@ -0,0 +1,282 @@
+package org.janelia.saalfeldlab.n5.googlecloud;
+
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.Storage.BlobField;
+import com.google.cloud.storage.Storage.BlobGetOption;
+import com.google.cloud.storage.StorageException;
+import org.janelia.saalfeldlab.n5.N5Exception;
+import org.janelia.saalfeldlab.n5.N5Exception.N5IOException;
+import org.janelia.saalfeldlab.n5.readdata.LazyRead;
+import org.janelia.saalfeldlab.n5.readdata.ReadData;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.LongConsumer;
+
+/**
+ * A {@link LazyRead} that fetches an object in fixed-size pages on first
+ * touch and keeps recently used pages in a small per-object page table.
+ * <p>
+ * Reading a shard index or a few blocks of a shard costs only the pages they
+ * cover. Consecutive missing pages are fetched with a single range request.
+ * All pages are read from the generation observed by the first metadata
+ * request, so they are mutually consistent; if that generation is replaced
+ * and no longer readable, fetching a page fails with
+ * {@link N5Exception.N5ConcurrentModificationException}.
+ */
+public class GcsPagedLazyRead implements LazyRead {
+
+	public static final int DEFAULT_PAGE_SIZE = 1024 * 1024;
+	public static final int DEFAULT_MAX_PAGES = 64;
+
+	/**
+	 * Where the pages of one object are kept.
+	 */
+	interface PageTable {
+
+		/**
+		 * @return the page, or null if it is not held
+		 */
+		byte[] get(long page);
+
+		void put(long page, byte[] bytes);
+
+		int size();
+
+		/* release the pages when the read is closed */
+		void clear();
+	}
+
+	/* the most recently used pages of a single read */
+	private static class LruPageTable implements PageTable {
+
+		private final LinkedHashMap<Long, byte[]> pages;
+
+		LruPageTable(final int maxPages) {
+
+			pages = new LinkedHashMap<Long, byte[]>(16, 0.75f, true) {
+
+				@Override
+				protected boolean removeEldestEntry(final Map.Entry<Long, byte[]> eldest) {
+
+					return size() > maxPages;
+				}
+			};
+		}
+
+		@Override
+		public byte[] get(final long page) {
+
+			return pages.get(page);
+		}
+
+		@Override
+		public void put(final long page, final byte[] bytes) {
+
+			pages.put(page, bytes);
+		}
+
+		@Override
+		public int size() {
+
+			return pages.size();
+		}
+
+		@Override
+		public void clear() {
+
+			pages.clear();
+		}
+	}
+
+	private final Storage storage;
+	private final String bucketName;
+	private final String normalKey;
+	private final int pageSize;
+	private final LongConsumer generationObserver;
+
+	/* guarded by this */
+	private final PageTable pages;
+	private GcsSnapshot.PinnedLazyRead pinned = null;
+
+	/**
+	 * @param storage            the google cloud interface
+	 * @param bucketName         the bucket
+	 * @param normalKey          the object key
+	 * @param pageSize           the page size in bytes
+	 * @param maxPages           the maximum number of pages kept
+	 * @param generationObserver is notified of the generation this read is
+	 *                           pinned to, or 0 if the key does not exist. May be null.
+	 */
+	public GcsPagedLazyRead(
+			final Storage storage,
+			final String bucketName,
+			final String normalKey,
+			final int pageSize,
+			final int maxPages,
+			final LongConsumer generationObserver) {
+
+		this(storage, bucketName, normalKey, pageSize, new LruPageTable(maxPages), generationObserver);
+	}
+
+	/**
+	 * @param storage            the google cloud interface
+	 * @param bucketName         the bucket
+	 * @param normalKey          the object key
+	 * @param pageSize           the page size in bytes
+	 * @param pages              where pages are kept, may be shared with other reads
+	 * @param generationObserver is notified of the generation this read is
+	 *                           pinned to, or 0 if the key does not exist. May be null.
+	 */
+	GcsPagedLazyRead(
+			final Storage storage,
+			final String bucketName,
+			final String normalKey,
+			final int pageSize,
+			final PageTable pages,
+			final LongConsumer generationObserver) {
+
+		if (pageSize < 1)
+			throw new IllegalArgumentException("pageSize must be positive");
+		this.storage = storage;
+		this.bucketName = bucketName;
+		this.normalKey = normalKey;
+		this.pageSize = pageSize;
+		this.pages = pages;
+		this.generationObserver = generationObserver;
+	}
+
+	public GcsPagedLazyRead(final Storage storage, final String bucketName, final String normalKey) {
+
+		this(storage, bucketName, normalKey, DEFAULT_PAGE_SIZE, DEFAULT_MAX_PAGES, null);
+	}
+
+	private synchronized GcsSnapshot.PinnedLazyRead pinned() {
+
+		if (pinned == null)
+			pinned = pin();
+		return pinned;
+	}
+
+	/**
+	 * Look up the generation and size of the object, called once per read.
+	 *
+	 * @return the object pinned to its current generation
+	 */
+	GcsSnapshot.PinnedLazyRead pin() {
+
+		final Blob blob;
+		try {
+			blob = storage.get(BlobId.of(bucketName, normalKey), BlobGetOption.fields(BlobField.SIZE, BlobField.GENERATION));
+		} catch (final StorageException e) {
+			if (e.getCode() == GoogleCloudStorageKeyValueAccess.NOT_FOUND && generationObserver != null)
+				generationObserver.accept(0);
+			throw GcsIoPolicy.translate(e, bucketName, normalKey);
+		}
+		if (blob == null) {
+			if (generationObserver != null)
+				generationObserver.accept(0);
+			throw new N5Exception.N5NoSuchKeyException("No such key. bucket: " + bucketName + ". key: " + normalKey);
+		}
+
+		final long generation = blob.getGeneration() == null ? 0 : blob.getGeneration();
+		if (generationObserver != null && generation != 0)
+			generationObserver.accept(generation);
+		return new GcsSnapshot.PinnedLazyRead(
+				storage,
+				generation == 0 ? BlobId.of(bucketName, normalKey) : BlobId.of(bucketName, normalKey, generation),
+				blob.getSize() == null ? 0 : blob.getSize());
+	}
+
+	@Override
+	public long size() {
+
+		return pinned().size();
+	}
+
+	/**
+	 * @return the number of pages currently held
+	 */
+	public synchronized int numPages() {
+
+		return pages.size();
+	}
+
+	@Override
+	public synchronized ReadData materialize(final long offset, final long length) {
+
+		final long size = size();
+		if (!GcsIoPolicy.validBounds(size, offset, length))
+			throw new IndexOutOfBoundsException();
+
+		final long readLength = length < 0 ? size - offset : length;
+		if (readLength > Integer.MAX_VALUE)
+			throw new N5IOException("Attempt to materialize too large data");
+
+		final byte[] result = new byte[(int) readLength];
+		if (readLength == 0)
+			return ReadData.from(result);
+
+		final long firstPage = offset / pageSize;
+		final long lastPage = (offset + readLength - 1) / pageSize;
+
+		long page = firstPage;
+		while (page <= lastPage) {
+			final byte[] bytes = pages.get(page);
+			if (bytes != null) {
+				copy(bytes, page * pageSize, offset, result);
+				++page;
+				continue;
+			}
+
+			/* fetch this and all following missing pages in one request */
+			long end = page + 1;
+			while (end <= lastPage && pages.get(end) == null)
+				++end;
+			copy(fetch(page, end), page * pageSize, offset, result);
+			page = end;
+		}
+		return ReadData.from(result);
+	}
+
+	/* fetch pages [first, end) and return their concatenated bytes */
+	private byte[] fetch(final long first, final long end) {
+
+		final GcsSnapshot.PinnedLazyRead pinned = pinned();
+		final long start = first * pageSize;
+		final long stop = Math.min(end * pageSize, pinned.size());
+
+		final byte[] bytes;
+		try {
+			bytes = pinned.materialize(start, stop - start).allBytes();
+		} catch (final N5Exception.N5NoSuchKeyException e) {
+			throw new N5Exception.N5ConcurrentModificationException("Generation replaced. bucket: " + bucketName + ". key: " + normalKey);
+		}
+
+		for (long page = first; page < end; ++page) {
+			final int from = (int) ((page - first) * pageSize);
+			final int to = (int) Math.min(from + (long) pageSize, bytes.length);
+			final byte[] pageBytes = new byte[to - from];
+			System.arraycopy(bytes, from, pageBytes, 0, pageBytes.length);
+			pages.put(page, pageBytes);
+		}
+		return bytes;
+	}
+
+	/* copy the overlap of bytes starting at object position start with [offset, offset + result.length) */
+	private static void copy(final byte[] bytes, final long start, final long offset, final byte[] result) {
+
+		final long from = Math.max(offset, start);
+		final long to = Math.min(offset + result.length, start + bytes.length);
+		System.arraycopy(bytes, (int) (from - start), result, (int) (from - offset), (int) (to - from));
+	}
+
+	@Override
+	public synchronized void close() {
+
+		pages.clear();
+		pinned = null;
+	}
+}
@@ -0,0 +1,266 @@
+package org.janelia.saalfeldlab.n5.googlecloud;
+
+import org.janelia.saalfeldlab.n5.N5Exception;
+import org.janelia.saalfeldlab.n5.readdata.ReadData;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Publishes the content of a sequence of keys with demand-driven
+ * backpressure.
+ * <p>
+ * At most {@code maxConcurrency} reads are in flight, and never more than
+ * the subscriber has requested and not yet received, so memory is bounded by
+ * demand. Items are emitted in key order or as reads complete. A missing key
+ * is emitted as an {@link Item} without data; any other failure terminates
+ * the stream with {@link GcsFlow.Subscriber#onError}.
+ * <p>
+ * The keys are consumed once, so a publisher accepts a single subscriber.
+ */
+public class GcsReadPublisher implements GcsFlow.Publisher<GcsReadPublisher.Item> {
+
+	private static final AtomicInteger threadCount = new AtomicInteger();
+
+	/**
+	 * The content of one key.
+	 */
+	public static class Item {
+
+		private final String key;
+		private final ReadData readData;
+
+		Item(final String key, final ReadData readData) {
+
+			this.key = key;
+			this.readData = readData;
+		}
+
+		public String getKey() {
+
+			return key;
+		}
+
+		/**
+		 * @return the materialized content, or null if the key does not exist
+		 */
+		public ReadData getReadData() {
+
+			return readData;
+		}
+	}
+
+	private final Iterator<String> keys;
+	private final Function<String, ReadData> read;
+	private final int maxConcurrency;
+	private final boolean ordered;
+	private final AtomicBoolean subscribed = new AtomicBoolean(false);
+
+	/**
+	 * @param keys           the keys to read
+	 * @param read           reads and materializes the content of a key,
+	 *                       throws {@link N5Exception.N5NoSuchKeyException}
+	 *                       if it does not exist
+	 * @param maxConcurrency the maximum number of concurrent reads
+	 * @param ordered        emit items in key order rather than as reads complete
+	 */
+	public GcsReadPublisher(
+			final Iterator<String> keys,
+			final Function<String, ReadData> read,
+			final int maxConcurrency,
+			final boolean ordered) {
+
+		this.keys = keys;
+		this.read = read;
+		this.maxConcurrency = Math.max(1, maxConcurrency);
+		this.ordered = ordered;
+	}
+
+	@Override
+	public void subscribe(final GcsFlow.Subscriber<? super Item> subscriber) {
+
+		if (!subscribed.compareAndSet(false, true)) {
+			subscriber.onSubscribe(new GcsFlow.Subscription() {
+
+				@Override
+				public void request(final long n) {}
+
+				@Override
+				public void cancel() {}
+			});
+			subscriber.onError(new IllegalStateException("Publisher supports a single subscriber"));
+			return;
+		}
+		final ReadSubscription subscription = new ReadSubscription(subscriber);
+		subscriber.onSubscribe(subscription);
+		subscription.drain();
+	}
+
+	private static class Slot {
+
+		final String key;
+		volatile ReadData readData;
+		volatile Throwable error;
+		volatile boolean done;
+
+		Slot(final String key) {
+
+			this.key = key;
+		}
+	}
+
+	private class ReadSubscription implements GcsFlow.Subscription {
+
+		private final GcsFlow.Subscriber<? super Item> subscriber;
+		private final AtomicLong requested = new AtomicLong();
+		private final AtomicInteger wip = new AtomicInteger();
+		private final ExecutorService executor;
+
+		/* accessed only in drain */
+		private final Queue<Slot> issued = new ArrayDeque<>();
+		private int outstanding = 0;
+		private boolean exhausted = false;
+		private boolean terminated = false;
+
+		private final Queue<Slot> completed = new ConcurrentLinkedQueue<>();
+		private volatile boolean cancelled = false;
+		private volatile Throwable requestError = null;
+
+		ReadSubscription(final GcsFlow.Subscriber<? super Item> subscriber) {
+
+			this.subscriber = subscriber;
+			this.executor = Executors.newFixedThreadPool(maxConcurrency, r -> {
+				final Thread thread = new Thread(r, "n5-gcs-read-publisher-" + threadCount.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+
+		@Override
+		public void request(final long n) {
+
+			if (n <= 0)
+				requestError = new IllegalArgumentException("Non-positive request: " + n);
+			else
+				requested.accumulateAndGet(n, (a, b) -> a + b < 0 ? Long.MAX_VALUE : a + b);
+			drain();
+		}
+
+		@Override
+		public void cancel() {
+
+			cancelled = true;
+			drain();
+		}
+
+		private Slot nextReady() {
+
+			if (ordered) {
+				final Slot head = issued.peek();
+				return head != null && head.done ? issued.poll() : null;
+			}
+			return completed.poll();
+		}
+
+		private void terminate() {
+
+			terminated = true;
+			executor.shutdownNow();
+		}
+
+		void drain() {
+
+			if (wip.getAndIncrement() != 0)
+				return;
+
+			int missed = 1;
+			do {
+				if (terminated)
+					return;
+
+				if (cancelled) {
+					terminate();
+					return;
+				}
+
+				if (requestError != null) {
+					terminate();
+					subscriber.onError(requestError);
+					return;
+				}
+
+				/* emit completed reads while there is demand */
+				while (requested.get() > 0) {
+					final Slot slot = nextReady();
+					if (slot == null)
+						break;
+					--outstanding;
+					if (slot.error != null) {
+						terminate();
+						subscriber.onError(slot.error);
+						return;
+					}
+					requested.decrementAndGet();
+					subscriber.onNext(new Item(slot.key, slot.readData));
+					if (cancelled) {
+						terminate();
+						return;
+					}
+				}
+
+				/* issue reads up to the demand and the concurrency limit */
+				try {
+					while (!exhausted && outstanding < Math.min(requested.get(), maxConcurrency)) {
+						if (!keys.hasNext()) {
+							exhausted = true;
+							break;
+						}
+						issue(keys.next());
+					}
+				} catch (final RuntimeException e) {
+					terminate();
+					subscriber.onError(e);
+					return;
+				}
+
+				if (exhausted && outstanding == 0) {
+					terminate();
+					subscriber.onComplete();
+					return;
+				}
+
+				missed = wip.addAndGet(-missed);
+			} while (missed != 0);
+		}
+
+		private void issue(final String key) {
+
+			final Slot slot = new Slot(key);
+			++outstanding;
+			if (ordered)
+				issued.add(slot);
+
+			executor.execute(() -> {
+				try {
+					slot.readData = read.apply(key);
+				} catch (final N5Exception.N5NoSuchKeyException e) {
+					slot.readData = null;
+				} catch (final Throwable t) {
+					slot.error = t;
+				}
+				slot.done = true;
+				if (!ordered)
+					completed.add(slot);
+				drain();
+			});
+		}
+	}
+}
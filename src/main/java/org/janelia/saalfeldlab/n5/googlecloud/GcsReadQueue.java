@@ -0,0 +1,277 @@
+package org.janelia.saalfeldlab.n5.googlecloud;
+
+import com.google.cloud.storage.Storage;
+import org.janelia.saalfeldlab.n5.N5Exception;
+import org.janelia.saalfeldlab.n5.readdata.ReadData;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+
+/**
+ * A queue of object reads served in priority order by a fixed number of
+ * workers, e.g. for interactive viewers that request many chunks and then
+ * move on.
+ * <p>
+ * The priority of a pending {@link Request} can be changed at any time.
+ * Cancelling a pending request removes it from the queue, cancelling a
+ * request in flight aborts its download by closing the channel.
+ */
+public class GcsReadQueue implements Closeable {
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private static final AtomicInteger threadCount = new AtomicInteger();
+
+	private final Storage storage;
+	private final String bucketName;
+	private final UnaryOperator<String> toKey;
+	private final Function<String, ReadData> readWithoutDownload;
+	private final ExecutorService workers;
+	private final AtomicLong sequence = new AtomicLong();
+
+	/* guarded by this */
+	private final PriorityQueue<Request> queue = new PriorityQueue<>(
+			Comparator.comparingDouble((Request r) -> -r.priority).thenComparingLong(r -> r.sequence));
+	private boolean closed = false;
+
+	/**
+	 * A read of one object.
+	 */
+	public class Request {
+
+		private final String submittedKey;
+		private final String key;
+		private final long sequence;
+		private final CompletableFuture<ReadData> result = new CompletableFuture<>();
+
+		/* guarded by the queue */
+		private double priority;
+		private GcsResumableInputStream inFlight = null;
+
+		private Request(final String submittedKey, final String key, final double priority) {
+
+			this.submittedKey = submittedKey;
+			this.key = key;
+			this.priority = priority;
+			this.sequence = GcsReadQueue.this.sequence.getAndIncrement();
+		}
+
+		public String getKey() {
+
+			return key;
+		}
+
+		/**
+		 * @return completes with the content of the object, or exceptionally
+		 * if the read failed or was cancelled
+		 */
+		public CompletableFuture<ReadData> getResult() {
+
+			return result;
+		}
+
+		/**
+		 * Change the priority of this request. Has no effect once the read
+		 * has started.
+		 *
+		 * @param priority higher priorities are served first
+		 */
+		public void setPriority(final double priority) {
+
+			synchronized (GcsReadQueue.this) {
+				if (queue.remove(this)) {
+					this.priority = priority;
+					queue.add(this);
+				} else
+					this.priority = priority;
+			}
+		}
+
+		public double getPriority() {
+
+			synchronized (GcsReadQueue.this) {
+				return priority;
+			}
+		}
+
+		/**
+		 * Cancel this request. A pending request is removed from the queue,
+		 * a download in flight is aborted.
+		 */
+		public void cancel() {
+
+			final GcsResumableInputStream stream;
+			synchronized (GcsReadQueue.this) {
+				queue.remove(this);
+				stream = inFlight;
+			}
+			result.cancel(false);
+			if (stream != null)
+				stream.close();
+		}
+
+		public boolean isCancelled() {
+
+			return result.isCancelled();
+		}
+	}
+
+	/**
+	 * @param storage     the google cloud interface
+	 * @param bucketName  the bucket
+	 * @param parallelism the number of concurrent downloads
+	 */
+	public GcsReadQueue(final Storage storage, final String bucketName, final int parallelism) {
+
+		this(storage, bucketName, parallelism, UnaryOperator.identity(), key -> null);
+	}
+
+	/**
+	 * @param toKey               maps submitted keys to object keys
+	 * @param readWithoutDownload the data of a submitted key that is not
+	 *                            downloaded, or null to download the object;
+	 *                            called by the workers
+	 */
+	GcsReadQueue(
+			final Storage storage,
+			final String bucketName,
+			final int parallelism,
+			final UnaryOperator<String> toKey,
+			final Function<String, ReadData> readWithoutDownload) {
+
+		this.storage = storage;
+		this.bucketName = bucketName;
+		this.toKey = toKey;
+		this.readWithoutDownload = readWithoutDownload;
+		this.workers = Executors.newFixedThreadPool(parallelism, r -> {
+			final Thread thread = new Thread(r, "n5-gcs-read-queue-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		for (int i = 0; i < parallelism; ++i)
+			workers.submit(this::work);
+	}
+
+	/**
+	 * Queue a read.
+	 *
+	 * @param key      the object key
+	 * @param priority higher priorities are served first, requests of equal
+	 *                 priority in submission order
+	 * @return the request
+	 */
+	public Request submit(final String key, final double priority) {
+
+		final Request request = new Request(key, toKey.apply(key), priority);
+		synchronized (this) {
+			if (closed)
+				throw new N5Exception("Read queue is closed");
+			queue.add(request);
+			notifyAll();
+		}
+		return request;
+	}
+
+	/**
+	 * @return the number of requests waiting to be served
+	 */
+	public synchronized int numPending() {
+
+		return queue.size();
+	}
+
+	/**
+	 * Cancel all pending requests.
+	 */
+	public void cancelPending() {
+
+		final Request[] pending;
+		synchronized (this) {
+			pending = queue.toArray(new Request[0]);
+			queue.clear();
+		}
+		for (final Request request : pending)
+			request.cancel();
+	}
+
+	/**
+	 * Cancel all pending requests and stop the workers once requests in
+	 * flight are done.
+	 */
+	@Override
+	public void close() {
+
+		synchronized (this) {
+			closed = true;
+			notifyAll();
+		}
+		cancelPending();
+		workers.shutdown();
+	}
+
+	private void work() {
+
+		while (true) {
+			final Request request;
+			synchronized (this) {
+				while (queue.isEmpty()) {
+					if (closed)
+						return;
+					try {
+						wait();
+					} catch (final InterruptedException e) {
+						return;
+					}
+				}
+				request = queue.poll();
+			}
+
+			try {
+				final ReadData readData = readWithoutDownload.apply(request.submittedKey);
+				if (readData != null) {
+					request.result.complete(ReadData.from(readData.allBytes()));
+					continue;
+				}
+			} catch (final Exception e) {
+				request.result.completeExceptionally(e);
+				continue;
+			}
+			download(request);
+		}
+	}
+
+	private void download(final Request request) {
+
+		final GcsResumableInputStream stream;
+		synchronized (this) {
+			/* a request cancelled meanwhile is done and stops below */
+			stream = new GcsResumableInputStream(storage, bucketName, request.key);
+			request.inFlight = stream;
+		}
+
+		try {
+			final ByteArrayOutputStream out = new ByteArrayOutputStream();
+			final byte[] buffer = new byte[BUFFER_SIZE];
+			for (int n; !request.result.isDone() && (n = stream.read(buffer)) >= 0; )
+				out.write(buffer, 0, n);
+			request.result.complete(ReadData.from(out.toByteArray()));
+		} catch (final Exception e) {
+			/* no-op if cancelled */
+			request.result.completeExceptionally(e);
+		} finally {
+			synchronized (this) {
+				request.inFlight = null;
+			}
+			stream.close();
+		}
+	}
+}
@@ -0,0 +1,193 @@
+package org.janelia.saalfeldlab.n5.googlecloud;
+
+import com.google.cloud.ReadChannel;
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.Storage.BlobField;
+import com.google.cloud.storage.Storage.BlobGetOption;
+import com.google.cloud.storage.StorageException;
+import org.janelia.saalfeldlab.n5.N5Exception;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * An {@link InputStream} that reads an object directly from a
+ * {@link ReadChannel}, so consumers (e.g. decompressors) can start while the
+ * remaining bytes are still arriving.
+ * <p>
+ * The stream is pinned to the generation of the object when the first byte
+ * is requested. If the transfer fails mid-stream with a transient error
+ * (network errors, 408, 429 and 5xx responses) or ends early, the channel is
+ * reopened at the current position of the same generation, up to
+ * {@link #DEFAULT_MAX_RESUMES} times. Other errors, e.g. 401 or 403, fail
+ * immediately. If the generation is no longer
+ * readable, reading fails with
+ * {@link N5Exception.N5ConcurrentModificationException}.
+ */
+public class GcsResumableInputStream extends InputStream {
+
+	public static final int DEFAULT_MAX_RESUMES = 5;
+
+	private final Storage storage;
+	private final String bucketName;
+	private final String normalKey;
+	private final int maxResumes;
+
+	private BlobId pinnedId = null;
+	private long size = -1;
+	private long position = 0;
+	private volatile ReadChannel channel = null;
+	private int resumes = 0;
+	private volatile boolean closed = false;
+
+	public GcsResumableInputStream(final Storage storage, final String bucketName, final String normalKey, final int maxResumes) {
+
+		this.storage = storage;
+		this.bucketName = bucketName;
+		this.normalKey = normalKey;
+		this.maxResumes = maxResumes;
+	}
+
+	public GcsResumableInputStream(final Storage storage, final String bucketName, final String normalKey) {
+
+		this(storage, bucketName, normalKey, DEFAULT_MAX_RESUMES);
+	}
+
+	private void pin() {
+
+		if (pinnedId != null)
+			return;
+
+		final Blob blob;
+		try {
+			blob = storage.get(BlobId.of(bucketName, normalKey), BlobGetOption.fields(BlobField.SIZE, BlobField.GENERATION));
+		} catch (final StorageException e) {
+			throw GcsIoPolicy.translate(e, bucketName, normalKey);
+		}
+		if (blob == null)
+			throw new N5Exception.N5NoSuchKeyException("No such key. bucket: " + bucketName + ". key: " + normalKey);
+
+		size = blob.getSize() == null ? 0 : blob.getSize();
+		pinnedId = blob.getGeneration() == null ? BlobId.of(bucketName, normalKey) : BlobId.of(bucketName, normalKey, blob.getGeneration());
+	}
+
+	/**
+	 * @return the size of the object
+	 */
+	public long size() {
+
+		pin();
+		return size;
+	}
+
+	/**
+	 * @return the number of times the transfer was resumed
+	 */
+	public int getResumes() {
+
+		return resumes;
+	}
+
+	@Override
+	public int read() throws IOException {
+
+		final byte[] b = new byte[1];
+		final int n = read(b, 0, 1);
+		return n < 0 ? -1 : b[0] & 0xFF;
+	}
+
+	@Override
+	public int read(final byte[] b, final int off, final int len) throws IOException {
+
+		if (closed)
+			throw new IOException("Stream closed");
+		if (len == 0)
+			return 0;
+
+		pin();
+		if (position >= size)
+			return -1;
+
+		final ByteBuffer buffer = ByteBuffer.wrap(b, off, (int) Math.min(len, size - position));
+		while (true) {
+			try {
+				ReadChannel current = channel;
+				if (current == null) {
+					current = storage.reader(pinnedId);
+					current.seek(position);
+					channel = current;
+				}
+				final int n = current.read(buffer);
+				if (n < 0) {
+					/* the channel ended early, resume at the current position */
+					throw new IOException("Unexpected end of " + normalKey + " at " + position + " of " + size);
+				}
+				if (n == 0)
+					continue;
+				position += n;
+				return n;
+			} catch (final IOException | StorageException e) {
+				final StorageException storageException = e instanceof StorageException
+						? (StorageException) e
+						: e.getCause() instanceof StorageException ? (StorageException) e.getCause() : null;
+				if (storageException != null && storageException.getCode() == GoogleCloudStorageKeyValueAccess.NOT_FOUND)
+					throw new N5Exception.N5ConcurrentModificationException("Generation replaced. bucket: " + bucketName + ". key: " + normalKey);
+
+				closeChannel();
+				if (closed)
+					throw new IOException("Stream closed");
+				if ((storageException != null && !isTransient(storageException)) || ++resumes > maxResumes)
+					throw e instanceof IOException ? (IOException) e : new IOException(e);
+			}
+		}
+	}
+
+	/* network errors (no response code), request timeouts, throttling and server errors */
+	private static boolean isTransient(final StorageException e) {
+
+		final int code = e.getCode();
+		return e.isRetryable() || code == 0 || code == 408 || code == 429 || code >= 500;
+	}
+
+	@Override
+	public long skip(final long n) {
+
+		if (n <= 0)
+			return 0;
+
+		pin();
+		final long skipped = Math.min(n, size - position);
+		position += skipped;
+		closeChannel();
+		return skipped;
+	}
+
+	@Override
+	public int available() {
+
+		return 0;
+	}
+
+	private void closeChannel() {
+
+		final ReadChannel current = channel;
+		if (current != null) {
+			channel = null;
+			current.close();
+		}
+	}
+
+	/**
+	 * Close the stream. May be called from another thread to abort a read
+	 * in progress.
+	 */
+	@Override
+	public void close() {
+
+		closed = true;
+		closeChannel();
+	}
+}
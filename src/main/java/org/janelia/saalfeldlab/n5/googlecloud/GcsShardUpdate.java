@@ -0,0 +1,138 @@
+package org.janelia.saalfeldlab.n5.googlecloud;
+
+import com.google.cloud.ReadChannel;
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.Storage.BlobField;
+import com.google.cloud.storage.Storage.BlobTargetOption;
+import com.google.cloud.storage.Storage.ComposeRequest;
+import com.google.cloud.storage.StorageException;
+import org.janelia.saalfeldlab.n5.N5Exception;
+import org.janelia.saalfeldlab.n5.readdata.ReadData;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.channels.Channels;
+import java.util.UUID;
+
+/**
+ * Incremental updates of large objects such as shards.
+ * <p>
+ * An update keeps the first {@code keepLength} bytes of the object and
+ * replaces everything after them with a new tail. Shard formats that store
+ * their index at the end can add or replace a block by appending the block
+ * and a new index, leaving the previous bytes untouched. In that case only
+ * the tail is uploaded, as a small temporary object, and stitched to the
+ * existing object server-side with {@link Storage#compose}. Otherwise
+ * (truncation, or the composite component limit is reached) the object is
+ * rewritten, streaming the kept range from the backend.
+ * <p>
+ * All updates are guarded by the generation of the object they started from,
+ * so a concurrent modification fails with
+ * {@link N5Exception.N5ConcurrentModificationException} instead of being lost.
+ */
+public class GcsShardUpdate {
+
+	/**
+	 * GCS limits composite objects to 1024 components.
+	 */
+	public static final int MAX_COMPONENT_COUNT = 1024;
+
+	private static final String TEMP_SUFFIX = ".n5-compose-";
+
+	private GcsShardUpdate() {
+
+	}
+
+	/**
+	 * Keep the first {@code keepLength} bytes of the object at {@code key} and
+	 * append {@code tail}.
+	 *
+	 * @param storage    the google cloud interface
+	 * @param bucketName the bucket
+	 * @param key        the object key
+	 * @param keepLength the number of leading bytes to keep
+	 * @param tail       the new tail
+	 * @return the updated blob
+	 * @throws IOException if the upload failed
+	 * @throws N5Exception.N5ConcurrentModificationException if the object was modified concurrently
+	 * @throws N5Exception.N5NoSuchKeyException if {@code keepLength > 0} and the object does not exist
+	 */
+	public static Blob update(
+			final Storage storage,
+			final String bucketName,
+			final String key,
+			final long keepLength,
+			final ReadData tail) throws IOException {
+
+		final Blob blob = storage.get(
+				BlobId.of(bucketName, key),
+				Storage.BlobGetOption.fields(BlobField.SIZE, BlobField.GENERATION, BlobField.COMPONENT_COUNT));
+
+		if (blob == null) {
+			if (keepLength > 0)
+				throw new N5Exception.N5NoSuchKeyException("No such key. bucket: " + bucketName + ". key: " + key);
+			return GcsConditionalWrite.write(storage, bucketName, key, tail, 0);
+		}
+
+		final long size = blob.getSize();
+		final long generation = blob.getGeneration();
+		if (keepLength < 0 || keepLength > size)
+			throw new IndexOutOfBoundsException("Cannot keep " + keepLength + " bytes of " + size);
+
+		final int componentCount = blob.getComponentCount() == null ? 1 : blob.getComponentCount();
+		if (keepLength == size && keepLength > 0 && componentCount < MAX_COMPONENT_COUNT)
+			return append(storage, bucketName, key, generation, tail);
+		else
+			return rewrite(storage, bucketName, key, generation, keepLength, tail);
+	}
+
+	private static Blob append(
+			final Storage storage,
+			final String bucketName,
+			final String key,
+			final long generation,
+			final ReadData tail) throws IOException {
+
+		final String tempKey = key + TEMP_SUFFIX + UUID.randomUUID();
+		final Blob temp = GcsConditionalWrite.write(storage, bucketName, tempKey, tail, 0);
+		try {
+			final ComposeRequest request = ComposeRequest.newBuilder()
+					.addSource(key, generation)
+					.addSource(tempKey, temp.getGeneration())
+					.setTarget(BlobInfo.newBuilder(BlobId.of(bucketName, key, generation)).build())
+					.setTargetOptions(BlobTargetOption.generationMatch())
+					.build();
+			return storage.compose(request);
+		} catch (final StorageException e) {
+			throw GcsIoPolicy.translate(e, bucketName, key);
+		} finally {
+			try {
+				storage.delete(BlobId.of(bucketName, tempKey));
+			} catch (final StorageException ignore) {}
+		}
+	}
+
+	private static Blob rewrite(
+			final Storage storage,
+			final String bucketName,
+			final String key,
+			final long generation,
+			final long keepLength,
+			final ReadData tail) throws IOException {
+
+		if (keepLength == 0)
+			return GcsConditionalWrite.write(storage, bucketName, key, tail, generation);
+
+		try (ReadChannel head = storage.reader(BlobId.of(bucketName, key, generation))) {
+			head.limit(keepLength);
+			final InputStream content = new SequenceInputStream(Channels.newInputStream(head), tail.inputStream());
+			return GcsConditionalWrite.write(storage, bucketName, key, ReadData.from(content), generation);
+		} catch (final StorageException e) {
+			throw GcsIoPolicy.translate(e, bucketName, key);
+		}
+	}
+}
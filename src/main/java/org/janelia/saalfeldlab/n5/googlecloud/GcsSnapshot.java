@@ -0,0 +1,273 @@
+package org.janelia.saalfeldlab.n5.googlecloud;
+
+import com.google.cloud.ReadChannel;
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.Storage.BlobField;
+import com.google.cloud.storage.Storage.BlobListOption;
+import com.google.cloud.storage.StorageException;
+import org.janelia.saalfeldlab.n5.N5Exception;
+import org.janelia.saalfeldlab.n5.N5Exception.N5IOException;
+import org.janelia.saalfeldlab.n5.readdata.LazyRead;
+import org.janelia.saalfeldlab.n5.readdata.ReadData;
+import org.janelia.saalfeldlab.n5.readdata.VolatileReadData;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * A manifest of the generation and size of every object below a prefix,
+ * captured once.
+ * <p>
+ * Reads through a snapshot are pinned to the captured generations with
+ * {@code BlobId.of(bucket, key, generation)}, so the view stays consistent
+ * while writers keep updating the container, and the bytes behind a pinned
+ * generation never change. Objects overwritten or deleted after the capture
+ * remain readable only if the bucket keeps noncurrent versions (object
+ * versioning or soft delete); otherwise reading them fails with
+ * {@link N5Exception.N5NoSuchKeyException}.
+ */
+public class GcsSnapshot {
+
+	private static final int DEFAULT_PARALLELISM = 16;
+
+	private static class Entry {
+
+		final long generation;
+		final long size;
+
+		Entry(final long generation, final long size) {
+
+			this.generation = generation;
+			this.size = size;
+		}
+	}
+
+	private final Storage storage;
+	private final String bucketName;
+	private final String prefix;
+	private final NavigableMap<String, Entry> objects;
+
+	private GcsSnapshot(final Storage storage, final String bucketName, final String prefix, final NavigableMap<String, Entry> objects) {
+
+		this.storage = storage;
+		this.bucketName = bucketName;
+		this.prefix = prefix;
+		this.objects = objects;
+	}
+
+	/**
+	 * Capture the current generation of all objects below {@code prefix}.
+	 * <p>
+	 * The first level below {@code prefix} is listed with a delimiter, and the
+	 * resulting sub-prefixes are then listed concurrently.
+	 *
+	 * @param storage    the google cloud interface
+	 * @param bucketName the bucket
+	 * @param prefix     the key prefix, e.g. the container root
+	 * @return the snapshot
+	 */
+	public static GcsSnapshot capture(final Storage storage, final String bucketName, final String prefix) {
+
+		return capture(storage, bucketName, prefix, DEFAULT_PARALLELISM);
+	}
+
+	/**
+	 * @param storage     the google cloud interface
+	 * @param bucketName  the bucket
+	 * @param prefix      the key prefix, e.g. the container root
+	 * @param parallelism the number of concurrent listings
+	 * @return the snapshot
+	 * @see #capture(Storage, String, String)
+	 */
+	public static GcsSnapshot capture(final Storage storage, final String bucketName, final String prefix, final int parallelism) {
+
+		final ConcurrentSkipListMap<String, Entry> objects = new ConcurrentSkipListMap<>();
+		final List<String> subPrefixes = new ArrayList<>();
+		for (final Blob blob : storage.list(
+				bucketName,
+				BlobListOption.prefix(prefix),
+				BlobListOption.currentDirectory(),
+				BlobListOption.fields(BlobField.NAME, BlobField.GENERATION, BlobField.SIZE)).iterateAll()) {
+			if (blob.isDirectory())
+				subPrefixes.add(blob.getName());
+			else
+				add(objects, blob);
+		}
+
+		final ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(parallelism, subPrefixes.size())));
+		try {
+			final List<Future<?>> futures = new ArrayList<>();
+			for (final String subPrefix : subPrefixes) {
+				futures.add(executor.submit(() -> {
+					for (final Blob blob : storage.list(
+							bucketName,
+							BlobListOption.prefix(subPrefix),
+							BlobListOption.fields(BlobField.NAME, BlobField.GENERATION, BlobField.SIZE)).iterateAll())
+						add(objects, blob);
+				}));
+			}
+			for (final Future<?> future : futures)
+				future.get();
+		} catch (final Exception e) {
+			throw new N5IOException("Could not capture snapshot of gs://" + bucketName + "/" + prefix, e);
+		} finally {
+			executor.shutdownNow();
+		}
+		return new GcsSnapshot(storage, bucketName, prefix, objects);
+	}
+
+	private static void add(final Map<String, Entry> objects, final Blob blob) {
+
+		final Long generation = blob.getGeneration();
+		final Long size = blob.getSize();
+		objects.put(blob.getName(), new Entry(generation == null ? 0 : generation, size == null ? 0 : size));
+	}
+
+	public String getPrefix() {
+
+		return prefix;
+	}
+
+	public int numObjects() {
+
+		return objects.size();
+	}
+
+	/**
+	 * @param key the object key
+	 * @return the captured generation of {@code key}, or -1 if it did not exist
+	 */
+	public long generation(final String key) {
+
+		final Entry entry = objects.get(key);
+		return entry == null ? -1 : entry.generation;
+	}
+
+	/**
+	 * @param key the object key
+	 * @return the captured size of {@code key}
+	 * @throws N5Exception.N5NoSuchKeyException if {@code key} did not exist
+	 */
+	public long size(final String key) {
+
+		final Entry entry = objects.get(key);
+		if (entry == null)
+			throw new N5Exception.N5NoSuchKeyException("No such key in snapshot. bucket: " + bucketName + ". key: " + key);
+		return entry.size;
+	}
+
+	public boolean isFile(final String key) {
+
+		return !key.endsWith("/") && objects.containsKey(key);
+	}
+
+	/**
+	 * @param directoryKey the key with trailing slash
+	 * @return true if any captured object starts with {@code directoryKey}
+	 */
+	public boolean isDirectory(final String directoryKey) {
+
+		final String next = objects.ceilingKey(directoryKey);
+		return next != null && next.startsWith(directoryKey);
+	}
+
+	/**
+	 * List the names of the children of {@code directoryKey}; directories
+	 * have a trailing slash.
+	 *
+	 * @param directoryKey the key with trailing slash
+	 * @return the child names
+	 */
+	public Set<String> children(final String directoryKey) {
+
+		final Set<String> children = new LinkedHashSet<>();
+		for (final String key : objects.tailMap(directoryKey, false).keySet()) {
+			if (!key.startsWith(directoryKey))
+				break;
+			final int slash = key.indexOf('/', directoryKey.length());
+			children.add(slash < 0 ? key.substring(directoryKey.length()) : key.substring(directoryKey.length(), slash + 1));
+		}
+		return children;
+	}
+
+	/**
+	 * Read {@code key} at its captured generation.
+	 *
+	 * @param key the object key
+	 * @return the read data
+	 */
+	public VolatileReadData read(final String key) {
+
+		final Entry entry = objects.get(key);
+		if (entry == null)
+			return VolatileReadData.from(new MissingKeyLazyRead(bucketName, key));
+		return VolatileReadData.from(new PinnedLazyRead(storage, BlobId.of(bucketName, key, entry.generation), entry.size));
+	}
+
+	/**
+	 * Reads one generation of an object. Size and generation are known, so
+	 * no metadata request is needed.
+	 */
+	static class PinnedLazyRead implements LazyRead {
+
+		private final Storage storage;
+		private final BlobId blobId;
+		private final long size;
+
+		PinnedLazyRead(final Storage storage, final BlobId blobId, final long size) {
+
+			this.storage = storage;
+			this.blobId = blobId;
+			this.size = size;
+		}
+
+		@Override
+		public long size() {
+
+			return size;
+		}
+
+		@Override
+		public ReadData materialize(final long offset, final long length) {
+
+			if (!GcsIoPolicy.validBounds(size, offset, length))
+				throw new IndexOutOfBoundsException();
+
+			final long readLength = length < 0 ? size - offset : length;
+			if (readLength > Integer.MAX_VALUE)
+				throw new N5IOException("Attempt to materialize too large data");
+
+			try (ReadChannel from = storage.reader(blobId)) {
+				from.seek(offset);
+				from.limit(offset + readLength);
+				final ByteBuffer buf = ByteBuffer.allocate((int) readLength);
+				while (buf.hasRemaining() && from.read(buf) >= 0) {}
+				buf.flip();
+				return ReadData.from(buf);
+			} catch (final StorageException e) {
+				throw GcsIoPolicy.translate(e, blobId.getBucket(), blobId.getName());
+			} catch (final IOException e) {
+				if (e.getCause() instanceof StorageException)
+					throw GcsIoPolicy.translate((StorageException) e.getCause(), blobId.getBucket(), blobId.getName());
+				throw new N5IOException(e);
+			}
+		}
+
+		@Override
+		public void close() {
+
+		}
+	}
+}
@@ -0,0 +1,276 @@
+package org.janelia.saalfeldlab.n5.googlecloud;
+
+import com.google.cloud.WriteChannel;
+import org.janelia.saalfeldlab.n5.N5Exception.N5IOException;
+import org.janelia.saalfeldlab.n5.readdata.ReadData;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Checksum;
+
+/**
+ * Pipelined upload of {@link ReadData} of unknown length, e.g. blocks that
+ * are compressed while they are written.
+ * <p>
+ * The producer fills fixed-size chunk buffers while a background thread
+ * writes full chunks to the {@link WriteChannel}, so producing the data and
+ * transferring it overlap. At most {@link #setNumBuffers numBuffers} chunks
+ * are in flight, plus the chunk the channel itself buffers, which bounds the
+ * memory used per upload to {@code (numBuffers + 1) * chunkSize}.
+ * <p>
+ * The object is only finalized if all data was produced and written. If the
+ * producer or the channel fails, the upload is abandoned.
+ */
+public class GcsStreamingUpload {
+
+	/* resumable upload chunks must be multiples of 256 KiB */
+	private static final int CHUNK_ALIGNMENT = 256 * 1024;
+
+	public static final int DEFAULT_CHUNK_SIZE = 16 * 1024 * 1024;
+	public static final int DEFAULT_NUM_BUFFERS = 2;
+
+	private static final AtomicInteger threadCount = new AtomicInteger();
+
+	private static final ExecutorService uploaders = Executors.newCachedThreadPool(r -> {
+		final Thread thread = new Thread(r, "n5-gcs-streaming-upload-" + threadCount.incrementAndGet());
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/* handed to the uploader to end the upload, finalizing the object or not */
+	private static final ByteBuffer FINISH = ByteBuffer.allocate(0);
+	private static final ByteBuffer ABORT = ByteBuffer.allocate(0);
+
+	private int chunkSize = DEFAULT_CHUNK_SIZE;
+	private int numBuffers = DEFAULT_NUM_BUFFERS;
+
+	/**
+	 * @param chunkSize the size of the chunks handed to the channel, rounded
+	 *                  up to a multiple of 256 KiB
+	 */
+	public void setChunkSize(final int chunkSize) {
+
+		this.chunkSize = roundChunkSize(chunkSize);
+	}
+
+	static int roundChunkSize(final int chunkSize) {
+
+		return Math.max(1, (chunkSize + CHUNK_ALIGNMENT - 1) / CHUNK_ALIGNMENT) * CHUNK_ALIGNMENT;
+	}
+
+	public int getChunkSize() {
+
+		return chunkSize;
+	}
+
+	/**
+	 * @param numBuffers the number of chunk buffers, at least 2 for the
+	 *                   producer to fill one while another is uploaded
+	 */
+	public void setNumBuffers(final int numBuffers) {
+
+		this.numBuffers = Math.max(1, numBuffers);
+	}
+
+	public int getNumBuffers() {
+
+		return numBuffers;
+	}
+
+	/**
+	 * Write {@code data} to {@code channel} and close the channel, which
+	 * finalizes the object.
+	 *
+	 * @param channel the channel, owned by this call from now on
+	 * @param data    the data
+	 * @throws IOException if producing or uploading the data failed, the
+	 *                     object is not created in this case
+	 */
+	public void upload(final WriteChannel channel, final ReadData data) throws IOException {
+
+		upload(channel, data, null);
+	}
+
+	/**
+	 * Write {@code data} to {@code channel} and close the channel, which
+	 * finalizes the object.
+	 *
+	 * @param channel  the channel, owned by this call from now on
+	 * @param data     the data
+	 * @param checksum updated with all bytes as they are produced, may be null
+	 * @throws IOException if producing or uploading the data failed, the
+	 *                     object is not created in this case
+	 */
+	public void upload(final WriteChannel channel, final ReadData data, final Checksum checksum) throws IOException {
+
+		channel.setChunkSize(chunkSize);
+		final PipelinedOutputStream out = new PipelinedOutputStream(channel, checksum);
+		try {
+			data.writeTo(out);
+		} catch (final IOException | RuntimeException e) {
+			out.abort();
+			throw e;
+		}
+		out.close();
+	}
+
+	private class PipelinedOutputStream extends OutputStream {
+
+		private final BlockingQueue<ByteBuffer> free = new ArrayBlockingQueue<>(numBuffers);
+		private final BlockingQueue<ByteBuffer> full = new ArrayBlockingQueue<>(numBuffers + 1);
+		private final Future<?> uploader;
+		private final Checksum checksum;
+		private int allocated = 0;
+		private ByteBuffer current = null;
+		private boolean ended = false;
+
+		/* set by the uploader, buffers are recycled without writing after a failure */
+		private volatile Exception failure = null;
+
+		PipelinedOutputStream(final WriteChannel channel, final Checksum checksum) {
+
+			this.checksum = checksum;
+			uploader = uploaders.submit(() -> {
+				while (true) {
+					final ByteBuffer chunk = full.take();
+					if (chunk == FINISH) {
+						if (failure == null)
+							channel.close();
+						break;
+					}
+					if (chunk == ABORT)
+						break;
+
+					if (failure == null) {
+						try {
+							while (chunk.hasRemaining())
+								channel.write(chunk);
+						} catch (final IOException | RuntimeException e) {
+							/* e.g. StorageException, keep recycling so the producer does not block */
+							failure = e;
+						}
+					}
+					chunk.clear();
+					free.put(chunk);
+				}
+				return null;
+			});
+		}
+
+		private ByteBuffer current() throws IOException {
+
+			if (current == null) {
+				if (allocated < numBuffers && free.isEmpty()) {
+					++allocated;
+					current = ByteBuffer.allocate(chunkSize);
+				} else {
+					try {
+						current = free.take();
+					} catch (final InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new InterruptedIOException("Interrupted while waiting for a chunk buffer");
+					}
+				}
+			}
+			return current;
+		}
+
+		private void handOff(final ByteBuffer chunk) throws IOException {
+
+			try {
+				full.put(chunk);
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while handing off a chunk");
+			}
+		}
+
+		private void handOffCurrent() throws IOException {
+
+			if (current != null && current.position() > 0) {
+				current.flip();
+				handOff(current);
+				current = null;
+			}
+		}
+
+		private void checkFailure() throws IOException {
+
+			final Exception failure = this.failure;
+			if (failure instanceof IOException)
+				throw (IOException) failure;
+			if (failure != null)
+				throw new IOException("Upload failed", failure);
+		}
+
+		@Override
+		public void write(final int b) throws IOException {
+
+			write(new byte[]{(byte) b}, 0, 1);
+		}
+
+		@Override
+		public void write(final byte[] b, int off, int len) throws IOException {
+
+			checkFailure();
+			if (checksum != null)
+				checksum.update(b, off, len);
+			while (len > 0) {
+				final ByteBuffer buffer = current();
+				final int n = Math.min(len, buffer.remaining());
+				buffer.put(b, off, n);
+				off += n;
+				len -= n;
+				if (!buffer.hasRemaining()) {
+					buffer.flip();
+					handOff(buffer);
+					current = null;
+				}
+			}
+		}
+
+		void abort() throws IOException {
+
+			if (ended)
+				return;
+			ended = true;
+			handOff(ABORT);
+			await();
+		}
+
+		@Override
+		public void close() throws IOException {
+
+			if (ended)
+				return;
+			ended = true;
+			handOffCurrent();
+			handOff(FINISH);
+			await();
+			checkFailure();
+		}
+
+		private void await() throws IOException {
+
+			try {
+				uploader.get();
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for the upload");
+			} catch (final ExecutionException e) {
+				if (e.getCause() instanceof IOException)
+					throw (IOException) e.getCause();
+				throw new N5IOException("Upload failed", e.getCause());
+			}
+		}
+	}
+}
@@ -0,0 +1,361 @@
+package org.janelia.saalfeldlab.n5.googlecloud;
+
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.StorageException;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import org.janelia.saalfeldlab.googlecloud.GoogleCloudStorageURI;
+import org.janelia.saalfeldlab.googlecloud.GoogleCloudUtils;
+import org.janelia.saalfeldlab.n5.KeyValueAccess;
+import org.janelia.saalfeldlab.n5.N5Exception;
+import org.janelia.saalfeldlab.n5.N5Exception.N5IOException;
+import org.janelia.saalfeldlab.n5.readdata.ReadData;
+import org.janelia.saalfeldlab.n5.readdata.VolatileReadData;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.zip.CRC32;
+
+/**
+ * A {@link KeyValueAccess} that spreads the objects of one container over
+ * the same container path in several buckets (stripes), each accessed
+ * through its own {@link GoogleCloudStorageKeyValueAccess} and possibly its
+ * own {@link Storage} client, for aggregate throughput beyond the limits of
+ * a single bucket or client.
+ * <p>
+ * Metadata files and directory markers are stored in the first (primary)
+ * stripe, every other object in the stripe selected by a hash of its key.
+ * {@link #list}, {@link #isDirectory} and {@link #delete} fan out to all
+ * stripes concurrently, on threads owned by this instance. The bucket names of the stripes are recorded in
+ * {@link #STRIPES_KEY} at the container root of the primary stripe, so
+ * readers pick them up with {@link #open}.
+ */
+public class GcsStripedKeyValueAccess implements KeyValueAccess {
+
+	public static final String STRIPES_KEY = "n5-stripes.json";
+
+	private static final int VERSION = 1;
+
+	private static final Gson gson = new Gson();
+
+	/* the serialized form */
+	private static class Json {
+
+		int version = VERSION;
+		List<String> buckets = new ArrayList<>();
+	}
+
+	private static final AtomicInteger threadCount = new AtomicInteger();
+
+	private final List<GoogleCloudStorageKeyValueAccess> stripes;
+	private final GoogleCloudStorageKeyValueAccess primary;
+
+	/* one thread per stripe, idle threads time out */
+	private final ThreadPoolExecutor executor;
+
+	private GcsStripedKeyValueAccess(final List<GoogleCloudStorageKeyValueAccess> stripes) {
+
+		this.stripes = Collections.unmodifiableList(new ArrayList<>(stripes));
+		for (final GoogleCloudStorageKeyValueAccess stripe : stripes)
+			stripe.stripeMember = true;
+		this.primary = stripes.get(0);
+		this.executor = new ThreadPoolExecutor(
+				stripes.size(),
+				stripes.size(),
+				60,
+				TimeUnit.SECONDS,
+				new LinkedBlockingQueue<>(),
+				r -> {
+					final Thread thread = new Thread(r, "n5-gcs-stripes-" + threadCount.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				});
+		executor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Stripe a container over {@code stripes} and record the stripe set in
+	 * the primary stripe. The stripe set of a container cannot be changed
+	 * once objects were written.
+	 *
+	 * @param stripes the stripes, the first is the primary; all must have the
+	 *                same container path
+	 * @return the striped key-value access
+	 * @throws N5Exception if the container is recorded with a different stripe set
+	 */
+	public static GcsStripedKeyValueAccess create(final List<GoogleCloudStorageKeyValueAccess> stripes) throws N5Exception {
+
+		if (stripes.isEmpty())
+			throw new IllegalArgumentException("No stripes");
+
+		final GoogleCloudStorageKeyValueAccess primary = stripes.get(0);
+		final String prefix = primary.containerPrefix();
+		final Json json = new Json();
+		for (final GoogleCloudStorageKeyValueAccess stripe : stripes) {
+			if (!stripe.containerPrefix().equals(prefix))
+				throw new IllegalArgumentException("Stripes must have the same container path");
+			json.buckets.add(stripe.bucketName);
+		}
+
+		final List<String> recorded = loadBuckets(primary);
+		if (recorded != null) {
+			if (!recorded.equals(json.buckets))
+				throw new N5Exception("Container gs://" + primary.bucketName + "/" + prefix + " is striped over " + recorded);
+			return new GcsStripedKeyValueAccess(stripes);
+		}
+
+		primary.createDirectories("/" + prefix);
+		final BlobInfo blobInfo = BlobInfo.newBuilder(primary.bucketName, prefix + STRIPES_KEY).setContentType("application/json").build();
+		try {
+			primary.getStorage().create(blobInfo, gson.toJson(json).getBytes(StandardCharsets.UTF_8), Storage.BlobTargetOption.doesNotExist());
+		} catch (final StorageException e) {
+			if (e.getCode() != GcsIoPolicy.PRECONDITION_FAILED)
+				throw e;
+			/* recorded concurrently, compare with the winner */
+			final List<String> winner = loadBuckets(primary);
+			if (winner == null)
+				throw new N5Exception.N5ConcurrentModificationException("Stripe set of gs://" + primary.bucketName + "/" + prefix + " changed concurrently");
+			if (!winner.equals(json.buckets))
+				throw new N5Exception("Container gs://" + primary.bucketName + "/" + prefix + " is striped over " + winner);
+		}
+		return new GcsStripedKeyValueAccess(stripes);
+	}
+
+	/**
+	 * Open a container with the stripe set recorded in its primary stripe,
+	 * or as a single stripe if none is recorded.
+	 *
+	 * @param storage      the google cloud interface for each bucket
+	 * @param containerURI the container in the primary bucket
+	 * @param createBucket whether buckets may be created and deleted
+	 * @return the striped key-value access
+	 */
+	public static GcsStripedKeyValueAccess open(
+			final Function<String, Storage> storage,
+			final GoogleCloudStorageURI containerURI,
+			final boolean createBucket) {
+
+		final String primaryBucket = containerURI.getBucket();
+		final GoogleCloudStorageKeyValueAccess primary = new GoogleCloudStorageKeyValueAccess(storage.apply(primaryBucket), containerURI, createBucket);
+		final List<String> buckets = loadBuckets(primary);
+		if (buckets == null)
+			return new GcsStripedKeyValueAccess(Collections.singletonList(primary));
+
+		final List<GoogleCloudStorageKeyValueAccess> stripes = new ArrayList<>();
+		stripes.add(primary);
+		for (final String bucket : buckets.subList(1, buckets.size()))
+			stripes.add(new GoogleCloudStorageKeyValueAccess(storage.apply(bucket), "gs://" + bucket + "/" + primary.containerPrefix(), createBucket));
+		return new GcsStripedKeyValueAccess(stripes);
+	}
+
+	/* the recorded stripe set, or null if the container is not striped */
+	static List<String> loadBuckets(final GoogleCloudStorageKeyValueAccess primary) {
+
+		final String key = primary.containerPrefix() + STRIPES_KEY;
+		final byte[] bytes;
+		try {
+			bytes = primary.getStorage().readAllBytes(BlobId.of(primary.bucketName, key));
+		} catch (final StorageException e) {
+			if (e.getCode() == GoogleCloudStorageKeyValueAccess.NOT_FOUND)
+				return null;
+			throw e;
+		}
+
+		try {
+			final Json json = gson.fromJson(new String(bytes, StandardCharsets.UTF_8), Json.class);
+			if (json == null || json.version != VERSION || json.buckets == null || json.buckets.isEmpty())
+				throw new N5Exception("Unsupported stripe set gs://" + primary.bucketName + "/" + key);
+			if (!json.buckets.get(0).equals(primary.bucketName))
+				throw new N5Exception("Stripe set gs://" + primary.bucketName + "/" + key + " belongs to " + json.buckets.get(0));
+			return json.buckets;
+		} catch (final JsonParseException e) {
+			throw new N5IOException("Invalid stripe set gs://" + primary.bucketName + "/" + key, e);
+		}
+	}
+
+	/**
+	 * @return the stripes, the first is the primary
+	 */
+	public List<GoogleCloudStorageKeyValueAccess> getStripes() {
+
+		return stripes;
+	}
+
+	/**
+	 * @param normalPath is expected to be in normalized form, no further
+	 *                   efforts are made to normalize it.
+	 * @return the stripe that stores the object at {@code normalPath}
+	 */
+	public GoogleCloudStorageKeyValueAccess stripe(final String normalPath) {
+
+		final String key = GoogleCloudUtils.getGoogleCloudStorageKey(normalPath);
+		if (stripes.size() == 1 || key.endsWith("/") || GcsContainerManifest.isMetadataKey(key))
+			return primary;
+
+		final CRC32 crc = new CRC32();
+		crc.update((key.startsWith("/") ? key.substring(1) : key).getBytes(StandardCharsets.UTF_8));
+		return stripes.get((int) (crc.getValue() % stripes.size()));
+	}
+
+	/* apply f to all stripes concurrently */
+	private <T> List<T> fanOut(final Function<GoogleCloudStorageKeyValueAccess, T> f) {
+
+		if (stripes.size() == 1)
+			return Collections.singletonList(f.apply(primary));
+
+		final List<Future<T>> futures = new ArrayList<>();
+		try {
+			for (final GoogleCloudStorageKeyValueAccess stripe : stripes)
+				futures.add(executor.submit(() -> f.apply(stripe)));
+			final List<T> results = new ArrayList<>();
+			for (final Future<T> future : futures)
+				results.add(future.get());
+			return results;
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new N5IOException("Interrupted", e);
+		} catch (final ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new N5IOException(e.getCause());
+		} finally {
+			for (final Future<T> future : futures)
+				future.cancel(true);
+		}
+	}
+
+	@Override
+	public String[] components(final String path) {
+
+		return primary.components(path);
+	}
+
+	@Override
+	public String relativize(final String path, final String base) {
+
+		return primary.relativize(path, base);
+	}
+
+	@Override
+	public String normalize(final String path) {
+
+		return primary.normalize(path);
+	}
+
+	@Override
+	public URI uri(final String normalPath) throws URISyntaxException {
+
+		return primary.uri(normalPath);
+	}
+
+	@Override
+	public boolean exists(final String normalPath) {
+
+		return isFile(normalPath) || isDirectory(normalPath);
+	}
+
+	@Override
+	public long size(final String normalPath) {
+
+		return stripe(normalPath).size(normalPath);
+	}
+
+	@Override
+	public boolean isDirectory(final String normalPath) {
+
+		/* most directories have a marker in the primary stripe */
+		if (primary.isDirectory(normalPath))
+			return true;
+		if (stripes.size() == 1)
+			return false;
+		return fanOut(stripe -> stripe != primary && stripe.isDirectory(normalPath)).contains(true);
+	}
+
+	@Override
+	public boolean isFile(final String normalPath) {
+
+		return stripe(normalPath).isFile(normalPath);
+	}
+
+	@Override
+	public VolatileReadData createReadData(final String normalPath) {
+
+		return stripe(normalPath).createReadData(normalPath);
+	}
+
+	@Override
+	public void write(final String normalPath, final ReadData data) throws N5IOException {
+
+		stripe(normalPath).write(normalPath, data);
+	}
+
+	@Override
+	public String[] listDirectories(final String normalPath) {
+
+		return list(normalPath, true);
+	}
+
+	@Override
+	public String[] list(final String normalPath) {
+
+		return list(normalPath, false);
+	}
+
+	private String[] list(final String normalPath, final boolean onlyDirectories) {
+
+		final List<String[]> listings = fanOut(stripe -> {
+			try {
+				return onlyDirectories ? stripe.listDirectories(normalPath) : stripe.list(normalPath);
+			} catch (final N5IOException e) {
+				/* not a group in this stripe */
+				return null;
+			}
+		});
+
+		final Set<String> children = new LinkedHashSet<>();
+		boolean found = false;
+		for (final String[] listing : listings) {
+			if (listing == null)
+				continue;
+			found = true;
+			Collections.addAll(children, listing);
+		}
+		if (!found)
+			throw new N5IOException(normalPath + " is not a valid group");
+
+		return children.toArray(new String[0]);
+	}
+
+	@Override
+	public void createDirectories(final String normalPath) {
+
+		primary.createDirectories(normalPath);
+	}
+
+	@Override
+	public void delete(final String normalPath) {
+
+		/* the primary last, it holds the stripe set */
+		fanOut(stripe -> {
+			if (stripe != primary)
+				stripe.delete(normalPath);
+			return null;
+		});
+		primary.delete(normalPath);
+	}
+}
@@ -0,0 +1,504 @@
+package org.janelia.saalfeldlab.n5.googlecloud;
+
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.Storage.BlobField;
+import com.google.cloud.storage.Storage.BlobListOption;
+import org.janelia.saalfeldlab.n5.N5Exception.N5IOException;
+import org.janelia.saalfeldlab.n5.readdata.ReadData;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.Checksum;
+
+/**
+ * Incremental synchronization between a local directory (e.g. a filesystem
+ * N5 container) and the container of a {@link GoogleCloudStorageKeyValueAccess}.
+ * <p>
+ * Both sides are listed once, the container with concurrent listings of its
+ * top-level prefixes, and only objects that are missing or differ on the
+ * target are transferred, with bounded parallelism. Objects differ if their
+ * sizes differ or, if {@link #setCompareChecksums enabled}, their CRC32C
+ * checksums differ. Local checksums are only computed for objects of equal
+ * size; if the backend reports no CRC32C for such an object, it is read to
+ * compute one. Optionally, objects on the target that do not exist on the
+ * source are deleted.
+ */
+public class GcsSync {
+
+	public static final int DEFAULT_PARALLELISM = 16;
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final int DELETE_BATCH_SIZE = 100;
+
+	/**
+	 * The outcome of a synchronization.
+	 */
+	public static class Result {
+
+		private final AtomicLong transferred = new AtomicLong();
+		private final AtomicLong bytesTransferred = new AtomicLong();
+		private final AtomicLong unchanged = new AtomicLong();
+		private final AtomicLong deleted = new AtomicLong();
+		private final Map<String, Exception> failures = new ConcurrentHashMap<>();
+
+		/**
+		 * @return the number of objects and directories transferred
+		 */
+		public long getTransferred() {
+
+			return transferred.get();
+		}
+
+		public long getBytesTransferred() {
+
+			return bytesTransferred.get();
+		}
+
+		/**
+		 * @return the number of objects that were identical on both sides
+		 */
+		public long getUnchanged() {
+
+			return unchanged.get();
+		}
+
+		/**
+		 * @return the number of extraneous objects and directories deleted
+		 */
+		public long getDeleted() {
+
+			return deleted.get();
+		}
+
+		/**
+		 * @return the keys that could not be synchronized, with the cause
+		 */
+		public Map<String, Exception> getFailures() {
+
+			return Collections.unmodifiableMap(failures);
+		}
+
+		public boolean isSuccess() {
+
+			return failures.isEmpty();
+		}
+
+		/**
+		 * @throws N5IOException if any key could not be synchronized, with
+		 *                       the first failure as cause and the others
+		 *                       attached as suppressed exceptions
+		 */
+		public void throwOnFailure() throws N5IOException {
+
+			N5IOException e = null;
+			for (final Map.Entry<String, Exception> failure : failures.entrySet()) {
+				if (e == null)
+					e = new N5IOException(failures.size() + " keys failed to sync, first: " + failure.getKey(), failure.getValue());
+				else
+					e.addSuppressed(failure.getValue());
+			}
+			if (e != null)
+				throw e;
+		}
+	}
+
+	private static class Remote {
+
+		final long size;
+		final String crc32c;
+
+		Remote(final long size, final String crc32c) {
+
+			this.size = size;
+			this.crc32c = crc32c;
+		}
+	}
+
+	private final GoogleCloudStorageKeyValueAccess kva;
+	private final Storage storage;
+	private final String bucketName;
+	private int parallelism = DEFAULT_PARALLELISM;
+	private boolean compareChecksums = true;
+	private boolean deleteExtraneous = false;
+
+	/**
+	 * @param kva the container to synchronize with
+	 */
+	public GcsSync(final GoogleCloudStorageKeyValueAccess kva) {
+
+		this.kva = kva;
+		this.storage = kva.getStorage();
+		this.bucketName = kva.bucketName;
+	}
+
+	/**
+	 * @param parallelism the number of concurrent listings and transfers
+	 * @return this
+	 */
+	public GcsSync setParallelism(final int parallelism) {
+
+		if (parallelism < 1)
+			throw new IllegalArgumentException("parallelism must be positive");
+		this.parallelism = parallelism;
+		return this;
+	}
+
+	/**
+	 * @param compareChecksums whether objects of equal size are compared by
+	 *                         CRC32C, otherwise by size only
+	 * @return this
+	 */
+	public GcsSync setCompareChecksums(final boolean compareChecksums) {
+
+		this.compareChecksums = compareChecksums;
+		return this;
+	}
+
+	/**
+	 * @param deleteExtraneous whether objects that exist only on the target
+	 *                         are deleted
+	 * @return this
+	 */
+	public GcsSync setDeleteExtraneous(final boolean deleteExtraneous) {
+
+		this.deleteExtraneous = deleteExtraneous;
+		return this;
+	}
+
+	/**
+	 * Make the container match {@code localRoot}.
+	 *
+	 * @param localRoot the local directory
+	 * @return the outcome
+	 * @throws N5IOException if either side could not be listed
+	 */
+	public Result upload(final Path localRoot) throws N5IOException {
+
+		kva.prepareBulkChange();
+		final String prefix = kva.containerPrefix();
+		final NavigableMap<String, Remote> remote = listRemote(prefix);
+		final NavigableMap<String, Long> local = listLocal(localRoot, prefix);
+
+		final Result result = new Result();
+		final List<Callable<Void>> tasks = new ArrayList<>();
+		for (final Map.Entry<String, Long> entry : local.entrySet()) {
+			final String key = entry.getKey();
+			final Remote target = remote.get(key);
+			if (key.endsWith("/")) {
+				if (target == null) {
+					tasks.add(task(result, key, () -> {
+						storage.create(BlobInfo.newBuilder(bucketName, key).build());
+						result.transferred.incrementAndGet();
+					}));
+				}
+				continue;
+			}
+			final Path file = localRoot.resolve(key.substring(prefix.length()));
+			tasks.add(task(result, key, () -> {
+				if (target != null && target.size == entry.getValue() && (!compareChecksums || crc32c(key, target).equals(crc32c(file)))) {
+					result.unchanged.incrementAndGet();
+					return;
+				}
+				try (final InputStream in = Files.newInputStream(file)) {
+					kva.write("/" + key, ReadData.from(in));
+				}
+				kva.flush();
+				result.transferred.incrementAndGet();
+				result.bytesTransferred.addAndGet(entry.getValue());
+			}));
+		}
+		run(tasks);
+
+		if (deleteExtraneous) {
+			final List<String> extraneous = new ArrayList<>();
+			for (final String key : remote.keySet()) {
+				if (!local.containsKey(key))
+					extraneous.add(key);
+			}
+			for (int i = 0; i < extraneous.size(); i += DELETE_BATCH_SIZE) {
+				final List<String> keys = extraneous.subList(i, Math.min(i + DELETE_BATCH_SIZE, extraneous.size()));
+				final List<BlobId> batch = new ArrayList<>(keys.size());
+				for (final String key : keys)
+					batch.add(BlobId.of(bucketName, kva.objectKey(key)));
+				final List<Boolean> deleted = storage.delete(batch);
+				for (int j = 0; j < batch.size(); ++j) {
+					if (j < deleted.size() && Boolean.TRUE.equals(deleted.get(j)))
+						result.deleted.incrementAndGet();
+					else if (storage.get(batch.get(j), Storage.BlobGetOption.fields(BlobField.GENERATION)) != null) {
+						/* not deleted, and not gone either */
+						result.failures.put(keys.get(j), new N5IOException("Could not delete gs://" + bucketName + "/" + batch.get(j).getName()));
+					}
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Make {@code localRoot} match the container.
+	 *
+	 * @param localRoot the local directory, created if it does not exist
+	 * @return the outcome
+	 * @throws N5IOException if either side could not be listed
+	 */
+	public Result download(final Path localRoot) throws N5IOException {
+
+		kva.flush();
+		final String prefix = kva.containerPrefix();
+		final NavigableMap<String, Remote> remote = listRemote(prefix);
+		final NavigableMap<String, Long> local = listLocal(localRoot, prefix);
+
+		/* directories are implied by the objects they contain */
+		final Set<String> remoteDirectories = new HashSet<>();
+		for (final String key : remote.keySet()) {
+			for (int slash = key.indexOf('/', prefix.length()); slash >= 0; slash = key.indexOf('/', slash + 1))
+				remoteDirectories.add(key.substring(0, slash + 1));
+		}
+
+		final Result result = new Result();
+		try {
+			Files.createDirectories(localRoot);
+			for (final String directory : new TreeSet<>(remoteDirectories)) {
+				if (!local.containsKey(directory)) {
+					Files.createDirectories(localRoot.resolve(directory.substring(prefix.length())));
+					result.transferred.incrementAndGet();
+				}
+			}
+		} catch (final IOException e) {
+			throw new N5IOException("Could not create directories in " + localRoot, e);
+		}
+
+		final List<Callable<Void>> tasks = new ArrayList<>();
+		for (final Map.Entry<String, Remote> entry : remote.entrySet()) {
+			final String key = entry.getKey();
+			if (key.endsWith("/"))
+				continue;
+			final Remote source = entry.getValue();
+			final Long localSize = local.get(key);
+			final Path file = localRoot.resolve(key.substring(prefix.length()));
+			tasks.add(task(result, key, () -> {
+				if (localSize != null && localSize == source.size && (!compareChecksums || crc32c(key, source).equals(crc32c(file)))) {
+					result.unchanged.incrementAndGet();
+					return;
+				}
+				download(key, source, file);
+				result.transferred.incrementAndGet();
+				result.bytesTransferred.addAndGet(source.size);
+			}));
+		}
+		run(tasks);
+
+		if (deleteExtraneous) {
+			/* children before their parents */
+			final List<String> extraneous = new ArrayList<>();
+			for (final String key : local.keySet()) {
+				if (!remote.containsKey(key) && !remoteDirectories.contains(key))
+					extraneous.add(key);
+			}
+			extraneous.sort(Comparator.reverseOrder());
+			for (final String key : extraneous) {
+				try {
+					if (Files.deleteIfExists(localRoot.resolve(key.substring(prefix.length()))))
+						result.deleted.incrementAndGet();
+				} catch (final IOException e) {
+					result.failures.put(key, e);
+				}
+			}
+		}
+		return result;
+	}
+
+	private void download(final String key, final Remote source, final Path file) throws IOException {
+
+		final Path parent = file.toAbsolutePath().getParent();
+		Files.createDirectories(parent);
+		final Path temp = Files.createTempFile(parent, "." + file.getFileName(), ".part");
+		try {
+			final Checksum checksum = GcsChecksums.newCrc32c();
+			try (
+					final InputStream in = new CheckedInputStream(kva.createStreamingReadData("/" + key).inputStream(), checksum);
+					final OutputStream out = Files.newOutputStream(temp)) {
+				final byte[] buffer = new byte[BUFFER_SIZE];
+				for (int n; (n = in.read(buffer)) >= 0; )
+					out.write(buffer, 0, n);
+			}
+			GcsChecksums.verify(checksum, source.crc32c, bucketName, key);
+			Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	private static String crc32c(final Path file) throws IOException {
+
+		try (final InputStream in = Files.newInputStream(file)) {
+			return crc32c(in);
+		}
+	}
+
+	/* the reported checksum of the object, or one computed from its content if there is none */
+	private String crc32c(final String key, final Remote remote) throws IOException {
+
+		if (remote.crc32c != null)
+			return remote.crc32c;
+		try (final InputStream in = kva.createStreamingReadData("/" + key).inputStream()) {
+			return crc32c(in);
+		}
+	}
+
+	private static String crc32c(final InputStream in) throws IOException {
+
+		final Checksum checksum = GcsChecksums.newCrc32c();
+		final byte[] buffer = new byte[BUFFER_SIZE];
+		for (int n; (n = in.read(buffer)) >= 0; )
+			checksum.update(buffer, 0, n);
+		return GcsChecksums.toBase64(checksum.getValue());
+	}
+
+	private interface IoTask {
+
+		void run() throws IOException;
+	}
+
+	private static Callable<Void> task(final Result result, final String key, final IoTask task) {
+
+		return () -> {
+			try {
+				task.run();
+			} catch (final Exception e) {
+				result.failures.put(key, e);
+			}
+			return null;
+		};
+	}
+
+	private void run(final List<Callable<Void>> tasks) {
+
+		if (tasks.isEmpty())
+			return;
+
+		final ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, tasks.size()));
+		try {
+			for (final Future<Void> future : executor.invokeAll(tasks))
+				future.get();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new N5IOException("Interrupted while syncing gs://" + bucketName + "/" + kva.containerPrefix(), e);
+		} catch (final ExecutionException e) {
+			throw new N5IOException("Error syncing gs://" + bucketName + "/" + kva.containerPrefix(), e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/* keys below prefix, with trailing slash for directories, mapped to their size */
+	private static NavigableMap<String, Long> listLocal(final Path localRoot, final String prefix) {
+
+		final NavigableMap<String, Long> local = new TreeMap<>();
+		if (!Files.isDirectory(localRoot))
+			return local;
+
+		try (final Stream<Path> paths = Files.walk(localRoot)) {
+			paths.forEach(path -> {
+				if (path.equals(localRoot))
+					return;
+				final StringBuilder key = new StringBuilder(prefix);
+				final Path relative = localRoot.relativize(path);
+				for (int i = 0; i < relative.getNameCount(); ++i) {
+					if (i > 0)
+						key.append('/');
+					key.append(relative.getName(i));
+				}
+				try {
+					if (Files.isDirectory(path))
+						local.put(key.append('/').toString(), 0L);
+					else
+						local.put(key.toString(), Files.size(path));
+				} catch (final IOException e) {
+					throw new N5IOException("Could not list " + path, e);
+				}
+			});
+		} catch (final IOException e) {
+			throw new N5IOException("Could not list " + localRoot, e);
+		}
+		return local;
+	}
+
+	/* all objects below prefix that are visible through the key-value access, by logical key */
+	private NavigableMap<String, Remote> listRemote(final String prefix) {
+
+		final ConcurrentSkipListMap<String, Remote> remote = new ConcurrentSkipListMap<>();
+		final List<String> subPrefixes = new ArrayList<>();
+		for (final Blob blob : storage.list(
+				bucketName,
+				BlobListOption.prefix(prefix),
+				BlobListOption.currentDirectory(),
+				BlobListOption.fields(BlobField.NAME, BlobField.SIZE, BlobField.CRC32C)).iterateAll()) {
+			if (blob.isDirectory())
+				subPrefixes.add(blob.getName());
+			else
+				add(remote, prefix, blob);
+		}
+
+		final ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(parallelism, subPrefixes.size())));
+		try {
+			final List<Future<?>> futures = new ArrayList<>();
+			for (final String subPrefix : subPrefixes) {
+				if (kva.isTombstoned(subPrefix))
+					continue;
+				futures.add(executor.submit(() -> {
+					for (final Blob blob : storage.list(
+							bucketName,
+							BlobListOption.prefix(subPrefix),
+							BlobListOption.fields(BlobField.NAME, BlobField.SIZE, BlobField.CRC32C)).iterateAll())
+						add(remote, prefix, blob);
+				}));
+			}
+			for (final Future<?> future : futures)
+				future.get();
+		} catch (final Exception e) {
+			throw new N5IOException("Could not list gs://" + bucketName + "/" + prefix, e);
+		} finally {
+			executor.shutdownNow();
+		}
+		return remote;
+	}
+
+	private void add(final Map<String, Remote> remote, final String prefix, final Blob blob) {
+
+		/* compare by logical key, see GcsKeyLayout */
+		final String name = kva.logicalKey(blob.getName());
+		if (name.equals(prefix) || name.equals(prefix + GcsContainerManifest.MANIFEST_KEY) || kva.isHidden(name))
+			return;
+
+		final Long size = blob.getSize();
+		remote.put(name, new Remote(size == null ? 0 : size, blob.getCrc32c()));
+	}
+}
@@ -0,0 +1,325 @@
+package org.janelia.saalfeldlab.n5.googlecloud;
+
+import com.google.api.gax.paging.Page;
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.Storage.BlobField;
+import com.google.cloud.storage.Storage.BlobGetOption;
+import com.google.cloud.storage.Storage.BlobListOption;
+
+import org.janelia.saalfeldlab.n5.N5Exception.N5IOException;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.time.OffsetDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Tombstones for prefixes that are logically deleted but whose objects may
+ * still exist.
+ * <p>
+ * Deleting a prefix with millions of objects one batch at a time takes long
+ * and costs one request per object. A tombstone hides the prefix instantly;
+ * the objects are removed later by {@link #reclaim}, e.g. in the background.
+ * Each tombstone is a small object below {@link #DIRECTORY} at the container
+ * root, named after the URL-encoded prefix, so every reader of the container
+ * sees it.
+ * <p>
+ * A tombstone only hides and reclaims objects created before it. Objects
+ * written under the prefix later, by this or any other client, stay visible
+ * and are never deleted by the reclaimer. Creation times are those reported
+ * by GCS, in milliseconds; an object created in the same millisecond as the
+ * tombstone counts as written later. Where no creation time is reported,
+ * the update time is used; objects with neither are never hidden or
+ * reclaimed, and a tombstone can only be added if the backend reports a
+ * time for it.
+ * <p>
+ * Bucket lifecycle rules only match objects by name prefix and age, so they
+ * would also delete objects written under the prefix after it was deleted.
+ * Reclaiming is therefore done by this client.
+ */
+public class GcsTombstones {
+
+	public static final String DIRECTORY = ".n5-tombstones/";
+
+	private final Storage storage;
+	private final String bucketName;
+	private final String containerPrefix;
+	private final String tombstoneDirectory;
+	private final Supplier<GcsKeyLayout> keyLayout;
+	/* the tombstoned prefixes and the creation times of their tombstones */
+	private final Map<String, Long> prefixes = new ConcurrentHashMap<>();
+
+	/**
+	 * @param storage         the google cloud interface
+	 * @param bucketName      the bucket
+	 * @param containerPrefix the container root key, empty or with trailing slash
+	 */
+	public GcsTombstones(final Storage storage, final String bucketName, final String containerPrefix) {
+
+		this(storage, bucketName, containerPrefix, () -> GcsKeyLayout.IDENTITY);
+	}
+
+	GcsTombstones(final Storage storage, final String bucketName, final String containerPrefix, final Supplier<GcsKeyLayout> keyLayout) {
+
+		this.storage = storage;
+		this.bucketName = bucketName;
+		this.containerPrefix = containerPrefix;
+		this.tombstoneDirectory = containerPrefix + DIRECTORY;
+		this.keyLayout = keyLayout;
+	}
+
+	/**
+	 * @return the key of the directory holding the tombstones
+	 */
+	public String getDirectory() {
+
+		return tombstoneDirectory;
+	}
+
+	private static String encode(final String prefix) {
+
+		try {
+			return URLEncoder.encode(prefix, StandardCharsets.UTF_8.name());
+		} catch (final UnsupportedEncodingException e) {
+			throw new AssertionError(e);
+		}
+	}
+
+	private static String decode(final String name) {
+
+		try {
+			return URLDecoder.decode(name, StandardCharsets.UTF_8.name());
+		} catch (final UnsupportedEncodingException e) {
+			throw new AssertionError(e);
+		}
+	}
+
+	/**
+	 * @param blob an object with its creation or update time
+	 * @return the creation time in milliseconds, the update time if no
+	 * creation time was reported, or null if neither was
+	 */
+	static Long createTime(final Blob blob) {
+
+		OffsetDateTime createTime = blob.getCreateTimeOffsetDateTime();
+		if (createTime == null)
+			createTime = blob.getUpdateTimeOffsetDateTime();
+		return createTime == null ? null : createTime.toInstant().toEpochMilli();
+	}
+
+	/* a tombstone without a time hides nothing */
+	private static long tombstoneTime(final Blob tombstone) {
+
+		final Long createTime = createTime(tombstone);
+		return createTime == null ? Long.MIN_VALUE : createTime;
+	}
+
+	/**
+	 * Load the tombstones from the backend, replacing those known so far.
+	 *
+	 * @return this
+	 */
+	public GcsTombstones load() {
+
+		final Map<String, Long> loaded = new HashMap<>();
+		for (final Blob blob : storage.list(
+				bucketName,
+				BlobListOption.prefix(tombstoneDirectory),
+				BlobListOption.fields(BlobField.NAME, BlobField.TIME_CREATED, BlobField.UPDATED)).iterateAll())
+			loaded.put(decode(blob.getName().substring(tombstoneDirectory.length())), tombstoneTime(blob));
+
+		prefixes.keySet().retainAll(loaded.keySet());
+		prefixes.putAll(loaded);
+		return this;
+	}
+
+	public boolean isEmpty() {
+
+		return prefixes.isEmpty();
+	}
+
+	/**
+	 * @return the tombstoned prefixes
+	 */
+	public List<String> getPrefixes() {
+
+		return new ArrayList<>(prefixes.keySet());
+	}
+
+	private static boolean covers(final String prefix, final String key) {
+
+		return key.startsWith(prefix) || prefix.equals(key + "/");
+	}
+
+	/**
+	 * Whether {@code key} is below a tombstone. Objects at such keys are
+	 * hidden if they were created before the tombstone, see
+	 * {@link #hides(String, Long)}.
+	 *
+	 * @param key an object or directory key
+	 * @return whether {@code key} is below a tombstone
+	 */
+	public boolean covers(final String key) {
+
+		if (prefixes.isEmpty())
+			return false;
+
+		for (final String prefix : prefixes.keySet()) {
+			if (covers(prefix, key))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @param key        an object or directory key
+	 * @param createTime the creation time of the object at {@code key} in
+	 *                   milliseconds, or null if unknown
+	 * @return whether the object at {@code key} is hidden by a tombstone
+	 * created after it, never if its creation time is unknown
+	 */
+	public boolean hides(final String key, final Long createTime) {
+
+		if (createTime == null)
+			return false;
+
+		for (final Map.Entry<String, Long> tombstone : prefixes.entrySet()) {
+			if (covers(tombstone.getKey(), key) && createTime < tombstone.getValue())
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Hide {@code prefix} and the object at {@code prefix} without its
+	 * trailing slash.
+	 *
+	 * @param prefix the directory key with trailing slash
+	 * @throws N5IOException if the backend reports no time for the tombstone
+	 */
+	public synchronized void add(final String prefix) throws N5IOException {
+
+		/* written again if it exists, to also hide what was written since */
+		final BlobId id = BlobId.of(bucketName, tombstoneDirectory + encode(prefix));
+		final Blob tombstone = storage.create(BlobInfo.newBuilder(id).build());
+		final Long createTime = createTime(tombstone);
+		if (createTime == null) {
+			storage.delete(id);
+			throw new N5IOException("gs://" + bucketName + " reports no creation time for tombstones");
+		}
+		prefixes.put(prefix, createTime);
+	}
+
+	/**
+	 * Delete all objects created before the tombstones of prefixes that cover
+	 * or are covered by {@code key}, then remove those tombstones.
+	 *
+	 * @param key an object or directory key
+	 */
+	public synchronized void reclaim(final String key) {
+
+		for (final String prefix : getPrefixes()) {
+			if (key.startsWith(prefix) || prefix.startsWith(key) || prefix.equals(key + "/"))
+				reclaimPrefix(prefix);
+		}
+	}
+
+	/**
+	 * Delete all objects created before their tombstones, then remove the
+	 * tombstones.
+	 */
+	public synchronized void reclaimAll() {
+
+		for (final String prefix : getPrefixes())
+			reclaimPrefix(prefix);
+	}
+
+	/**
+	 * Remove the tombstones of prefixes below {@code prefix} without deleting
+	 * objects, after all objects below {@code prefix} were deleted otherwise.
+	 *
+	 * @param prefix the directory key with trailing slash
+	 */
+	public synchronized void forget(final String prefix) {
+
+		for (final String tombstoned : getPrefixes()) {
+			if (tombstoned.startsWith(prefix)) {
+				storage.delete(BlobId.of(bucketName, tombstoneDirectory + encode(tombstoned)));
+				prefixes.remove(tombstoned);
+			}
+		}
+	}
+
+	private void reclaimPrefix(final String prefix) {
+
+		final Long tombstoneTime = prefixes.get(prefix);
+		if (tombstoneTime == null)
+			return;
+
+		/* objects stored under hashed keys, see GcsKeyLayout */
+		final GcsKeyLayout layout = keyLayout.get();
+		final List<String> objectPrefixes = new ArrayList<>();
+		objectPrefixes.add(prefix);
+		objectPrefixes.addAll(layout.objectPrefixes(containerPrefix, prefix));
+
+		final List<BlobId> remaining = new ArrayList<>();
+		try {
+			for (final String objectPrefix : objectPrefixes) {
+				Page<Blob> page = storage.list(
+						bucketName,
+						BlobListOption.prefix(objectPrefix),
+						BlobListOption.fields(BlobField.NAME, BlobField.GENERATION, BlobField.TIME_CREATED, BlobField.UPDATED));
+				while (page != null) {
+					/* exactly the generations written before the tombstone */
+					final BlobId[] ids = page.streamValues()
+							.filter(blob -> predates(blob, tombstoneTime))
+							.map(blob -> BlobId.of(bucketName, blob.getName(), blob.getGeneration()))
+							.toArray(BlobId[]::new);
+					if (ids.length > 0) {
+						final List<Boolean> deleted = storage.delete(ids);
+						for (int i = 0; i < ids.length; ++i) {
+							if (!deleted.get(i))
+								remaining.add(ids[i]);
+						}
+					}
+					page = page.getNextPage();
+				}
+			}
+
+			final String file = layout.toObjectKey(containerPrefix, prefix.substring(0, prefix.length() - 1));
+			final Blob blob = storage.get(BlobId.of(bucketName, file), BlobGetOption.fields(BlobField.GENERATION, BlobField.TIME_CREATED, BlobField.UPDATED));
+			if (blob != null && predates(blob, tombstoneTime)) {
+				final BlobId id = BlobId.of(bucketName, file, blob.getGeneration());
+				if (!storage.delete(id))
+					remaining.add(id);
+			}
+
+			/* false means not found, denied or failed; only the first is done */
+			remaining.removeIf(id -> storage.get(id, BlobGetOption.fields(BlobField.GENERATION)) == null);
+		} catch (final RuntimeException e) {
+			throw new N5IOException("Could not reclaim gs://" + bucketName + "/" + prefix, e);
+		}
+		if (!remaining.isEmpty())
+			throw new N5IOException("Could not reclaim gs://" + bucketName + "/" + prefix + ", " + remaining.size() + " objects left, e.g. " + remaining.get(0).getName());
+
+		/* remove the tombstone only after all older objects are gone */
+		storage.delete(BlobId.of(bucketName, tombstoneDirectory + encode(prefix)));
+		prefixes.remove(prefix);
+	}
+
+	private static boolean predates(final Blob blob, final long tombstoneTime) {
+
+		final Long createTime = createTime(blob);
+		return createTime != null && createTime < tombstoneTime;
+	}
+}
@@ -0,0 +1,310 @@
+package org.janelia.saalfeldlab.n5.googlecloud;
+
+import com.google.cloud.RestorableState;
+import com.google.cloud.WriteChannel;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.StorageException;
+import org.janelia.saalfeldlab.n5.N5Exception.N5IOException;
+import org.janelia.saalfeldlab.n5.readdata.ReadData;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.zip.Checksum;
+
+/**
+ * Resumable uploads that survive a restart of the process.
+ * <p>
+ * After every chunk written to the resumable upload session, the state of
+ * the session ({@link WriteChannel#capture()}), the number of bytes written,
+ * and the CRC32C of these bytes are saved to a journal file in a local
+ * directory. When the same object is uploaded again while its journal
+ * exists, the already written bytes of the source are re-read locally to
+ * confirm they did not change, and the session is
+ * {@link RestorableState#restore() restored} and continued after them, so
+ * only the remaining bytes are sent. If the restored session has expired,
+ * the upload starts over in a new session. The journal is deleted when the
+ * upload completes.
+ * <p>
+ * A journal entry holds the session state including bytes buffered but not
+ * yet sent, i.e. up to one chunk. Resuming needs {@link ReadData} whose
+ * {@link ReadData#inputStream() input stream} can be opened again if the
+ * journal turns out to be stale.
+ */
+public class GcsUploadJournal {
+
+	public static final int DEFAULT_CHUNK_SIZE = 16 * 1024 * 1024;
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final int GONE = 410;
+
+	private static class Entry implements Serializable {
+
+		private static final long serialVersionUID = 2L;
+
+		final String bucketName;
+		final String key;
+		final long offset;
+		final long crc32c;
+		/* the metadata the session was opened with */
+		final HashMap<String, String> metadata;
+		final RestorableState<WriteChannel> state;
+
+		Entry(
+				final String bucketName,
+				final String key,
+				final long offset,
+				final long crc32c,
+				final HashMap<String, String> metadata,
+				final RestorableState<WriteChannel> state) {
+
+			this.bucketName = bucketName;
+			this.key = key;
+			this.offset = offset;
+			this.crc32c = crc32c;
+			this.metadata = metadata;
+			this.state = state;
+		}
+	}
+
+	private final Path directory;
+	private final Function<BlobInfo, WriteChannel> writer;
+	private int chunkSize = DEFAULT_CHUNK_SIZE;
+
+	/**
+	 * @param storage   the google cloud interface
+	 * @param directory the local journal directory, created if it does not exist
+	 */
+	public GcsUploadJournal(final Storage storage, final Path directory) {
+
+		this(directory, blobInfo -> storage.writer(blobInfo));
+	}
+
+	/**
+	 * @param directory the local journal directory, created if it does not exist
+	 * @param writer    opens a new upload session for an object
+	 */
+	public GcsUploadJournal(final Path directory, final Function<BlobInfo, WriteChannel> writer) {
+
+		this.directory = directory;
+		this.writer = writer;
+	}
+
+	/**
+	 * @param chunkSize the chunk size of the upload session and the number of
+	 *                  bytes written between journal entries, rounded up to a
+	 *                  multiple of 256 KiB
+	 */
+	public void setChunkSize(final int chunkSize) {
+
+		this.chunkSize = GcsStreamingUpload.roundChunkSize(chunkSize);
+	}
+
+	public int getChunkSize() {
+
+		return chunkSize;
+	}
+
+	/**
+	 * @param bucketName the bucket
+	 * @param key        the object key
+	 * @return whether there is an unfinished upload of {@code key}
+	 */
+	public boolean hasPending(final String bucketName, final String key) {
+
+		return Files.exists(journalFile(bucketName, key));
+	}
+
+	/**
+	 * A resumed upload keeps the metadata of the session it continues, so
+	 * callers that tag uploads should reuse these.
+	 *
+	 * @param bucketName the bucket
+	 * @param key        the object key
+	 * @return the metadata of the unfinished upload of {@code key}, or null if
+	 * there is none or it has no metadata
+	 */
+	public Map<String, String> getPendingMetadata(final String bucketName, final String key) {
+
+		final Entry entry = load(journalFile(bucketName, key), bucketName, key);
+		return entry == null ? null : entry.metadata;
+	}
+
+	/**
+	 * Forget the unfinished upload of {@code key}, so the next upload starts
+	 * from the beginning.
+	 *
+	 * @param bucketName the bucket
+	 * @param key        the object key
+	 */
+	public void discard(final String bucketName, final String key) {
+
+		try {
+			Files.deleteIfExists(journalFile(bucketName, key));
+		} catch (final IOException e) {
+			throw new N5IOException("Could not delete upload journal of " + key, e);
+		}
+	}
+
+	/**
+	 * Upload {@code data}, continuing an unfinished upload of the same object
+	 * if there is one.
+	 *
+	 * @param blobInfo the object to write
+	 * @param data     the content
+	 * @param checksum updated with all bytes of {@code data}, may be null
+	 * @throws IOException if the upload failed; the journal is kept unless
+	 *                     the upload session is gone
+	 */
+	public void upload(final BlobInfo blobInfo, final ReadData data, final Checksum checksum) throws IOException {
+
+		final Entry entry = load(journalFile(blobInfo.getBucket(), blobInfo.getName()), blobInfo.getBucket(), blobInfo.getName());
+		if (entry != null && upload(blobInfo, data, checksum, entry))
+			return;
+
+		/* stale journal or expired session, start over */
+		if (checksum != null)
+			checksum.reset();
+		upload(blobInfo, data, checksum, null);
+	}
+
+	/* upload in a new session or continue entry; false if entry was stale or its session expired, and was discarded */
+	private boolean upload(final BlobInfo blobInfo, final ReadData data, final Checksum checksum, final Entry entry) throws IOException {
+
+		final String bucketName = blobInfo.getBucket();
+		final String key = blobInfo.getName();
+		final Path journalFile = journalFile(bucketName, key);
+
+		long offset = 0;
+		final Checksum crc32c = GcsChecksums.newCrc32c();
+		try (final InputStream in = data.inputStream()) {
+			final WriteChannel channel;
+			final HashMap<String, String> metadata;
+			if (entry == null) {
+				channel = writer.apply(blobInfo);
+				channel.setChunkSize(chunkSize);
+				metadata = blobInfo.getMetadata() == null ? null : new HashMap<>(blobInfo.getMetadata());
+			} else {
+				if (skip(in, entry.offset, crc32c, checksum) != entry.offset || crc32c.getValue() != entry.crc32c) {
+					discard(bucketName, key);
+					return false;
+				}
+				try {
+					channel = entry.state.restore();
+				} catch (final RuntimeException e) {
+					discard(bucketName, key);
+					return false;
+				}
+				offset = entry.offset;
+				metadata = entry.metadata;
+			}
+
+			final byte[] buffer = new byte[BUFFER_SIZE];
+			long sinceCheckpoint = 0;
+			for (int n; (n = in.read(buffer)) >= 0; ) {
+				write(channel, buffer, n);
+				crc32c.update(buffer, 0, n);
+				if (checksum != null)
+					checksum.update(buffer, 0, n);
+				offset += n;
+				sinceCheckpoint += n;
+				if (sinceCheckpoint >= chunkSize) {
+					save(journalFile, new Entry(bucketName, key, offset, crc32c.getValue(), metadata, channel.capture()));
+					sinceCheckpoint = 0;
+				}
+			}
+			channel.close();
+		} catch (final StorageException e) {
+			if (e.getCode() == GONE || e.getCode() == GoogleCloudStorageKeyValueAccess.NOT_FOUND) {
+				discard(bucketName, key);
+				if (entry != null)
+					return false;
+			}
+			throw new IOException("Upload of " + key + " failed at " + offset, e);
+		}
+		discard(bucketName, key);
+		return true;
+	}
+
+	private static void write(final WriteChannel channel, final byte[] bytes, final int length) throws IOException {
+
+		final ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, length);
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+	}
+
+	/* read up to length bytes, updating the checksums, and return the number read */
+	private static long skip(final InputStream in, final long length, final Checksum crc32c, final Checksum checksum) throws IOException {
+
+		final byte[] buffer = new byte[BUFFER_SIZE];
+		long skipped = 0;
+		while (skipped < length) {
+			final int n = in.read(buffer, 0, (int) Math.min(buffer.length, length - skipped));
+			if (n < 0)
+				break;
+			crc32c.update(buffer, 0, n);
+			if (checksum != null)
+				checksum.update(buffer, 0, n);
+			skipped += n;
+		}
+		return skipped;
+	}
+
+	private Path journalFile(final String bucketName, final String key) {
+
+		try {
+			final byte[] digest = MessageDigest.getInstance("SHA-256").digest((bucketName + "/" + key).getBytes(StandardCharsets.UTF_8));
+			final StringBuilder name = new StringBuilder();
+			for (final byte b : digest)
+				name.append(String.format("%02x", b));
+			return directory.resolve(name.append(".journal").toString());
+		} catch (final NoSuchAlgorithmException e) {
+			throw new AssertionError(e);
+		}
+	}
+
+	private Entry load(final Path journalFile, final String bucketName, final String key) {
+
+		if (!Files.exists(journalFile))
+			return null;
+
+		try (final ObjectInputStream in = new ObjectInputStream(Files.newInputStream(journalFile))) {
+			final Entry entry = (Entry) in.readObject();
+			if (entry.bucketName.equals(bucketName) && entry.key.equals(key))
+				return entry;
+		} catch (final IOException | ClassNotFoundException | ClassCastException e) {
+			/* unreadable, e.g. written by an incompatible version */
+		}
+		discard(bucketName, key);
+		return null;
+	}
+
+	private void save(final Path journalFile, final Entry entry) throws IOException {
+
+		Files.createDirectories(directory);
+		final Path temp = Files.createTempFile(directory, journalFile.getFileName().toString(), ".part");
+		try {
+			try (final OutputStream out = Files.newOutputStream(temp);
+					final ObjectOutputStream objectOut = new ObjectOutputStream(out)) {
+				objectOut.writeObject(entry);
+			}
+			Files.move(temp, journalFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+}
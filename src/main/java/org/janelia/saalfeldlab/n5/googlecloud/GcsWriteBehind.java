@@ -0,0 +1,229 @@
+package org.janelia.saalfeldlab.n5.googlecloud;
+
+import org.janelia.saalfeldlab.n5.N5Exception;
+import org.janelia.saalfeldlab.n5.N5Exception.N5IOException;
+import org.janelia.saalfeldlab.n5.readdata.ReadData;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A bounded in-memory write-behind buffer. {@link #write} returns as soon as
+ * the content is buffered, and background workers upload buffered objects
+ * concurrently.
+ * <p>
+ * Repeated writes to a key that has not been uploaded yet are coalesced, only
+ * the last content is uploaded. Writes to the same key are never uploaded
+ * concurrently, so the last write wins. Buffered content is returned by
+ * {@link #pending(String)} until it was uploaded, giving read-your-writes
+ * consistency to the owner of the buffer.
+ * <p>
+ * Upload failures are collected and thrown by the next {@link #flush()} or
+ * {@link #close()}.
+ */
+public class GcsWriteBehind implements Closeable {
+
+	public static final int DEFAULT_PARALLELISM = 16;
+	public static final long DEFAULT_MAX_BUFFERED_BYTES = 256L << 20;
+
+	/**
+	 * Uploads one object.
+	 */
+	@FunctionalInterface
+	public interface Uploader {
+
+		void upload(String key, ReadData data) throws IOException;
+	}
+
+	private static final AtomicInteger threadCount = new AtomicInteger();
+
+	private final Uploader uploader;
+	private final long maxBufferedBytes;
+	private final ExecutorService workers;
+
+	/* guarded by this */
+	private final LinkedHashMap<String, byte[]> queued = new LinkedHashMap<>();
+	private final Map<String, byte[]> uploading = new HashMap<>();
+	private final List<Exception> failures = new ArrayList<>();
+	private long bufferedBytes = 0;
+	private boolean closed = false;
+
+	/**
+	 * @param uploader         uploads one object
+	 * @param parallelism      the number of concurrent uploads
+	 * @param maxBufferedBytes {@link #write} blocks while more than this
+	 *                         many bytes are buffered
+	 */
+	public GcsWriteBehind(final Uploader uploader, final int parallelism, final long maxBufferedBytes) {
+
+		this.uploader = uploader;
+		this.maxBufferedBytes = maxBufferedBytes;
+		this.workers = Executors.newFixedThreadPool(parallelism, r -> {
+			final Thread thread = new Thread(r, "n5-gcs-write-behind-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		for (int i = 0; i < parallelism; ++i)
+			workers.submit(this::work);
+	}
+
+	public GcsWriteBehind(final Uploader uploader) {
+
+		this(uploader, DEFAULT_PARALLELISM, DEFAULT_MAX_BUFFERED_BYTES);
+	}
+
+	/**
+	 * Buffer {@code data} for upload to {@code key}. Blocks while the buffer
+	 * is full.
+	 *
+	 * @param key  the object key
+	 * @param data the content, materialized before this method returns
+	 */
+	public void write(final String key, final ReadData data) {
+
+		final byte[] bytes = data.allBytes();
+		synchronized (this) {
+			if (closed)
+				throw new N5Exception("Write-behind buffer is closed");
+
+			/* let a single write larger than the buffer through an empty buffer */
+			while (bufferedBytes > 0 && bufferedBytes + bytes.length > maxBufferedBytes) {
+				await();
+				if (closed)
+					throw new N5Exception("Write-behind buffer is closed");
+			}
+
+			final byte[] replaced = queued.remove(key);
+			if (replaced != null)
+				bufferedBytes -= replaced.length;
+			queued.put(key, bytes);
+			bufferedBytes += bytes.length;
+			notifyAll();
+		}
+	}
+
+	/**
+	 * @param key the object key
+	 * @return the content buffered for {@code key} and not yet uploaded, or
+	 * null if there is none
+	 */
+	public synchronized byte[] pending(final String key) {
+
+		final byte[] bytes = queued.get(key);
+		return bytes != null ? bytes : uploading.get(key);
+	}
+
+	/**
+	 * @return the number of bytes buffered and not yet uploaded
+	 */
+	public synchronized long getBufferedBytes() {
+
+		return bufferedBytes;
+	}
+
+	/**
+	 * Wait until all buffered writes were uploaded.
+	 *
+	 * @throws N5IOException if any upload since the last flush failed, the
+	 *                       other failures are attached as suppressed exceptions
+	 */
+	public void flush() throws N5IOException {
+
+		final List<Exception> failed;
+		synchronized (this) {
+			while (!queued.isEmpty() || !uploading.isEmpty())
+				await();
+			failed = new ArrayList<>(failures);
+			failures.clear();
+		}
+
+		if (failed.isEmpty())
+			return;
+
+		final N5IOException e = new N5IOException(failed.size() + " buffered write(s) failed", failed.get(0));
+		for (final Exception failure : failed.subList(1, failed.size()))
+			e.addSuppressed(failure);
+		throw e;
+	}
+
+	/**
+	 * Flush and stop the workers.
+	 *
+	 * @throws N5IOException if any upload since the last flush failed
+	 */
+	@Override
+	public void close() throws N5IOException {
+
+		try {
+			flush();
+		} finally {
+			synchronized (this) {
+				closed = true;
+				notifyAll();
+			}
+			workers.shutdown();
+		}
+	}
+
+	private void work() {
+
+		while (true) {
+			final String key;
+			final byte[] bytes;
+			synchronized (this) {
+				Map.Entry<String, byte[]> next;
+				while ((next = nextUploadable()) == null) {
+					if (closed)
+						return;
+					await();
+				}
+				key = next.getKey();
+				bytes = next.getValue();
+				queued.remove(key);
+				uploading.put(key, bytes);
+			}
+
+			try {
+				uploader.upload(key, ReadData.from(bytes));
+			} catch (final Exception e) {
+				synchronized (this) {
+					failures.add(new N5IOException("Could not upload " + key, e));
+				}
+			} finally {
+				synchronized (this) {
+					uploading.remove(key);
+					bufferedBytes -= bytes.length;
+					notifyAll();
+				}
+			}
+		}
+	}
+
+	/* the oldest queued entry whose key is not being uploaded */
+	private Map.Entry<String, byte[]> nextUploadable() {
+
+		for (final Map.Entry<String, byte[]> entry : queued.entrySet()) {
+			if (!uploading.containsKey(entry.getKey()))
+				return entry;
+		}
+		return null;
+	}
+
+	private void await() {
+
+		try {
+			wait();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new N5IOException("Interrupted while waiting for buffered writes", e);
+		}
+	}
+}
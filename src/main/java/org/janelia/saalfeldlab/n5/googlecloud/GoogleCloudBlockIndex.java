@@ -0,0 +1,353 @@
+package org.janelia.saalfeldlab.n5.googlecloud;
+
+import com.google.api.gax.paging.Page;
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.Storage.BlobField;
+import com.google.cloud.storage.Storage.BlobListOption;
+import com.google.cloud.storage.StorageException;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An index of the blocks of one dataset, built from a single flat listing of
+ * the dataset prefix.
+ * <p>
+ * N5 blocks are stored at {@code dataset/x/y/z...}. Every listed key below the
+ * dataset prefix whose components are all non-negative integers is decoded
+ * into a grid position. Positions are kept sorted in one flat {@code long[]}
+ * (with {@link #numDimensions()} entries per block) next to the object sizes,
+ * so existence and size queries are answered by binary search without further
+ * requests.
+ * <p>
+ * Only keys with exactly {@link #numDimensions()} integer components are
+ * {@link #covers(String) covered} by the index; anything else must be resolved
+ * against the backend. The number of dimensions is taken from the first block,
+ * or from the {@code dimensions} in {@code attributes.json} of a dataset
+ * without blocks.
+ * <p>
+ * Blocks written later through the owning key-value access are
+ * {@link #put(String, long) added} to a small overlay rather than to the
+ * sorted arrays, so a write costs no copy of the index.
+ */
+public class GoogleCloudBlockIndex {
+
+	private static final int LIST_PAGE_SIZE = 5000;
+
+	private static final String ATTRIBUTES_KEY = "attributes.json";
+
+	private final String prefix;
+	private final int numDimensions;
+	private final long[] positions;
+	private final long[] sizes;
+
+	/* sizes of blocks written since the listing, by grid position key */
+	private final Map<String, Long> written = new ConcurrentHashMap<>();
+	/* the number of written blocks that were not listed */
+	private final AtomicInteger added = new AtomicInteger();
+
+	private GoogleCloudBlockIndex(final String prefix, final int numDimensions, final long[] positions, final long[] sizes) {
+
+		this.prefix = prefix;
+		this.numDimensions = numDimensions;
+		this.positions = positions;
+		this.sizes = sizes;
+	}
+
+	/**
+	 * Lists all objects below {@code datasetKey} and builds the index of the
+	 * blocks found there.
+	 *
+	 * @param storage    the google cloud interface
+	 * @param bucketName the bucket
+	 * @param datasetKey the object key of the dataset, without leading slash
+	 * @return the block index
+	 */
+	public static GoogleCloudBlockIndex build(final Storage storage, final String bucketName, final String datasetKey) {
+
+		final String prefix = datasetKey.isEmpty() || datasetKey.endsWith("/") ? datasetKey : datasetKey + "/";
+		final Page<Blob> blobListing = storage.list(
+				bucketName,
+				BlobListOption.prefix(prefix),
+				BlobListOption.pageSize(LIST_PAGE_SIZE),
+				BlobListOption.fields(BlobField.NAME, BlobField.SIZE));
+
+		long[] positions = new long[0];
+		long[] sizes = new long[16];
+		int numBlocks = 0;
+		int numDimensions = -1;
+		for (final Blob blob : blobListing.iterateAll()) {
+			final long[] gridPosition = decode(blob.getName(), prefix, numDimensions);
+			if (gridPosition == null)
+				continue;
+
+			if (numDimensions < 0) {
+				numDimensions = gridPosition.length;
+				positions = new long[sizes.length * numDimensions];
+			}
+			if (numBlocks == sizes.length) {
+				sizes = Arrays.copyOf(sizes, 2 * numBlocks);
+				positions = Arrays.copyOf(positions, sizes.length * numDimensions);
+			}
+			System.arraycopy(gridPosition, 0, positions, numBlocks * numDimensions, numDimensions);
+			sizes[numBlocks++] = blob.getSize() == null ? 0 : blob.getSize();
+		}
+		if (numDimensions < 0)
+			numDimensions = readNumDimensions(storage, bucketName, prefix);
+		return create(prefix, numDimensions, positions, sizes, numBlocks);
+	}
+
+	/* the number of dimensions of an empty dataset, from its attributes, or 0 */
+	private static int readNumDimensions(final Storage storage, final String bucketName, final String prefix) {
+
+		final byte[] bytes;
+		try {
+			bytes = storage.readAllBytes(BlobId.of(bucketName, prefix + ATTRIBUTES_KEY));
+		} catch (final StorageException e) {
+			if (e.getCode() == GoogleCloudStorageKeyValueAccess.NOT_FOUND)
+				return 0;
+			throw e;
+		}
+		try {
+			final JsonElement attributes = new JsonParser().parse(new String(bytes, StandardCharsets.UTF_8));
+			if (!attributes.isJsonObject())
+				return 0;
+			final JsonElement dimensions = ((JsonObject) attributes).get("dimensions");
+			return dimensions != null && dimensions.isJsonArray() ? dimensions.getAsJsonArray().size() : 0;
+		} catch (final JsonParseException e) {
+			return 0;
+		}
+	}
+
+	/* index the first numBlocks blocks, sorted in grid order */
+	static GoogleCloudBlockIndex create(final String prefix, final int numDimensions, final long[] positions, final long[] sizes, final int numBlocks) {
+
+		final int[] order = new int[numBlocks];
+		for (int i = 0; i < numBlocks; ++i)
+			order[i] = i;
+		final int[] sorted = sort(order, positions, numDimensions);
+
+		final long[] sortedPositions = new long[numBlocks * numDimensions];
+		final long[] sortedSizes = new long[numBlocks];
+		for (int i = 0; i < numBlocks; ++i) {
+			System.arraycopy(positions, sorted[i] * numDimensions, sortedPositions, i * numDimensions, numDimensions);
+			sortedSizes[i] = sizes[sorted[i]];
+		}
+		return new GoogleCloudBlockIndex(prefix, numDimensions, sortedPositions, sortedSizes);
+	}
+
+	/* the block indices in order sorted by grid position, bottom-up merge sort */
+	private static int[] sort(int[] order, final long[] positions, final int numDimensions) {
+
+		int[] merged = new int[order.length];
+		for (int width = 1; width < order.length; width *= 2) {
+			for (int lo = 0; lo < order.length; lo += 2 * width) {
+				final int mid = Math.min(lo + width, order.length);
+				final int hi = Math.min(lo + 2 * width, order.length);
+				int i = lo, j = mid, k = lo;
+				while (i < mid && j < hi)
+					merged[k++] = compare(positions, order[j] * numDimensions, positions, order[i] * numDimensions, numDimensions) < 0 ? order[j++] : order[i++];
+				while (i < mid)
+					merged[k++] = order[i++];
+				while (j < hi)
+					merged[k++] = order[j++];
+			}
+			final int[] swap = order;
+			order = merged;
+			merged = swap;
+		}
+		return order;
+	}
+
+	/**
+	 * Decode the grid position of {@code key} relative to {@code prefix}.
+	 *
+	 * @param key           the object key
+	 * @param prefix        the dataset prefix, with trailing slash
+	 * @param numDimensions the expected number of dimensions, or a negative
+	 *                      number to accept any
+	 * @return the grid position or {@code null} if {@code key} is not a block key
+	 */
+	static long[] decode(final String key, final String prefix, final int numDimensions) {
+
+		if (!key.startsWith(prefix) || key.length() == prefix.length() || key.endsWith("/"))
+			return null;
+
+		final String[] components = key.substring(prefix.length()).split("/");
+		if (numDimensions >= 0 && components.length != numDimensions)
+			return null;
+
+		final long[] gridPosition = new long[components.length];
+		for (int d = 0; d < components.length; ++d) {
+			final String component = components[d];
+			if (component.isEmpty() || component.length() > 18)
+				return null;
+			long value = 0;
+			for (int i = 0; i < component.length(); ++i) {
+				final char c = component.charAt(i);
+				if (c < '0' || c > '9')
+					return null;
+				value = value * 10 + (c - '0');
+			}
+			gridPosition[d] = value;
+		}
+		return gridPosition;
+	}
+
+	private static int compare(final long[] a, final int offsetA, final long[] b, final int offsetB, final int numDimensions) {
+
+		for (int d = 0; d < numDimensions; ++d) {
+			final int c = Long.compare(a[offsetA + d], b[offsetB + d]);
+			if (c != 0)
+				return c;
+		}
+		return 0;
+	}
+
+	private int find(final long[] gridPosition) {
+
+		if (gridPosition.length != numDimensions)
+			return -1;
+
+		int lo = 0;
+		int hi = sizes.length - 1;
+		while (lo <= hi) {
+			final int mid = (lo + hi) >>> 1;
+			final int c = compare(positions, mid * numDimensions, gridPosition, 0, numDimensions);
+			if (c < 0)
+				lo = mid + 1;
+			else if (c > 0)
+				hi = mid - 1;
+			else
+				return mid;
+		}
+		return -1;
+	}
+
+	/* the key of a grid position in the overlay */
+	private static String positionKey(final long[] gridPosition) {
+
+		final StringBuilder key = new StringBuilder();
+		for (final long p : gridPosition)
+			key.append(p).append('/');
+		return key.toString();
+	}
+
+	/* the size of a block written since the listing, or null */
+	private Long writtenSize(final long[] gridPosition) {
+
+		return written.isEmpty() ? null : written.get(positionKey(gridPosition));
+	}
+
+	/**
+	 * Record a block written since the listing.
+	 *
+	 * @param key  the object key, without leading slash, {@link #covers(String) covered} by this index
+	 * @param size the size of the block object in bytes
+	 */
+	void put(final String key, final long size) {
+
+		final long[] gridPosition = decode(key, prefix, numDimensions);
+		if (gridPosition == null)
+			return;
+		if (written.put(positionKey(gridPosition), size) == null && find(gridPosition) < 0)
+			added.incrementAndGet();
+	}
+
+	/**
+	 * @return the dataset prefix (with trailing slash) this index was built from
+	 */
+	public String getPrefix() {
+
+		return prefix;
+	}
+
+	public int numDimensions() {
+
+		return numDimensions;
+	}
+
+	/**
+	 * @return the number of blocks, listed or written since
+	 */
+	public int numBlocks() {
+
+		return sizes.length + added.get();
+	}
+
+	/**
+	 * @return the number of blocks found by the listing
+	 */
+	public int numListedBlocks() {
+
+		return sizes.length;
+	}
+
+	/**
+	 * @param i the index of the block in grid order, less than
+	 *          {@link #numListedBlocks()}
+	 * @return the grid position of the i-th listed block
+	 */
+	public long[] gridPosition(final int i) {
+
+		return Arrays.copyOfRange(positions, i * numDimensions, (i + 1) * numDimensions);
+	}
+
+	public boolean exists(final long... gridPosition) {
+
+		return writtenSize(gridPosition) != null || find(gridPosition) >= 0;
+	}
+
+	/**
+	 * @param gridPosition the grid position of the block
+	 * @return the size of the block object in bytes, or -1 if it does not exist
+	 */
+	public long size(final long... gridPosition) {
+
+		final Long written = writtenSize(gridPosition);
+		if (written != null)
+			return written;
+		final int i = find(gridPosition);
+		return i < 0 ? -1 : sizes[i];
+	}
+
+	/**
+	 * Whether existence of {@code key} can be answered by this index.
+	 *
+	 * @param key the object key, without leading slash
+	 * @return true if {@code key} is a block key of this dataset
+	 */
+	public boolean covers(final String key) {
+
+		return numDimensions > 0 && decode(key, prefix, numDimensions) != null;
+	}
+
+	/**
+	 * @param key the object key, without leading slash
+	 * @return true if {@code key} is an indexed block
+	 */
+	public boolean containsKey(final String key) {
+
+		final long[] gridPosition = decode(key, prefix, numDimensions);
+		return gridPosition != null && exists(gridPosition);
+	}
+
+	/**
+	 * @param key the object key, without leading slash
+	 * @return the size of the block object at {@code key} in bytes, or -1 if it is not indexed
+	 */
+	public long sizeOfKey(final String key) {
+
+		final long[] gridPosition = decode(key, prefix, numDimensions);
+		return gridPosition == null ? -1 : size(gridPosition);
+	}
+}
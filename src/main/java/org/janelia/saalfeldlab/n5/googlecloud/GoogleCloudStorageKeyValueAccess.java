@@ -10,7 +10,6 @@ import com.google.cloud.storage.Storage;
 import com.google.cloud.storage.Storage.BlobField;
 import com.google.cloud.storage.Storage.BlobListOption;
 import com.google.cloud.storage.StorageException;
-import com.google.common.base.Objects;
 
 import org.janelia.saalfeldlab.googlecloud.GoogleCloudStorageURI;
 import org.janelia.saalfeldlab.googlecloud.GoogleCloudUtils;
@@ -26,8 +25,28 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
 
 public class GoogleCloudStorageKeyValueAccess implements KeyValueAccess {
 
@@ -36,7 +55,16 @@ public class GoogleCloudStorageKeyValueAccess implements KeyValueAccess {
 	/*
 	 * Error codes
 	 */
+	final static int FORBIDDEN = 403;
 	final static int NOT_FOUND = 404;
+	final static int CONFLICT = 409;
+
+	/*
+	 * Page size of the listing that classifies a key as file or directory
+	 */
+	private static final int CLASSIFY_PAGE_SIZE = 16;
+
+	public static final int DEFAULT_BATCH_PARALLELISM = 16;
 
 	private final Storage storage;
 	private final GoogleCloudStorageURI containerURI;
@@ -45,7 +73,48 @@ public class GoogleCloudStorageKeyValueAccess implements KeyValueAccess {
 
 
 	private final boolean createBucket;
-	private Boolean bucketCheckedAndExists = null;
+
+	private final Map<String, GoogleCloudBlockIndex> blockIndices = new ConcurrentHashMap<>();
+
+	private GcsSnapshot snapshot = null;
+
+	private volatile GcsContainerManifest manifest = null;
+	private volatile boolean maintainManifest = false;
+	private final AtomicBoolean manifestMayExist = new AtomicBoolean(true);
+
+	private volatile GcsWriteBehind writeBehind = null;
+
+	private volatile GcsTombstones tombstones = null;
+
+	private volatile GcsKeyLayout keyLayout = null;
+
+	/* set on the stripes of a GcsStripedKeyValueAccess, which route by the stripe set themselves */
+	volatile boolean stripeMember = false;
+
+	/* directories of hashed objects given a marker and recorded by this instance */
+	private final Set<String> markedBlockDirectories = ConcurrentHashMap.newKeySet();
+
+	private static final AtomicInteger fanOutThreadCount = new AtomicInteger();
+
+	/* shared by all instances, idle threads time out */
+	private static final ThreadPoolExecutor fanOutExecutor = fanOutExecutor();
+
+	private static ThreadPoolExecutor fanOutExecutor() {
+
+		final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+				DEFAULT_BATCH_PARALLELISM,
+				DEFAULT_BATCH_PARALLELISM,
+				60,
+				TimeUnit.SECONDS,
+				new LinkedBlockingQueue<>(),
+				r -> {
+					final Thread thread = new Thread(r, "n5-gcs-fan-out-" + fanOutThreadCount.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				});
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
 
 	protected static GoogleCloudStorageURI uncheckedContainerLocationStringToGoogleURI(final String uri) {
 
@@ -102,6 +171,8 @@ public class GoogleCloudStorageKeyValueAccess implements KeyValueAccess {
 		this.createBucket = createBucket;
 
 		this.ioPolicy = setIoPolicy();
+		if (Boolean.getBoolean("n5.verifyChecksums") && ioPolicy instanceof GcsIoPolicy.Unsafe)
+			((GcsIoPolicy.Unsafe) ioPolicy).setVerifyChecksums(true);
 	}
 
 	private GcsIoPolicy setIoPolicy() {
@@ -113,6 +184,10 @@ public class GoogleCloudStorageKeyValueAccess implements KeyValueAccess {
 		switch (ioPolicy) {
 			case "unsafe":
 				return new GcsIoPolicy.Unsafe(storage, bucketName);
+			case "cas":
+				return new GcsIoPolicy.CompareAndSwap(storage, bucketName);
+			case "immutable":
+				return new GcsIoPolicy.Immutable(storage, bucketName);
 			case "permissive": // For Gc, this is equivalent ot just strict
 			case "strict":
 			default:
@@ -124,26 +199,610 @@ public class GoogleCloudStorageKeyValueAccess implements KeyValueAccess {
 		this.ioPolicy = ioPolicy;
 	}
 
+	/**
+	 * Buffer {@link #write writes} in memory and upload them in the background.
+	 * <p>
+	 * {@link #write} returns as soon as the content is buffered, repeated
+	 * writes to the same key are coalesced, and reads through this instance
+	 * see buffered content. Listings only show uploaded objects. Deletes,
+	 * copies, and other compound operations {@link #flush()} first.
+	 *
+	 * @param parallelism      the number of concurrent uploads
+	 * @param maxBufferedBytes {@link #write} blocks while more than this many
+	 *                         bytes are buffered
+	 * @see GcsWriteBehind
+	 */
+	public void enableWriteBehind(final int parallelism, final long maxBufferedBytes) {
+
+		checkWritable();
+		disableWriteBehind();
+		writeBehind = new GcsWriteBehind((key, data) -> ioPolicy.write(key, data), parallelism, maxBufferedBytes);
+	}
+
+	/**
+	 * Flush and stop buffering writes.
+	 *
+	 * @throws N5IOException if any buffered write failed
+	 */
+	public void disableWriteBehind() throws N5IOException {
+
+		final GcsWriteBehind current = writeBehind;
+		if (current != null) {
+			writeBehind = null;
+			current.close();
+		}
+	}
+
+	/**
+	 * Wait until all buffered writes were uploaded. Does nothing if writes
+	 * are not buffered.
+	 *
+	 * @throws N5IOException if any buffered write since the last flush failed
+	 */
+	public void flush() throws N5IOException {
+
+		final GcsWriteBehind current = writeBehind;
+		if (current != null)
+			current.flush();
+	}
+
+	private byte[] pendingWrite(final String key) {
+
+		final GcsWriteBehind current = writeBehind;
+		return current == null ? null : current.pending(key);
+	}
+
+	/**
+	 * Builds a {@link GoogleCloudBlockIndex} for the dataset at {@code normalPath}
+	 * from a single listing of its prefix and uses it to answer {@link #exists},
+	 * {@link #isFile} and {@link #size} for its blocks without further requests.
+	 * <p>
+	 * Blocks written through this instance are added to the index, other
+	 * changes through this instance drop the affected index. Changes by
+	 * independent writers are not tracked.
+	 *
+	 * @param normalPath the dataset path
+	 * @return the block index
+	 */
+	public GoogleCloudBlockIndex indexBlocks(final String normalPath) {
+
+		if (keyLayout().isHashed())
+			throw new N5Exception("Block indices are not supported with a hashed key layout");
+
+		final String datasetKey = removeLeadingSlash(addTrailingSlash(GoogleCloudUtils.getGoogleCloudStorageKey(normalPath)));
+		final GoogleCloudBlockIndex index = GoogleCloudBlockIndex.build(storage, bucketName, datasetKey);
+		blockIndices.put(index.getPrefix(), index);
+		return index;
+	}
+
+	/**
+	 * Stop answering block queries for the dataset at {@code normalPath} from
+	 * its {@link GoogleCloudBlockIndex}.
+	 *
+	 * @param normalPath the dataset path
+	 */
+	public void dropBlockIndex(final String normalPath) {
+
+		blockIndices.remove(removeLeadingSlash(addTrailingSlash(GoogleCloudUtils.getGoogleCloudStorageKey(normalPath))));
+	}
+
+	/**
+	 * Create a read-only view of this container pinned to the current
+	 * generation of every object.
+	 * <p>
+	 * A manifest of all keys and their generations is captured once with a
+	 * parallel listing. All reads through the view are pinned to these
+	 * generations, and existence and listing queries are answered from the
+	 * manifest, so the view stays consistent while writers keep modifying the
+	 * container. Overwritten objects remain readable through the view only if
+	 * the bucket keeps noncurrent versions.
+	 *
+	 * @return the snapshot view
+	 * @see GcsSnapshot
+	 */
+	public GoogleCloudStorageKeyValueAccess snapshot() {
+
+		flush();
+		final GoogleCloudStorageKeyValueAccess view = new GoogleCloudStorageKeyValueAccess(storage, containerURI, false);
+		view.snapshot = GcsSnapshot.capture(storage, bucketName, containerPrefix());
+		return view;
+	}
+
+	String containerPrefix() {
+
+		final String containerKey = containerURI.getKey() == null ? "" : removeLeadingSlash(containerURI.getKey());
+		return containerKey.isEmpty() ? "" : addTrailingSlash(containerKey);
+	}
+
+	/**
+	 * @return the snapshot this view is pinned to, or null if this is not a snapshot view
+	 */
+	public GcsSnapshot getSnapshot() {
+
+		return snapshot;
+	}
+
+	/**
+	 * Load the {@link GcsContainerManifest} at the container root, if there is
+	 * one, and answer {@link #list}, {@link #listDirectories},
+	 * {@link #isDirectory}, {@link #exists} and metadata reads from it. With a
+	 * manifest that includes blocks, block existence and size are answered
+	 * from it as well.
+	 * <p>
+	 * The manifest is current only if all writers of the container
+	 * {@link #setMaintainManifest maintain} it. A manifest whose metadata
+	 * files were changed or removed since it was built is
+	 * {@link GcsContainerManifest#isCurrent detected} and not used. Writes
+	 * through this instance stop using the manifest.
+	 *
+	 * @return true if a current manifest was found
+	 */
+	public boolean useManifest() {
+
+		final GcsContainerManifest loaded = GcsContainerManifest.load(storage, bucketName, containerPrefix());
+		manifest = loaded != null && loaded.isCurrent(storage, bucketName) ? loaded : null;
+		return manifest != null;
+	}
+
+	/**
+	 * @return the manifest in use, or null if there is none
+	 */
+	public GcsContainerManifest getManifest() {
+
+		return manifest;
+	}
+
+	/**
+	 * Keep the manifest of this container from going stale: the first
+	 * mutation through this instance removes it, and
+	 * {@link #writeManifest(boolean)} stores a fresh one. Readers fall back to
+	 * listings and GETs while there is no manifest.
+	 *
+	 * @param maintainManifest whether to maintain the manifest
+	 */
+	public void setMaintainManifest(final boolean maintainManifest) {
+
+		this.maintainManifest = maintainManifest;
+	}
+
+	/**
+	 * Build the manifest of this container from a full listing and store it
+	 * at the container root. Call after a batch of writes is complete.
+	 *
+	 * @param includeBlocks whether to include the keys and sizes of all blocks
+	 * @return the manifest
+	 */
+	public GcsContainerManifest writeManifest(final boolean includeBlocks) {
+
+		checkWritable();
+		flush();
+		final GcsContainerManifest fresh = GcsContainerManifest.build(storage, bucketName, containerPrefix(), includeBlocks);
+		fresh.write(storage, bucketName);
+		manifestMayExist.set(true);
+		return fresh;
+	}
+
+	private void invalidateManifest() {
+
+		manifest = null;
+		if (maintainManifest && manifestMayExist.compareAndSet(true, false))
+			GcsContainerManifest.delete(storage, bucketName, containerPrefix());
+	}
+
+	private GcsTombstones tombstones() {
+
+		GcsTombstones current = tombstones;
+		if (current == null) {
+			current = new GcsTombstones(storage, bucketName, containerPrefix(), this::keyLayout);
+			try {
+				current.load();
+			} catch (final StorageException e) {
+				/* readers without list permission cannot see tombstones, and nothing is hidden for them */
+				if (e.getCode() != NOT_FOUND && e.getCode() != FORBIDDEN)
+					throw e;
+			}
+			tombstones = current;
+		}
+		return current;
+	}
+
+	/*
+	 * whether the object at the logical key, a directory marker for keys with
+	 * trailing slash, was created before a tombstone covering it; costs a
+	 * metadata request only below tombstones
+	 */
+	boolean isTombstoned(final String key) {
+
+		final GcsTombstones tombstones = tombstones();
+		if (!tombstones.covers(key))
+			return false;
+
+		final String objectKey = objectKey(key);
+		if (pendingWrite(objectKey) != null)
+			return false;
+		final Blob blob = storage.get(BlobId.of(bucketName, objectKey), Storage.BlobGetOption.fields(BlobField.GENERATION, BlobField.TIME_CREATED, BlobField.UPDATED));
+		return blob == null || tombstones.hides(key, GcsTombstones.createTime(blob));
+	}
+
+	/* like isTombstoned, with the creation time of a listed object instead of a lookup */
+	private boolean isTombstoned(final String key, final Blob listed) {
+
+		/* directories in a listing carry no creation time, their markers do */
+		if (key.endsWith("/"))
+			return isTombstoned(key);
+		final GcsTombstones tombstones = tombstones();
+		return tombstones.covers(key) && tombstones.hides(key, GcsTombstones.createTime(listed));
+	}
+
+	/* the tombstones, hashed objects, and descriptors */
+	private boolean isInternal(final String key) {
+
+		return key.startsWith(containerPrefix() + GcsTombstones.DIRECTORY)
+				|| key.startsWith(containerPrefix() + GcsKeyLayout.DIRECTORY)
+				|| key.equals(containerPrefix() + GcsKeyLayout.DESCRIPTOR_KEY)
+				|| key.equals(containerPrefix() + GcsStripedKeyValueAccess.STRIPES_KEY);
+	}
+
+	/* hide tombstoned objects, the tombstones, hashed objects, and descriptors from listings */
+	boolean isHidden(final String key) {
+
+		return isInternal(key) || isTombstoned(key);
+	}
+
+	private GcsKeyLayout keyLayout() {
+
+		GcsKeyLayout current = keyLayout;
+		if (current == null) {
+			checkNotStriped();
+			try {
+				current = GcsKeyLayout.load(storage, bucketName, containerPrefix());
+			} catch (final StorageException e) {
+				if (e.getCode() != NOT_FOUND)
+					throw e;
+				current = GcsKeyLayout.IDENTITY;
+			}
+			keyLayout = current;
+		}
+		return current;
+	}
+
+	/**
+	 * Store objects under the keys of {@code layout} from now on, and record
+	 * it in the container so that readers pick it up.
+	 * <p>
+	 * The layout must be set before any blocks are written; objects written
+	 * before are not moved. With a {@link GcsKeyLayout#hashed hashed} layout,
+	 * every directory that holds objects under hashed keys gets a directory
+	 * marker and is recorded when its first object is written through this
+	 * instance. Listing such a directory costs {@code 16^hashLength} listings
+	 * (256 for a hash length of 2), all other directory listings and tests
+	 * cost as before. Block indices, manifests and snapshots do not see blocks
+	 * in block directories.
+	 *
+	 * @param layout the key layout
+	 */
+	public void setKeyLayout(final GcsKeyLayout layout) {
+
+		checkWritable();
+		flush();
+		if (createBucket)
+			createBucket();
+		invalidateManifest();
+		layout.write(storage, bucketName, containerPrefix());
+		keyLayout = layout;
+	}
+
+	/*
+	 * Objects other than metadata and markers of a striped container are
+	 * spread over the buckets of its stripe set, and would read as missing
+	 * or be written to the wrong bucket here. Checked once, when the layout
+	 * is loaded for the first such key.
+	 */
+	private void checkNotStriped() {
+
+		if (stripeMember)
+			return;
+		final List<String> buckets = GcsStripedKeyValueAccess.loadBuckets(this);
+		if (buckets != null && buckets.size() > 1)
+			throw new N5Exception("Container gs://" + bucketName + "/" + containerPrefix() + " is striped over " + buckets
+					+ ", open it with GcsStripedKeyValueAccess.open");
+	}
+
+	/**
+	 * @return the key layout of this container
+	 */
+	public GcsKeyLayout getKeyLayout() {
+
+		return keyLayout();
+	}
+
+	/* the object key of the logical key */
+	String objectKey(final String key) {
+
+		/* directory markers and metadata are never mapped, no need to load the layout */
+		if (key.endsWith("/") || GcsContainerManifest.isMetadataKey(key))
+			return key;
+		return keyLayout().toObjectKey(containerPrefix(), key);
+	}
+
+	/* the logical key of the object key */
+	String logicalKey(final String objectKey) {
+
+		return keyLayout().toLogicalKey(containerPrefix(), objectKey);
+	}
+
+	/* apply f to all items concurrently */
+	private <T> List<T> fanOut(final List<String> items, final Function<String, T> f) {
+
+		if (items.isEmpty())
+			return Collections.emptyList();
+
+		final List<Future<T>> futures = new ArrayList<>();
+		try {
+			for (final String item : items)
+				futures.add(fanOutExecutor.submit(() -> f.apply(item)));
+			final List<T> results = new ArrayList<>();
+			for (final Future<T> future : futures)
+				results.add(future.get());
+			return results;
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new N5IOException("Interrupted", e);
+		} catch (final ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new N5IOException(e.getCause());
+		} finally {
+			for (final Future<T> future : futures)
+				future.cancel(true);
+		}
+	}
+
+	/*
+	 * give the directory of an object stored under a hashed key a directory
+	 * marker, so that testing it needs no listing per hash value, and record
+	 * it, so that only recorded directories are listed per hash value
+	 */
+	private void markBlockDirectory(final String logicalKey) {
+
+		final GcsKeyLayout layout = keyLayout();
+		if (!layout.maps(containerPrefix(), logicalKey))
+			return;
+
+		final String directoryKey = GcsKeyLayout.directoryOf(logicalKey);
+		if (markedBlockDirectories.contains(directoryKey))
+			return;
+		/* below a tombstone only a marker written after it makes the directory visible */
+		if (tombstones().covers(directoryKey))
+			createMarker(directoryKey);
+		else
+			createMarkerIfAbsent(directoryKey);
+		createMarkerIfAbsent(layout.blockDirectoryKey(containerPrefix(), directoryKey));
+		markedBlockDirectories.add(directoryKey);
+	}
+
+	/* whether objects below the directory are stored under hashed keys */
+	private boolean isBlockDirectory(final String directoryKey) {
+
+		final GcsKeyLayout layout = keyLayout();
+		if (!layout.isHashed() || !directoryKey.startsWith(containerPrefix()))
+			return false;
+		return markedBlockDirectories.contains(directoryKey) || keyExists(layout.blockDirectoryKey(containerPrefix(), directoryKey));
+	}
+
+	/* whether the directory or any directory below it holds objects under hashed keys */
+	private boolean holdsBlockDirectories(final String directoryKey) {
+
+		final GcsKeyLayout layout = keyLayout();
+		if (!layout.isHashed() || !directoryKey.startsWith(containerPrefix()))
+			return false;
+		return prefixExists(layout.blockDirectoryKey(containerPrefix(), directoryKey));
+	}
+
+	/* the names of the children of the directory stored under hashed keys, directories with trailing slash */
+	private List<String> listHashedChildren(final String directoryKey) {
+
+		final List<String> children = new ArrayList<>();
+		for (final List<String> hashedChildren : fanOut(keyLayout().objectPrefixes(containerPrefix(), directoryKey), objectPrefix -> {
+			final List<String> names = new ArrayList<>();
+			for (final Blob blob : storage.list(
+					bucketName,
+					BlobListOption.prefix(objectPrefix),
+					BlobListOption.currentDirectory(),
+					BlobListOption.fields(BlobField.NAME)).iterateAll())
+				names.add(blob.getName().substring(objectPrefix.length()));
+			return names;
+		}))
+			children.addAll(hashedChildren);
+		return children;
+	}
+
+	/* the object keys of all objects below the directory, including hashed keys */
+	private List<String> listObjectKeys(final String directoryKey) {
+
+		final List<String> objectPrefixes = new ArrayList<>();
+		objectPrefixes.add(directoryKey);
+		if (holdsBlockDirectories(directoryKey))
+			objectPrefixes.addAll(keyLayout().objectPrefixes(containerPrefix(), directoryKey));
+		final List<String> objectKeys = new ArrayList<>();
+		for (final List<String> keys : fanOut(objectPrefixes, objectPrefix -> {
+			final List<String> names = new ArrayList<>();
+			for (final Blob blob : storage.list(bucketName, BlobListOption.prefix(objectPrefix), BlobListOption.fields(BlobField.NAME)).iterateAll())
+				names.add(blob.getName());
+			return names;
+		}))
+			objectKeys.addAll(keys);
+		return objectKeys;
+	}
+
+	/* read-modify-write cycles must not see an object hidden by a tombstone, delete just that generation */
+	private void deleteTombstoned(final String logicalKey) {
+
+		final GcsTombstones tombstones = tombstones();
+		if (!tombstones.covers(logicalKey))
+			return;
+
+		final String objectKey = objectKey(logicalKey);
+		final Blob blob = storage.get(BlobId.of(bucketName, objectKey), Storage.BlobGetOption.fields(BlobField.GENERATION, BlobField.TIME_CREATED, BlobField.UPDATED));
+		if (blob != null && tombstones.hides(logicalKey, GcsTombstones.createTime(blob)))
+			storage.delete(BlobId.of(bucketName, objectKey, blob.getGeneration()));
+	}
+
+	/**
+	 * Delete the file or directory at {@code normalPath} logically and leave
+	 * the deletion of its objects to {@link #reclaim()}.
+	 * <p>
+	 * A {@link GcsTombstones tombstone} is written for the path, which costs a
+	 * single request regardless of how many objects it contains. From then
+	 * on, {@link #exists}, {@link #isFile}, {@link #isDirectory},
+	 * {@link #list} and reads treat the objects created before the tombstone
+	 * as absent. Other instances see the tombstone once they load tombstones,
+	 * i.e. on first use or after {@link #refreshTombstones()}. Writing to the
+	 * path does not wait for the reclaimer, objects written after the
+	 * tombstone are visible and are not reclaimed. Below a tombstone, a
+	 * directory is only visible through a directory marker written after the
+	 * tombstone, e.g. by {@link #createDirectories}.
+	 *
+	 * @param normalPath is expected to be in normalized form, no further
+	 *                   efforts are made to normalize it.
+	 * @throws N5IOException if the backend reports no creation time for the
+	 *                       tombstone
+	 */
+	public void deleteDeferred(final String normalPath) {
+
+		checkWritable();
+		flush();
+
+		final String key = removeLeadingSlash(GoogleCloudUtils.getGoogleCloudStorageKey(normalPath));
+		if (isRoot(key))
+			throw new N5Exception("Cannot defer deleting the root of " + containerURI.asURI());
+
+		if (!bucketExists())
+			return;
+
+		invalidateBlockIndices(key);
+		invalidateManifest();
+		tombstones().add(addTrailingSlash(key));
+		/* the markers predate the tombstone now */
+		markedBlockDirectories.removeIf(directoryKey -> directoryKey.startsWith(addTrailingSlash(key)));
+	}
+
+	/**
+	 * Delete the objects of all paths {@link #deleteDeferred deleted deferred}
+	 * in this container and remove their tombstones.
+	 *
+	 * @throws N5IOException if objects could not be deleted
+	 */
+	public void reclaim() throws N5IOException {
+
+		checkWritable();
+		tombstones().reclaimAll();
+	}
+
+	/**
+	 * {@link #reclaim()} on a background thread.
+	 *
+	 * @return completes when all tombstoned paths were reclaimed
+	 */
+	public CompletableFuture<Void> reclaimInBackground() {
+
+		checkWritable();
+		return CompletableFuture.runAsync(this::reclaim, runnable -> {
+			final Thread thread = new Thread(runnable, "n5-gcs-reclaimer");
+			thread.setDaemon(true);
+			thread.start();
+		});
+	}
+
+	/**
+	 * Reload the tombstones of this container, e.g. to see paths deleted
+	 * deferred by other writers.
+	 */
+	public void refreshTombstones() {
+
+		tombstones().load();
+	}
+
+	Storage getStorage() {
+
+		return storage;
+	}
+
+	/* flush and drop cached state before objects are changed without this instance */
+	void prepareBulkChange() {
+
+		checkWritable();
+		flush();
+		blockIndices.clear();
+		markedBlockDirectories.clear();
+		invalidateManifest();
+	}
+
+	private void checkWritable() {
+
+		if (snapshot != null)
+			throw new N5Exception("Snapshot of " + containerURI.asURI() + " is read-only");
+	}
+
+	private GoogleCloudBlockIndex blockIndexCovering(final String key) {
+
+		if (blockIndices.isEmpty())
+			return null;
+
+		for (final GoogleCloudBlockIndex index : blockIndices.values()) {
+			if (index.covers(key))
+				return index;
+		}
+		return null;
+	}
+
+	private void invalidateBlockIndices(final String key) {
+
+		if (!blockIndices.isEmpty())
+			blockIndices.keySet().removeIf(prefix -> key.startsWith(prefix) || prefix.startsWith(key));
+	}
+
+	/* add a written block to the indices covering it, drop those that cannot tell its size */
+	private void indexWritten(final String key, final ReadData data) {
+
+		if (blockIndices.isEmpty())
+			return;
+
+		final long size = data.length();
+		blockIndices.values().removeIf(index -> {
+			if (index.covers(key)) {
+				if (size < 0)
+					return true;
+				index.put(key, size);
+				return false;
+			}
+			/* anything else below the dataset is not a block */
+			return index.getPrefix().startsWith(key);
+		});
+	}
+
 	/**
 	 * Checks if a bucket with the given name exists.
 	 * <p>
 	 * First asks the storage client if the bucket exists. That may fail due to insufficient permissions.
 	 * In that case, attempt to list the root of that bucket which could succeed even if the previous check fails.
+	 * <p>
+	 * The result is cached for a limited time and shared with all instances using the same {@link Storage}.
 	 *
 	 * @return true if the bucket exists
 	 */
 	public boolean bucketExists() {
 
-		if (Objects.equal(bucketCheckedAndExists, true))
-			return bucketCheckedAndExists;
+		return BucketStateCache.exists(storage, bucketName, this::probeBucket);
+	}
+
+	private boolean probeBucket() {
 
 		try {
-			bucketCheckedAndExists = bucketExistsFromClient();
-			return bucketCheckedAndExists;
+			return bucketExistsFromClient();
 		} catch( Exception e ) { }
 
-		bucketCheckedAndExists = prefixExists("");
-		return bucketCheckedAndExists;
+		return prefixExists("");
 	}
 
 	private boolean bucketExistsFromClient() {
@@ -181,24 +840,53 @@ public class GoogleCloudStorageKeyValueAccess implements KeyValueAccess {
 		if (!bucketExists()) {
 			try {
 				storage.create(BucketInfo.of(bucketName));
-				bucketCheckedAndExists = true;
+				BucketStateCache.set(storage, bucketName, true);
+			} catch (StorageException e) {
+				if (e.getCode() != CONFLICT)
+					throw new N5IOException("Could not create bucket " + bucketName, e);
+				/* created concurrently */
+				BucketStateCache.set(storage, bucketName, true);
 			} catch (Exception e) {
 				throw new N5IOException("Could not create bucket " + bucketName, e);
 			}
 		}
 	}
 
+	/*
+	 * A bucket deleted by another process stays cached as existing for a
+	 * while, so createBucket() does not create it again and writes fail with
+	 * 404. Returns whether e is such a failure and the bucket was created
+	 * again, i.e. whether the write should be retried once.
+	 */
+	private boolean recreateMissingBucket(final Exception e) {
+
+		boolean notFound = false;
+		for (Throwable t = e; t != null && !notFound; t = t.getCause())
+			notFound = t instanceof StorageException && ((StorageException)t).getCode() == NOT_FOUND;
+		if (!notFound)
+			return false;
+
+		BucketStateCache.invalidate(storage, bucketName);
+		if (!createBucket || bucketExists())
+			return false;
+		createBucket();
+		return true;
+	}
+
 	private void deleteBucket() {
 
 		if (!createBucket)
 			throw new N5Exception("Delete Bucket Not Allowed");
 
-		// Not pointless, flag is Boolean, not boolean, and could be `null`
-		if (Objects.equal(bucketCheckedAndExists, false))
+		if (!bucketExists())
 			return;
 
-		storage.delete(bucketName);
-		bucketCheckedAndExists = false;
+		try {
+			storage.delete(bucketName);
+		} finally {
+			BucketStateCache.invalidate(storage, bucketName);
+		}
+		BucketStateCache.set(storage, bucketName, false);
 	}
 
 	@Override
@@ -276,13 +964,97 @@ public class GoogleCloudStorageKeyValueAccess implements KeyValueAccess {
 	@Override
 	public boolean exists(final String normalPath) {
 
+		final String key = removeLeadingSlash(GoogleCloudUtils.getGoogleCloudStorageKey(normalPath));
+		if (snapshot != null || tombstones().covers(key))
+			return isFile(normalPath) || isDirectory(normalPath);
+
+		/* block keys of an indexed dataset are leaves, no need to check for a directory */
+		final GoogleCloudBlockIndex index = blockIndexCovering(key);
+		if (index != null)
+			return isFile(normalPath);
+
+		if (manifest == null && writeBehind == null && !isRoot(key) && !keyLayout().isHashed()) {
+			final Boolean exists = existsFromListing(key.endsWith("/") ? key.substring(0, key.length() - 1) : key);
+			if (exists != null)
+				return exists;
+		}
+
 		return isFile(normalPath) || isDirectory(normalPath);
 	}
 
+	/**
+	 * Determine whether {@code key} exists as a file or directory from a
+	 * single listing of the names starting with {@code key}.
+	 * <p>
+	 * Names are listed in lexicographic order, so {@code key} itself comes
+	 * first, followed by siblings like {@code key.json} or {@code key-1} that
+	 * sort before {@code key/}, followed by the children of {@code key/}. If
+	 * the first page holds only siblings, the result is undetermined.
+	 *
+	 * @param key the key without trailing slash
+	 * @return whether {@code key} or {@code key/} exist, or null if that
+	 * could not be decided from the first page or listing is not permitted
+	 */
+	private Boolean existsFromListing(final String key) {
+
+		final Page<Blob> page;
+		try {
+			page = storage.list(
+					bucketName,
+					BlobListOption.prefix(key),
+					BlobListOption.pageSize(CLASSIFY_PAGE_SIZE),
+					BlobListOption.fields(BlobField.NAME));
+		} catch (final StorageException e) {
+			if (e.getCode() == NOT_FOUND)
+				return false;
+			/* e.g. only storage.objects.get was granted, fall back to per-object checks */
+			if (e.getCode() == FORBIDDEN)
+				return null;
+			throw e;
+		}
+
+		final String directoryKey = key + "/";
+		for (final Blob blob : page.getValues()) {
+			final String name = blob.getName();
+			if (name.equals(key) || name.startsWith(directoryKey))
+				return true;
+			/* past the range of names that sort before "key/" */
+			if (name.length() > key.length() && name.charAt(key.length()) > '/')
+				return false;
+		}
+		return page.hasNextPage() ? null : false;
+	}
+
 	@Override
 	public long size(final String normalPath) {
 
-		final Blob blob = storage.get(BlobId.of(bucketName, normalPath), Storage.BlobGetOption.fields(BlobField.SIZE));
+		final String logicalKey = removeLeadingSlash(GoogleCloudUtils.getGoogleCloudStorageKey(normalPath));
+		if (isTombstoned(logicalKey))
+			throw new N5Exception.N5NoSuchKeyException("No such key. bucket: " + bucketName + ". key: " + logicalKey);
+		final String key = objectKey(logicalKey);
+		if (snapshot != null)
+			return snapshot.size(key);
+
+		final byte[] pending = pendingWrite(key);
+		if (pending != null)
+			return pending.length;
+
+		final GcsContainerManifest manifest = this.manifest;
+		if (manifest != null && manifest.coversFile(key)) {
+			final long size = manifest.size(key);
+			if (size < 0)
+				throw new N5Exception.N5NoSuchKeyException("No such key. bucket: " + bucketName + ". key: " + key);
+			return size;
+		}
+
+		final GoogleCloudBlockIndex index = blockIndexCovering(key);
+		if (index != null) {
+			final long size = index.sizeOfKey(key);
+			if (size >= 0)
+				return size;
+		}
+
+		final Blob blob = storage.get(BlobId.of(bucketName, key), Storage.BlobGetOption.fields(BlobField.SIZE));
 		return blob.getSize();
 	}
 
@@ -309,6 +1081,12 @@ public class GoogleCloudStorageKeyValueAccess implements KeyValueAccess {
 		return path.endsWith("/") ? path : path + "/";
 	}
 
+	/* the key prefix of everything below key, empty for the bucket root */
+	private static String prefix(final String key) {
+
+		return key.isEmpty() ? key : addTrailingSlash(key);
+	}
+
 	private static String removeLeadingSlash(final String path) {
 
 		return path.startsWith("/") ? path.substring(1) : path;
@@ -333,6 +1111,16 @@ public class GoogleCloudStorageKeyValueAccess implements KeyValueAccess {
 	public boolean isDirectory(final String normalPath) {
 
 		final String pathKey = removeLeadingSlash(addTrailingSlash(GoogleCloudUtils.getGoogleCloudStorageKey(normalPath)));
+		if (isTombstoned(pathKey))
+			return false;
+		if (snapshot != null)
+			return isRoot(pathKey) || snapshot.isDirectory(pathKey);
+
+		/* the manifest holds the directory tree, without blocks down to the arrays */
+		final GcsContainerManifest manifest = this.manifest;
+		if (manifest != null && manifest.coversDirectory(pathKey))
+			return manifest.isDirectory(pathKey);
+
 		// The root existing is equivalent to checking if the bucket exists.
 		if (isRoot(pathKey))
 			return bucketExists();
@@ -347,6 +1135,7 @@ public class GoogleCloudStorageKeyValueAccess implements KeyValueAccess {
 				return blob.getSize() == 0;
 		} catch (final Exception ignore) {}
 
+		/* directories of objects under hashed keys have markers, see markBlockDirectory */
 		return false;
 	}
 
@@ -364,13 +1153,58 @@ public class GoogleCloudStorageKeyValueAccess implements KeyValueAccess {
 	public boolean isFile(final String normalPath) {
 
 		final String key = GoogleCloudUtils.getGoogleCloudStorageKey(normalPath);
-		return !key.endsWith("/") && keyExists(removeLeadingSlash(key));
+		if (key.endsWith("/"))
+			return false;
+
+		final String logicalKey = removeLeadingSlash(key);
+		if (isTombstoned(logicalKey))
+			return false;
+		final String normalKey = objectKey(logicalKey);
+		if (snapshot != null)
+			return snapshot.isFile(normalKey);
+
+		if (pendingWrite(normalKey) != null)
+			return true;
+
+		final GcsContainerManifest manifest = this.manifest;
+		if (manifest != null && manifest.coversFile(normalKey))
+			return manifest.isFile(normalKey);
+
+		final GoogleCloudBlockIndex index = blockIndexCovering(normalKey);
+		if (index != null)
+			return index.containsKey(normalKey);
+
+		return keyExists(normalKey);
 	}
 	@Override
 	public VolatileReadData createReadData(String normalPath) {
 
 		final String key = GoogleCloudUtils.getGoogleCloudStorageKey(normalPath);
-		String normalKey = removeLeadingSlash(key);
+		final String logicalKey = removeLeadingSlash(key);
+		if (isTombstoned(logicalKey))
+			return VolatileReadData.from(new MissingKeyLazyRead(bucketName, logicalKey));
+		final String normalKey = objectKey(logicalKey);
+		if (snapshot != null)
+			return snapshot.read(normalKey);
+
+		final byte[] pending = pendingWrite(normalKey);
+		if (pending != null)
+			return VolatileReadData.from(new ByteArrayLazyRead(pending));
+
+		final GcsContainerManifest manifest = this.manifest;
+		if (manifest != null && manifest.coversFile(normalKey)) {
+			final byte[] metadata = manifest.metadata(normalKey);
+			if (metadata != null)
+				return VolatileReadData.from(new ByteArrayLazyRead(metadata));
+			if (!manifest.isFile(normalKey))
+				return VolatileReadData.from(new MissingKeyLazyRead(bucketName, normalKey));
+		}
+
+		/* avoid the 404 round trip for blocks known to be absent */
+		final GoogleCloudBlockIndex index = blockIndexCovering(normalKey);
+		if (index != null && !index.containsKey(normalKey))
+			return VolatileReadData.from(new MissingKeyLazyRead(bucketName, normalKey));
+
 		try {
 			return ioPolicy.read(normalKey);
 		} catch (IOException e) {
@@ -378,16 +1212,388 @@ public class GoogleCloudStorageKeyValueAccess implements KeyValueAccess {
 		}
 	}
 
+	/**
+	 * Create {@link ReadData} whose {@link ReadData#inputStream() input stream}
+	 * reads directly from the backend, so decoding can start with the first
+	 * bytes instead of after the whole object was downloaded. Interrupted
+	 * transfers are resumed at the current position of the same generation.
+	 *
+	 * @param normalPath is expected to be in normalized form, no further
+	 *                   efforts are made to normalize it.
+	 * @return the streaming read data
+	 * @see GcsResumableInputStream
+	 */
+	public ReadData createStreamingReadData(final String normalPath) {
+
+		final ReadData readData = readWithoutDownload(normalPath);
+		if (readData != null)
+			return readData;
+
+		return ReadData.from(new GcsResumableInputStream(storage, bucketName, streamingReadKey(normalPath)));
+	}
+
+	private String streamingReadKey(final String normalPath) {
+
+		return objectKey(removeLeadingSlash(GoogleCloudUtils.getGoogleCloudStorageKey(normalPath)));
+	}
+
+	/*
+	 * the data of a streaming read that is not downloaded from the live
+	 * object, i.e. pending writes and snapshot reads, or null
+	 */
+	private ReadData readWithoutDownload(final String normalPath) {
+
+		final String logicalKey = removeLeadingSlash(GoogleCloudUtils.getGoogleCloudStorageKey(normalPath));
+		if (isTombstoned(logicalKey))
+			throw new N5Exception.N5NoSuchKeyException("No such key. bucket: " + bucketName + ". key: " + logicalKey);
+		final String normalKey = objectKey(logicalKey);
+		final byte[] pending = pendingWrite(normalKey);
+		if (pending != null)
+			return ReadData.from(pending);
+		if (snapshot != null)
+			return snapshot.read(normalKey);
+		return null;
+	}
+
+	/**
+	 * Create a {@link GcsReadQueue} for reads from this container, served in
+	 * priority order and cancellable. Requests take normalized paths and see
+	 * the same data as {@link #createStreamingReadData}: tombstoned paths are
+	 * missing, and pending writes and the snapshot are served without a
+	 * download.
+	 *
+	 * @param parallelism the number of concurrent downloads
+	 * @return the read queue, to be closed by the caller
+	 */
+	public GcsReadQueue createReadQueue(final int parallelism) {
+
+		return new GcsReadQueue(storage, bucketName, parallelism, this::streamingReadKey, this::readWithoutDownload);
+	}
+
+	/**
+	 * Publish the content of {@code normalPaths} with demand-driven
+	 * backpressure and bounded concurrency. Missing keys are published as
+	 * items without data.
+	 *
+	 * @param normalPaths    the paths to read, consumed once
+	 * @param maxConcurrency the maximum number of concurrent reads
+	 * @param ordered        publish in the order of {@code normalPaths} rather
+	 *                       than as reads complete
+	 * @return the publisher, accepting a single subscriber
+	 * @see GcsReadPublisher
+	 */
+	public GcsReadPublisher publish(final Stream<String> normalPaths, final int maxConcurrency, final boolean ordered) {
+
+		return new GcsReadPublisher(normalPaths.iterator(), normalPath -> {
+			try (VolatileReadData readData = createReadData(normalPath)) {
+				return ReadData.from(readData.allBytes());
+			}
+		}, maxConcurrency, ordered);
+	}
+
 	@Override
 	public void write(final String normalPath, final ReadData data) throws N5IOException {
 
 		final String key = GoogleCloudUtils.getGoogleCloudStorageKey(normalPath);
-		String normalKey = removeLeadingSlash(key);
+		final String logicalKey = removeLeadingSlash(key);
+		checkWritable();
+		final String normalKey = objectKey(logicalKey);
+		invalidateManifest();
+		markBlockDirectory(logicalKey);
+		final GcsWriteBehind writeBehind = this.writeBehind;
+		if (writeBehind != null) {
+			writeBehind.write(normalKey, data);
+			indexWritten(normalKey, data);
+			return;
+		}
 		try {
-			ioPolicy.write(normalKey, data);
+			try {
+				ioPolicy.write(normalKey, data);
+			} catch (IOException | StorageException e) {
+				if (!recreateMissingBucket(e))
+					throw e;
+				ioPolicy.write(normalKey, data);
+			}
 		} catch (IOException e) {
 			throw new N5IOException(e);
 		}
+		indexWritten(normalKey, data);
+	}
+
+	/**
+	 * Write a batch of objects concurrently.
+	 *
+	 * @param data maps normalized paths to their content
+	 * @return the per-path outcome
+	 * @see #writeAll(Map, int)
+	 */
+	public GcsBatchWriteResult writeAll(final Map<String, ReadData> data) {
+
+		return writeAll(data, DEFAULT_BATCH_PARALLELISM);
+	}
+
+	/**
+	 * Write a batch of objects concurrently.
+	 * <p>
+	 * The common parent directory of the batch, e.g. the dataset of a batch of
+	 * blocks, is created once as {@link #createDirectories(String)} would,
+	 * directories below it (block rows) get no markers, as with
+	 * {@link #write(String, ReadData)}. Then the objects are uploaded with up
+	 * to {@code parallelism} concurrent writes. A failed write does not stop
+	 * the others. If a directory marker cannot be created, no objects are
+	 * written.
+	 *
+	 * @param data        maps normalized paths to their content
+	 * @param parallelism the number of concurrent uploads
+	 * @return the per-path outcome, see {@link GcsBatchWriteResult#throwOnFailure()}
+	 */
+	public GcsBatchWriteResult writeAll(final Map<String, ReadData> data, final int parallelism) {
+
+		checkWritable();
+		if (createBucket)
+			createBucket();
+
+		/* the longest directory prefix shared by all keys */
+		String parentKey = null;
+		for (final String normalPath : data.keySet()) {
+			final String key = removeLeadingSlash(GoogleCloudUtils.getGoogleCloudStorageKey(normalPath));
+			final String directoryKey = key.substring(0, key.lastIndexOf('/') + 1);
+			if (parentKey == null)
+				parentKey = directoryKey;
+			else {
+				int common = 0;
+				while (common < Math.min(parentKey.length(), directoryKey.length()) && parentKey.charAt(common) == directoryKey.charAt(common))
+					++common;
+				parentKey = parentKey.substring(0, parentKey.lastIndexOf('/', common - 1) + 1);
+			}
+		}
+		final Set<String> directoryKeys = new TreeSet<>();
+		if (parentKey != null) {
+			for (int slash = parentKey.indexOf('/'); slash >= 0; slash = parentKey.indexOf('/', slash + 1))
+				directoryKeys.add(parentKey.substring(0, slash + 1));
+		}
+
+		final Set<String> written = ConcurrentHashMap.newKeySet();
+		final Map<String, Exception> failures = new ConcurrentHashMap<>();
+		final ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(parallelism, data.size())));
+		try {
+			if (!directoryKeys.isEmpty())
+				invalidateManifest();
+			final Map<String, Future<?>> markers = new LinkedHashMap<>();
+			for (final String directoryKey : directoryKeys)
+				markers.put(directoryKey, executor.submit(() -> createMarker(directoryKey)));
+			for (final Map.Entry<String, Future<?>> marker : markers.entrySet()) {
+				try {
+					marker.getValue().get();
+				} catch (final ExecutionException e) {
+					failures.put(marker.getKey(), new N5IOException("Could not create directory marker", e.getCause()));
+				}
+			}
+			if (!failures.isEmpty())
+				return new GcsBatchWriteResult(written, failures);
+
+			final List<Future<?>> uploads = new ArrayList<>();
+			for (final Map.Entry<String, ReadData> entry : data.entrySet()) {
+				uploads.add(executor.submit(() -> {
+					try {
+						write(entry.getKey(), entry.getValue());
+						written.add(entry.getKey());
+					} catch (final Exception e) {
+						failures.put(entry.getKey(), e);
+					}
+				}));
+			}
+			for (final Future<?> upload : uploads)
+				upload.get();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new N5IOException("Interrupted while writing batch", e);
+		} catch (final ExecutionException e) {
+			throw new N5IOException("Error writing batch", e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+		return new GcsBatchWriteResult(written, failures);
+	}
+
+	/**
+	 * Atomically update the object at {@code normalPath}.
+	 * <p>
+	 * The new content is written only if the object was not modified since it
+	 * was read, otherwise the read-modify-write cycle is retried with backoff.
+	 * This lets concurrent writers update shared attributes or shards without
+	 * external locking.
+	 *
+	 * @param normalPath is expected to be in normalized form, no further
+	 *                   efforts are made to normalize it.
+	 * @param update     maps the current content ({@code null} if there is none)
+	 *                   to the new content, or to {@code null} to leave it unchanged.
+	 *                   May be called more than once.
+	 * @throws N5Exception.N5ConcurrentModificationException if the update did not
+	 *                                                       succeed after repeated attempts
+	 * @see GcsConditionalWrite#readModifyWrite(Storage, String, String, UnaryOperator)
+	 */
+	public void readModifyWrite(final String normalPath, final UnaryOperator<ReadData> update) throws N5IOException {
+
+		final String logicalKey = removeLeadingSlash(GoogleCloudUtils.getGoogleCloudStorageKey(normalPath));
+		checkWritable();
+		flush();
+		deleteTombstoned(logicalKey);
+		final String normalKey = objectKey(logicalKey);
+		invalidateBlockIndices(normalKey);
+		invalidateManifest();
+		markBlockDirectory(logicalKey);
+		GcsConditionalWrite.readModifyWrite(storage, bucketName, normalKey, update);
+	}
+
+	/**
+	 * Update a shard in place: keep its first {@code keepLength} bytes and
+	 * replace the rest with {@code tail}.
+	 * <p>
+	 * Appending to an unchanged prefix (e.g. a new block followed by a new
+	 * shard index) uploads only {@code tail} and is composed server-side.
+	 *
+	 * @param normalPath is expected to be in normalized form, no further
+	 *                   efforts are made to normalize it.
+	 * @param keepLength the number of leading bytes to keep
+	 * @param tail       the new tail
+	 * @throws N5IOException if the update failed
+	 * @see GcsShardUpdate
+	 */
+	public void updateShard(final String normalPath, final long keepLength, final ReadData tail) throws N5IOException {
+
+		final String logicalKey = removeLeadingSlash(GoogleCloudUtils.getGoogleCloudStorageKey(normalPath));
+		checkWritable();
+		flush();
+		deleteTombstoned(logicalKey);
+		final String normalKey = objectKey(logicalKey);
+		invalidateBlockIndices(normalKey);
+		invalidateManifest();
+		markBlockDirectory(logicalKey);
+		try {
+			GcsShardUpdate.update(storage, bucketName, normalKey, keepLength, tail);
+		} catch (IOException e) {
+			throw new N5IOException("Error updating " + normalPath, e);
+		}
+	}
+
+	/**
+	 * Copy the file or directory at {@code normalSourcePath} to
+	 * {@code normalTargetPath} in the container of {@code target} using
+	 * server-side rewrites. No object bytes pass through this client.
+	 *
+	 * @param normalSourcePath the source path in this container
+	 * @param target           the target container, may be this instance
+	 * @param normalTargetPath the target path in the target container
+	 * @param copy             the copy configuration (parallelism, progress)
+	 * @throws N5IOException if the source does not exist or any object could not be copied
+	 * @throws IllegalArgumentException if the target is the source or lies below it
+	 */
+	public void copy(
+			final String normalSourcePath,
+			final GoogleCloudStorageKeyValueAccess target,
+			final String normalTargetPath,
+			final GcsCopy copy) throws N5IOException {
+
+		copyOrMove(normalSourcePath, target, normalTargetPath, copy, false);
+	}
+
+	/**
+	 * Copy the file or directory at {@code normalSourcePath} to
+	 * {@code normalTargetPath} within this container.
+	 *
+	 * @param normalSourcePath the source path
+	 * @param normalTargetPath the target path
+	 * @throws N5IOException if the source does not exist or any object could not be copied
+	 * @see #copy(String, GoogleCloudStorageKeyValueAccess, String, GcsCopy)
+	 */
+	public void copy(final String normalSourcePath, final String normalTargetPath) throws N5IOException {
+
+		copy(normalSourcePath, this, normalTargetPath, new GcsCopy(storage));
+	}
+
+	/**
+	 * Move the file or directory at {@code normalSourcePath} to
+	 * {@code normalTargetPath} in the container of {@code target}. Each source
+	 * object is deleted after it was copied server-side.
+	 *
+	 * @param normalSourcePath the source path in this container
+	 * @param target           the target container, may be this instance
+	 * @param normalTargetPath the target path in the target container
+	 * @param copy             the copy configuration (parallelism, progress)
+	 * @throws N5IOException if the source does not exist or any object could not be moved
+	 * @throws IllegalArgumentException if the target is the source or lies below it
+	 */
+	public void move(
+			final String normalSourcePath,
+			final GoogleCloudStorageKeyValueAccess target,
+			final String normalTargetPath,
+			final GcsCopy copy) throws N5IOException {
+
+		copyOrMove(normalSourcePath, target, normalTargetPath, copy, true);
+	}
+
+	/**
+	 * Move the file or directory at {@code normalSourcePath} to
+	 * {@code normalTargetPath} within this container.
+	 *
+	 * @param normalSourcePath the source path
+	 * @param normalTargetPath the target path
+	 * @throws N5IOException if the source does not exist or any object could not be moved
+	 * @see #move(String, GoogleCloudStorageKeyValueAccess, String, GcsCopy)
+	 */
+	public void move(final String normalSourcePath, final String normalTargetPath) throws N5IOException {
+
+		move(normalSourcePath, this, normalTargetPath, new GcsCopy(storage));
+	}
+
+	private void copyOrMove(
+			final String normalSourcePath,
+			final GoogleCloudStorageKeyValueAccess target,
+			final String normalTargetPath,
+			final GcsCopy copy,
+			final boolean move) {
+
+		final String sourceKey = removeLeadingSlash(GoogleCloudUtils.getGoogleCloudStorageKey(normalSourcePath));
+		final String targetKey = removeLeadingSlash(GoogleCloudUtils.getGoogleCloudStorageKey(normalTargetPath));
+		/* the listing of the source would pick up the copies, and a file would replace itself */
+		if (target.bucketName.equals(bucketName) && prefix(targetKey).startsWith(prefix(sourceKey)))
+			throw new IllegalArgumentException("Cannot " + (move ? "move " : "copy ") + normalSourcePath + " into itself: " + normalTargetPath);
+		target.checkWritable();
+		if (move)
+			checkWritable();
+		flush();
+		if (target != this)
+			target.flush();
+		target.invalidateBlockIndices(targetKey);
+		target.invalidateManifest();
+		if (move) {
+			invalidateBlockIndices(sourceKey);
+			invalidateManifest();
+		}
+
+		if (target.createBucket)
+			target.createBucket();
+
+		if (isFile(normalSourcePath)) {
+			target.markBlockDirectory(targetKey);
+			copy.copyObject(bucketName, objectKey(sourceKey), target.bucketName, target.objectKey(targetKey), move);
+		} else if (isDirectory(normalSourcePath)) {
+			final String sourcePrefix = addTrailingSlash(sourceKey);
+			final String targetPrefix = addTrailingSlash(targetKey);
+			if (!keyLayout().isHashed() && !target.keyLayout().isHashed())
+				copy.copyPrefix(bucketName, sourcePrefix, target.bucketName, targetPrefix, move);
+			else {
+				/* object keys depend on the logical key, copy object by object */
+				fanOut(listObjectKeys(sourcePrefix), objectKey -> {
+					final String relative = logicalKey(objectKey).substring(sourcePrefix.length());
+					target.markBlockDirectory(targetPrefix + relative);
+					copy.copyObject(bucketName, objectKey, target.bucketName, target.objectKey(targetPrefix + relative), move);
+					return null;
+				});
+			}
+		} else
+			throw new N5Exception.N5NoSuchKeyException("No such key. bucket: " + bucketName + ". key: " + sourceKey);
 	}
 
 	/**
@@ -410,16 +1616,45 @@ public class GoogleCloudStorageKeyValueAccess implements KeyValueAccess {
 		final String pathKey = GoogleCloudUtils.getGoogleCloudStorageKey(normalPath);
 		final List<String> subGroups = new ArrayList<>();
 		final String prefix = removeLeadingSlash(addTrailingSlash(pathKey));
+		if (isTombstoned(prefix))
+			throw new N5IOException(normalPath + " is not a valid group");
+		if (snapshot != null) {
+			if (!isRoot(prefix) && !snapshot.isDirectory(prefix))
+				throw new N5IOException(normalPath + " is not a valid group");
+			for (final String child : snapshot.children(prefix)) {
+				if (isHidden(prefix + child))
+					continue;
+				if (!onlyDirectories || child.endsWith("/")) {
+					final String relativePath = normalize(child);
+					if (!relativePath.isEmpty())
+						subGroups.add(relativePath);
+				}
+			}
+			return subGroups.toArray(new String[0]);
+		}
+		final GcsContainerManifest manifest = this.manifest;
+		if (manifest != null && manifest.coversChildren(prefix, onlyDirectories)) {
+			if (!manifest.isDirectory(prefix))
+				throw new N5IOException(normalPath + " is not a valid group");
+			for (final String child : manifest.children(prefix, onlyDirectories)) {
+				if (isHidden(prefix + child))
+					continue;
+				final String relativePath = normalize(child);
+				if (!relativePath.isEmpty())
+					subGroups.add(relativePath);
+			}
+			return subGroups.toArray(new String[0]);
+		}
 		final Page<Blob> blobListing = storage.list(
 				bucketName,
 				BlobListOption.prefix(prefix),
 				BlobListOption.currentDirectory(),
-				BlobListOption.fields(BlobField.ID));
+				BlobListOption.fields(BlobField.ID, BlobField.TIME_CREATED, BlobField.UPDATED));
 		int numBlobs = 0;
 		for (final Iterator<Blob> blobIterator = blobListing.iterateAll().iterator(); blobIterator.hasNext(); numBlobs++) {
 			final Blob nextBlob = blobIterator.next();
 			final String blobName = nextBlob.getBlobId().getName();
-			if (prefix.equals(blobName))
+			if (prefix.equals(blobName) || isInternal(blobName) || isTombstoned(blobName, nextBlob))
 				continue;
 			if (!onlyDirectories || blobName.endsWith("/")) {
 				final String relativePath = normalize(relativize(blobName, prefix));
@@ -427,6 +1662,22 @@ public class GoogleCloudStorageKeyValueAccess implements KeyValueAccess {
 					subGroups.add(relativePath);
 			}
 		}
+		if (isBlockDirectory(prefix)) {
+			final Set<String> children = new LinkedHashSet<>(subGroups);
+			final boolean tombstoned = tombstones().covers(prefix);
+			for (final String child : listHashedChildren(prefix)) {
+				numBlobs++;
+				if (tombstoned && isTombstoned(prefix + child))
+					continue;
+				if (!onlyDirectories || child.endsWith("/")) {
+					final String relativePath = normalize(child);
+					if (!relativePath.isEmpty())
+						children.add(relativePath);
+				}
+			}
+			subGroups.clear();
+			subGroups.addAll(children);
+		}
 		if (numBlobs > 0)
 			return subGroups.toArray(new String[0]);
 
@@ -449,10 +1700,14 @@ public class GoogleCloudStorageKeyValueAccess implements KeyValueAccess {
 	@Override
 	public void createDirectories(final String normalPath) {
 
+		checkWritable();
+
 		/* If the bucket doesn't exist, and we should create it, then do so here. */
 		if (createBucket)
 			createBucket();
 
+		invalidateManifest();
+
 		String path = "";
 		for (final String component : components(removeLeadingSlash(normalPath))) {
 			final String composed = addTrailingSlash(compose(path, component));
@@ -460,19 +1715,52 @@ public class GoogleCloudStorageKeyValueAccess implements KeyValueAccess {
 				continue;
 
 			path = composed;
+			createMarker(path);
+		}
+	}
 
-			final BlobInfo blobInfo = BlobInfo.newBuilder(bucketName, path).build();
+	private void createMarker(final String directoryKey) {
+
+		final BlobInfo blobInfo = BlobInfo.newBuilder(bucketName, directoryKey).build();
+		try {
+			storage.create(blobInfo);
+		} catch (final StorageException e) {
+			if (!recreateMissingBucket(e))
+				throw e;
 			storage.create(blobInfo);
 		}
 	}
 
+	/* create a marker unless it exists, other writers may have created it concurrently */
+	private void createMarkerIfAbsent(final String directoryKey) {
+
+		final BlobInfo blobInfo = BlobInfo.newBuilder(bucketName, directoryKey).build();
+		try {
+			try {
+				storage.create(blobInfo, Storage.BlobTargetOption.doesNotExist());
+			} catch (final StorageException e) {
+				if (!recreateMissingBucket(e))
+					throw e;
+				storage.create(blobInfo, Storage.BlobTargetOption.doesNotExist());
+			}
+		} catch (final StorageException e) {
+			if (e.getCode() != GcsIoPolicy.PRECONDITION_FAILED)
+				throw e;
+		}
+	}
+
 	@Override
 	public void delete(final String normalPath) {
 
+		checkWritable();
+		flush();
+
 		if (!bucketExists())
 			return;
 
 		final String key = removeLeadingSlash(GoogleCloudUtils.getGoogleCloudStorageKey(normalPath));
+		invalidateBlockIndices(key);
+		invalidateManifest();
 
         try {
             ioPolicy.delete(key);
@@ -480,6 +1768,31 @@ public class GoogleCloudStorageKeyValueAccess implements KeyValueAccess {
             throw new N5IOException("Error deleting " + normalPath, e);
         }
 
+		final String directoryKey = isRoot(key) ? "" : addTrailingSlash(key);
+		if (directoryKey.length() > containerPrefix().length() && keyLayout().isHashed()) {
+			/* objects stored under hashed keys, see GcsKeyLayout */
+			final String objectKey = objectKey(key);
+			if (!objectKey.equals(key))
+				storage.delete(BlobId.of(bucketName, objectKey));
+			if (holdsBlockDirectories(directoryKey)) {
+				final List<String> objectPrefixes = new ArrayList<>(keyLayout().objectPrefixes(containerPrefix(), directoryKey));
+				objectPrefixes.add(keyLayout().blockDirectoryKey(containerPrefix(), directoryKey));
+				fanOut(objectPrefixes, objectPrefix -> {
+					try {
+						ioPolicy.delete(objectPrefix);
+					} catch (final IOException e) {
+						throw new N5IOException("Error deleting " + normalPath, e);
+					}
+					return null;
+				});
+			}
+		} else if (directoryKey.length() <= containerPrefix().length())
+			keyLayout = null;
+		markedBlockDirectories.removeIf(marked -> marked.startsWith(directoryKey));
+
+		/* tombstones below the deleted path are obsolete */
+		tombstones().forget(directoryKey);
+
         /* remove bucket when deleting the root "/"
 		 * this needs to happen at the end because a bucket must be empty before it is deleted
 		 *
@@ -0,0 +1,37 @@
+package org.janelia.saalfeldlab.n5.googlecloud;
+
+import org.janelia.saalfeldlab.n5.N5Exception;
+import org.janelia.saalfeldlab.n5.readdata.LazyRead;
+import org.janelia.saalfeldlab.n5.readdata.ReadData;
+
+/**
+ * A {@link LazyRead} of a key that is known not to exist, without asking the backend.
+ */
+class MissingKeyLazyRead implements LazyRead {
+
+	private final String bucketName;
+	private final String normalKey;
+
+	MissingKeyLazyRead(final String bucketName, final String normalKey) {
+
+		this.bucketName = bucketName;
+		this.normalKey = normalKey;
+	}
+
+	@Override
+	public long size() {
+
+		throw new N5Exception.N5NoSuchKeyException("No such key. bucket: " + bucketName + ". key: " + normalKey);
+	}
+
+	@Override
+	public ReadData materialize(final long offset, final long length) {
+
+		throw new N5Exception.N5NoSuchKeyException("No such key. bucket: " + bucketName + ". key: " + normalKey);
+	}
+
+	@Override
+	public void close() {
+
+	}
+}
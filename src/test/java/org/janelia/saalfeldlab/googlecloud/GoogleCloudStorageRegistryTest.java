@@ -0,0 +1,75 @@
+package org.janelia.saalfeldlab.googlecloud;
+
+import com.google.cloud.NoCredentials;
+import com.google.cloud.storage.Storage;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThrows;
+
+public class GoogleCloudStorageRegistryTest {
+
+	@Test
+	public void testSharedClients() {
+
+		final GoogleCloudStorageClientOptions options = new GoogleCloudStorageClientOptions().setHost("http://localhost:9000");
+		final int size = GoogleCloudStorageRegistry.size();
+
+		try (GoogleCloudStorageRegistry.Lease a = GoogleCloudStorageRegistry.acquire("project-a", NoCredentials.getInstance(), options);
+			 GoogleCloudStorageRegistry.Lease b = GoogleCloudStorageRegistry.acquire("project-a", NoCredentials.getInstance(), options);
+			 GoogleCloudStorageRegistry.Lease c = GoogleCloudStorageRegistry.acquire("project-c", NoCredentials.getInstance(), options)) {
+
+			assertSame(a.getStorage(), b.getStorage());
+			assertNotSame(a.getStorage(), c.getStorage());
+			assertEquals(size + 2, GoogleCloudStorageRegistry.size());
+
+			b.close();
+			assertThrows(IllegalStateException.class, b::getStorage);
+			assertEquals(size + 2, GoogleCloudStorageRegistry.size());
+		}
+		assertEquals(size, GoogleCloudStorageRegistry.size());
+	}
+
+	@Test
+	public void testTransportsAreNotShared() {
+
+		/* equal settings, but each profile has its own transport */
+		final GoogleCloudStorageClientOptions a = new GoogleCloudStorageClientOptions()
+				.setHost("http://localhost:9000")
+				.setHttpTuning(GoogleCloudHttpTuning.forParallelism(8));
+		final GoogleCloudStorageClientOptions b = new GoogleCloudStorageClientOptions()
+				.setHost("http://localhost:9000")
+				.setHttpTuning(GoogleCloudHttpTuning.forParallelism(8));
+
+		try (GoogleCloudStorageRegistry.Lease a1 = GoogleCloudStorageRegistry.acquire("project-a", NoCredentials.getInstance(), a);
+			 GoogleCloudStorageRegistry.Lease a2 = GoogleCloudStorageRegistry.acquire("project-a", NoCredentials.getInstance(), a);
+			 GoogleCloudStorageRegistry.Lease b1 = GoogleCloudStorageRegistry.acquire("project-a", NoCredentials.getInstance(), b)) {
+
+			assertSame(a1.getStorage(), a2.getStorage());
+			assertNotSame(a1.getStorage(), b1.getStorage());
+		}
+	}
+
+	@Test
+	public void testCreatedClientsAreShared() throws Exception {
+
+		final GoogleCloudStorageClientOptions options = new GoogleCloudStorageClientOptions().setHost("http://localhost:9000");
+		final int size = GoogleCloudStorageRegistry.size();
+
+		final Storage a = GoogleCloudUtils.createGoogleCloudStorage("project-s", options, b -> b.setCredentials(NoCredentials.getInstance()));
+		final Storage b = GoogleCloudUtils.createGoogleCloudStorage("project-s", options, c -> c.setCredentials(NoCredentials.getInstance()));
+		assertEquals(size + 1, GoogleCloudStorageRegistry.size());
+
+		/* closing releases the reference, the client stays open for the other */
+		a.close();
+		a.close();
+		assertEquals(size + 1, GoogleCloudStorageRegistry.size());
+		assertEquals("project-s", b.getOptions().getProjectId());
+		assertThrows(IllegalStateException.class, a::getOptions);
+
+		b.close();
+		assertEquals(size, GoogleCloudStorageRegistry.size());
+	}
+}
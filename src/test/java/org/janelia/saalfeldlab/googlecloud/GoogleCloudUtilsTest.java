@@ -1,5 +1,9 @@
 package org.janelia.saalfeldlab.googlecloud;
 
+import com.google.cloud.NoCredentials;
+import com.google.cloud.storage.GrpcStorageOptions;
+import com.google.cloud.storage.HttpStorageOptions;
+import com.google.cloud.storage.StorageOptions;
 import org.junit.Test;
 
 import java.net.URISyntaxException;
@@ -8,6 +12,7 @@ import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
 
 public class GoogleCloudUtilsTest {
 
@@ -84,4 +89,26 @@ public class GoogleCloudUtilsTest {
 		assertThrows("Invalid URI should throw exception", Throwable.class, () -> new GoogleCloudStorageURI(("invalid uri \\ _ ~ 435:  q2234[;5.")));
 		assertThrows("Invalid URI should throw exception", Throwable.class, () -> GoogleCloudUtils.getGoogleCloudStorageKey("invalid uri \\ _ ~ 435:  q2234[;5."));
 	}
-}
\ No newline at end of file
+
+	@Test
+	public void transportOptionsTest() {
+
+		final StorageOptions http = GoogleCloudUtils.createGoogleCloudStorageOptions(
+				"test-project",
+				new GoogleCloudStorageClientOptions().setHost("http://localhost:9000"),
+				b -> b.setCredentials(NoCredentials.getInstance()));
+		assertTrue(http instanceof HttpStorageOptions);
+		assertEquals("http://localhost:9000", http.getHost());
+		assertEquals("test-project", http.getProjectId());
+
+		final StorageOptions grpc = GoogleCloudUtils.createGoogleCloudStorageOptions(
+				"test-project",
+				new GoogleCloudStorageClientOptions()
+						.setTransport(GoogleCloudStorageClientOptions.Transport.GRPC)
+						.setAttemptDirectPath(false)
+						.setHost("http://localhost:9001"),
+				b -> b.setCredentials(NoCredentials.getInstance()));
+		assertTrue(grpc instanceof GrpcStorageOptions);
+		assertEquals("http://localhost:9001", grpc.getHost());
+	}
+}
@@ -0,0 +1,86 @@
+package org.janelia.saalfeldlab.googlecloud;
+
+import com.google.cloud.NoCredentials;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.Storage;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Measures metadata request throughput against a local HTTP stand-in for the
+ * GCS JSON API with an increasing number of threads, with and without
+ * {@link GoogleCloudHttpTuning}.
+ * <p>
+ * Run as a program; not part of the test suite. Pass {@code tuned} as the
+ * first argument for the tuned variant.
+ */
+public class HttpTuningBenchmark {
+
+	private static final int REQUESTS_PER_THREAD = 200;
+	private static final int[] THREADS = {1, 4, 16, 64, 256};
+
+	public static void main(final String... args) throws Exception {
+
+		final boolean tuned = args.length > 0 && args[0].equals("tuned");
+
+		final HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 1024);
+		server.setExecutor(Executors.newFixedThreadPool(256));
+		server.createContext("/", exchange -> {
+			final String[] path = exchange.getRequestURI().getPath().split("/");
+			final byte[] body = ("{\"kind\":\"storage#object\",\"bucket\":\"bench\",\"name\":\"" + path[path.length - 1]
+					+ "\",\"size\":\"1024\",\"generation\":\"1\"}").getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().add("Content-Type", "application/json");
+			exchange.sendResponseHeaders(200, body.length);
+			try (OutputStream os = exchange.getResponseBody()) {
+				os.write(body);
+			}
+		});
+		server.start();
+
+		try {
+			final String host = "http://localhost:" + server.getAddress().getPort();
+			final GoogleCloudStorageClientOptions options = new GoogleCloudStorageClientOptions().setHost(host);
+			if (tuned)
+				options.setHttpTuning(GoogleCloudHttpTuning.forParallelism(THREADS[THREADS.length - 1]));
+
+			final Storage storage = GoogleCloudUtils.createGoogleCloudStorage("bench", options, b -> b.setCredentials(NoCredentials.getInstance()));
+			System.out.println((tuned ? "tuned" : "default") + " transport");
+			for (final int numThreads : THREADS)
+				System.out.printf("%4d threads: %10.1f requests/s%n", numThreads, run(storage, numThreads));
+		} finally {
+			server.stop(0);
+			((ExecutorService)server.getExecutor()).shutdown();
+		}
+	}
+
+	private static double run(final Storage storage, final int numThreads) throws Exception {
+
+		final ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+		try {
+			final List<Future<?>> futures = new ArrayList<>();
+			final long start = System.nanoTime();
+			for (int t = 0; t < numThreads; ++t) {
+				final int thread = t;
+				futures.add(executor.submit(() -> {
+					for (int i = 0; i < REQUESTS_PER_THREAD; ++i)
+						storage.get(BlobId.of("bench", "block/" + thread + "/" + i));
+					return null;
+				}));
+			}
+			for (final Future<?> future : futures)
+				future.get();
+			final double seconds = (System.nanoTime() - start) / 1e9;
+			return numThreads * REQUESTS_PER_THREAD / seconds;
+		} finally {
+			executor.shutdown();
+		}
+	}
+}
@@ -0,0 +1,72 @@
+package org.janelia.saalfeldlab.n5.googlecloud;
+
+import com.google.cloud.storage.Storage;
+import org.janelia.saalfeldlab.n5.googlecloud.mock.MockGoogleCloudStorageFactory;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+public class BucketStateCacheTest {
+
+	@Test
+	public void testSingleProbe() throws Exception {
+
+		final Storage storage = MockGoogleCloudStorageFactory.getOrCreateStorage();
+		final String bucketName = N5GoogleCloudStorageTests.tempBucketName();
+		final AtomicInteger probes = new AtomicInteger();
+
+		final ExecutorService executor = Executors.newFixedThreadPool(16);
+		try {
+			final List<Future<Boolean>> results = new ArrayList<>();
+			for (int i = 0; i < 64; ++i) {
+				results.add(executor.submit(() -> BucketStateCache.exists(storage, bucketName, () -> {
+					probes.incrementAndGet();
+					try {
+						Thread.sleep(100);
+					} catch (final InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+					return false;
+				})));
+			}
+			for (final Future<Boolean> result : results)
+				assertFalse(result.get());
+		} finally {
+			executor.shutdown();
+		}
+		assertEquals("negative result is cached", 1, probes.get());
+
+		BucketStateCache.set(storage, bucketName, true);
+		assertTrue(BucketStateCache.exists(storage, bucketName, () -> {
+			throw new AssertionError("no probe expected");
+		}));
+
+		BucketStateCache.invalidate(storage, bucketName);
+		assertFalse(BucketStateCache.exists(storage, bucketName, () -> false));
+		BucketStateCache.invalidate(storage, bucketName);
+	}
+
+	@Test
+	public void testFailedProbeIsRetried() {
+
+		final Storage storage = MockGoogleCloudStorageFactory.getOrCreateStorage();
+		final String bucketName = N5GoogleCloudStorageTests.tempBucketName();
+
+		/* not only runtime exceptions, the failed probe must not stay in the cache */
+		assertThrows(StackOverflowError.class, () -> BucketStateCache.exists(storage, bucketName, () -> {
+			throw new StackOverflowError();
+		}));
+		assertTrue(BucketStateCache.exists(storage, bucketName, () -> true));
+		BucketStateCache.invalidate(storage, bucketName);
+	}
+}
@@ -0,0 +1,51 @@
+package org.janelia.saalfeldlab.n5.googlecloud;
+
+import org.janelia.saalfeldlab.n5.N5Exception.N5IOException;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.zip.Checksum;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+
+public class GcsChecksumsTest {
+
+	private static final byte[] CHECK = "123456789".getBytes(StandardCharsets.US_ASCII);
+
+	@Test
+	public void testCrc32c() {
+
+		/* the CRC32C check value */
+		final Checksum fallback = new GcsChecksums.Crc32c();
+		fallback.update(CHECK, 0, CHECK.length);
+		assertEquals(0xE3069283L, fallback.getValue());
+
+		final Checksum crc32c = GcsChecksums.newCrc32c();
+		crc32c.update(CHECK, 0, CHECK.length);
+		assertEquals(0xE3069283L, crc32c.getValue());
+
+		/* incremental updates match a single pass */
+		final byte[] data = new byte[100_000];
+		new Random(1).nextBytes(data);
+		final Checksum whole = GcsChecksums.newCrc32c();
+		whole.update(data, 0, data.length);
+		fallback.reset();
+		for (int off = 0; off < data.length; off += 999)
+			fallback.update(data, off, Math.min(999, data.length - off));
+		assertEquals(whole.getValue(), fallback.getValue());
+	}
+
+	@Test
+	public void testVerify() {
+
+		final Checksum crc32c = GcsChecksums.newCrc32c();
+		crc32c.update(CHECK, 0, CHECK.length);
+		assertEquals("4waSgw==", GcsChecksums.toBase64(crc32c.getValue()));
+
+		GcsChecksums.verify(crc32c, "4waSgw==", "bucket", "key");
+		GcsChecksums.verify(crc32c, null, "bucket", "key");
+		assertThrows(N5IOException.class, () -> GcsChecksums.verify(crc32c, "AAAAAA==", "bucket", "key"));
+	}
+}
@@ -7,7 +7,10 @@ import com.google.cloud.storage.BucketInfo;
 import com.google.cloud.storage.Storage;
 
 import org.janelia.saalfeldlab.n5.N5Exception;
+import org.janelia.saalfeldlab.n5.googlecloud.GcsConditionalWrite;
 import org.janelia.saalfeldlab.n5.googlecloud.GcsIoPolicy;
+import org.janelia.saalfeldlab.n5.googlecloud.GcsShardUpdate;
+import org.janelia.saalfeldlab.n5.googlecloud.GcsStreamingUpload;
 import org.janelia.saalfeldlab.n5.readdata.ReadData;
 import org.janelia.saalfeldlab.n5.readdata.VolatileReadData;
 import org.junit.AfterClass;
@@ -15,10 +18,17 @@ import org.junit.BeforeClass;
 import org.junit.Test;
 
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertThrows;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
 import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Random;
 
 public class BackendIoPolicyTests {
 
@@ -114,4 +124,178 @@ public class BackendIoPolicyTests {
 			assertThrows(N5Exception.N5ConcurrentModificationException.class, vrd::allBytes);
 		}
 	}
+
+	@Test
+	public void testCompareAndSwap() throws IOException {
+
+		final GcsIoPolicy.CompareAndSwap policy = new GcsIoPolicy.CompareAndSwap(storage, bucketName);
+		final GcsIoPolicy.Unsafe other = new GcsIoPolicy.Unsafe(storage, bucketName);
+		final byte[] data1 = {0, 1, 2, 3, 4};
+		final byte[] data2 = {5, 6, 7};
+		final byte[] data3 = {8, 9};
+
+		// never read, unconditional write
+		policy.write("cas/blob", ReadData.from(data1));
+
+		// read observes the generation, write succeeds
+		try (VolatileReadData result = policy.read("cas/blob")) {
+			assertArrayEquals(data1, result.allBytes());
+		}
+		policy.write("cas/blob", ReadData.from(data2));
+
+		// another writer modifies the blob, the conditional write fails
+		try (VolatileReadData result = policy.read("cas/blob")) {
+			assertArrayEquals(data2, result.allBytes());
+		}
+		other.write("cas/blob", ReadData.from(data3));
+		assertThrows(N5Exception.N5ConcurrentModificationException.class, () -> policy.write("cas/blob", ReadData.from(data1)));
+
+		// a key observed as missing must still not exist
+		assertThrows(N5Exception.N5NoSuchKeyException.class, () -> policy.read("cas/missing").allBytes());
+		other.write("cas/missing", ReadData.from(data3));
+		assertThrows(N5Exception.N5ConcurrentModificationException.class, () -> policy.write("cas/missing", ReadData.from(data1)));
+
+		// read-modify-write appends a byte
+		GcsConditionalWrite.readModifyWrite(storage, bucketName, "cas/blob", current -> {
+			final byte[] bytes = current.allBytes();
+			final byte[] appended = Arrays.copyOf(bytes, bytes.length + 1);
+			appended[bytes.length] = 42;
+			return ReadData.from(appended);
+		});
+		try (VolatileReadData result = other.read("cas/blob")) {
+			assertArrayEquals(new byte[]{8, 9, 42}, result.allBytes());
+		}
+	}
+
+	@Test
+	public void testCompareAndSwapAfterDelete() throws IOException {
+
+		final GcsIoPolicy.CompareAndSwap policy = new GcsIoPolicy.CompareAndSwap(storage, bucketName);
+		final GcsIoPolicy.Unsafe other = new GcsIoPolicy.Unsafe(storage, bucketName);
+		final byte[] data1 = {0, 1, 2};
+		final byte[] data2 = {3, 4};
+
+		policy.write("casgroup/dataset/blob", ReadData.from(data1));
+		try (VolatileReadData result = policy.read("casgroup/dataset/blob")) {
+			assertArrayEquals(data1, result.allBytes());
+		}
+
+		// deleting the group, keyed without trailing slash, forgets its children
+		policy.delete("casgroup/dataset");
+		other.write("casgroup/dataset/blob", ReadData.from(data2));
+		policy.write("casgroup/dataset/blob", ReadData.from(data1));
+		try (VolatileReadData result = other.read("casgroup/dataset/blob")) {
+			assertArrayEquals(data1, result.allBytes());
+		}
+	}
+
+	@Test
+	public void testShardUpdate() throws IOException {
+
+		final GcsIoPolicy.Unsafe policy = new GcsIoPolicy.Unsafe(storage, bucketName);
+		final byte[] shard = {0, 1, 2, 3, 4, 5};
+
+		// append is composed server-side
+		policy.write("shard/blob", ReadData.from(shard));
+		GcsShardUpdate.update(storage, bucketName, "shard/blob", shard.length, ReadData.from(new byte[]{6, 7}));
+		try (VolatileReadData result = policy.read("shard/blob")) {
+			assertArrayEquals(new byte[]{0, 1, 2, 3, 4, 5, 6, 7}, result.allBytes());
+		}
+
+		// truncating rewrites the shard
+		GcsShardUpdate.update(storage, bucketName, "shard/blob", 3, ReadData.from(new byte[]{9}));
+		try (VolatileReadData result = policy.read("shard/blob")) {
+			assertArrayEquals(new byte[]{0, 1, 2, 9}, result.allBytes());
+		}
+
+		// missing shards are created from the tail alone
+		GcsShardUpdate.update(storage, bucketName, "shard/new", 0, ReadData.from(shard));
+		try (VolatileReadData result = policy.read("shard/new")) {
+			assertArrayEquals(shard, result.allBytes());
+		}
+	}
+
+	@Test
+	public void testImmutable() throws IOException {
+
+		final GcsIoPolicy.Immutable policy = new GcsIoPolicy.Immutable(storage, bucketName);
+		final GcsIoPolicy.Unsafe other = new GcsIoPolicy.Unsafe(storage, bucketName);
+		final byte[] data1 = {0, 1, 2, 3, 4};
+		final byte[] data2 = {5, 6, 7};
+
+		policy.write("immutable/blob", ReadData.from(data1));
+		try (VolatileReadData result = policy.read("immutable/blob")) {
+			assertArrayEquals(data1, result.allBytes());
+		}
+
+		// changes by others are never observed once cached
+		other.write("immutable/blob", ReadData.from(data2));
+		try (VolatileReadData result = policy.read("immutable/blob")) {
+			assertArrayEquals(data1, result.allBytes());
+		}
+
+		// writes through the policy evict the cache
+		policy.write("immutable/blob", ReadData.from(data2));
+		try (VolatileReadData result = policy.read("immutable/blob")) {
+			assertArrayEquals(data2, result.allBytes());
+		}
+
+		assertThrows(N5Exception.N5NoSuchKeyException.class, () -> policy.read("immutable/missing").allBytes());
+
+		// deleting a group, keyed without trailing slash, evicts its children
+		policy.write("immutable/group/blob", ReadData.from(data1));
+		try (VolatileReadData result = policy.read("immutable/group/blob")) {
+			assertArrayEquals(data1, result.allBytes());
+		}
+		policy.delete("immutable/group");
+		assertThrows(N5Exception.N5NoSuchKeyException.class, () -> policy.read("immutable/group/blob").allBytes());
+	}
+
+	@Test
+	public void testVerifyChecksums() throws IOException {
+
+		final GcsIoPolicy.GenerationMatch policy = new GcsIoPolicy.GenerationMatch(storage, bucketName);
+		policy.setVerifyChecksums(true);
+		final byte[] data = new byte[1024 * 1024 + 7];
+		new Random(3).nextBytes(data);
+
+		policy.write("crc/blob", ReadData.from(data));
+		try (VolatileReadData result = policy.read("crc/blob")) {
+			assertArrayEquals(data, result.allBytes());
+		}
+
+		final GcsStreamingUpload streamingUpload = new GcsStreamingUpload();
+		streamingUpload.setChunkSize(256 * 1024);
+		policy.setStreamingUpload(streamingUpload);
+		policy.write("crc/streamed", ReadData.from(data));
+		try (VolatileReadData result = policy.read("crc/streamed")) {
+			assertArrayEquals(data, result.allBytes());
+		}
+	}
+
+	@Test
+	public void testCorruptUploadIsDeleted() {
+
+		/* the checksum sees the original bytes, GCS receives different ones */
+		final Storage corrupting = (Storage)Proxy.newProxyInstance(
+				Storage.class.getClassLoader(),
+				new Class<?>[]{Storage.class},
+				(proxy, method, args) -> {
+					if (method.getName().equals("createFrom") && args[1] instanceof InputStream) {
+						final InputStream in = (InputStream)args[1];
+						while (in.read() >= 0) {}
+						args[1] = new ByteArrayInputStream(new byte[]{1, 2, 3});
+					}
+					try {
+						return method.invoke(storage, args);
+					} catch (final InvocationTargetException e) {
+						throw e.getCause();
+					}
+				});
+
+		final GcsIoPolicy.Unsafe policy = new GcsIoPolicy.Unsafe(corrupting, bucketName);
+		policy.setVerifyChecksums(true);
+		assertThrows(N5Exception.N5IOException.class, () -> policy.write("crc/corrupt", ReadData.from(new byte[1024])));
+		assertNull(storage.get(BlobId.of(bucketName, "crc/corrupt")));
+	}
 }
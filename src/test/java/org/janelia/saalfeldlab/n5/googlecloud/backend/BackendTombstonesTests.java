@@ -0,0 +1,54 @@
+package org.janelia.saalfeldlab.n5.googlecloud.backend;
+
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.Storage;
+import org.janelia.saalfeldlab.n5.googlecloud.GoogleCloudStorageKeyValueAccess;
+import org.janelia.saalfeldlab.n5.readdata.ReadData;
+import org.junit.Test;
+
+import java.security.SecureRandom;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BackendTombstonesTests {
+
+	private static final SecureRandom random = new SecureRandom();
+
+	@Test
+	public void testWritesAfterTombstoneSurviveReclaim() {
+
+		final Storage storage = BackendGoogleCloudStorageFactory.getOrCreateStorage();
+		final String bucketName = "n5-test-" + Long.toUnsignedString(random.nextLong());
+		final GoogleCloudStorageKeyValueAccess kva = new GoogleCloudStorageKeyValueAccess(storage, "gs://" + bucketName + "/container", true);
+
+		final ReadData data = ReadData.from(new byte[]{1});
+		kva.createDirectories("/container/dataset");
+		kva.write("/container/dataset/0", data);
+		kva.write("/container/dataset/1", data);
+
+		kva.deleteDeferred("/container/dataset");
+
+		/* written after the tombstone, by this and by another instance that does not know it yet */
+		final GoogleCloudStorageKeyValueAccess other = new GoogleCloudStorageKeyValueAccess(storage, "gs://" + bucketName + "/container", true);
+		kva.createDirectories("/container/dataset");
+		kva.write("/container/dataset/1", data);
+		other.write("/container/dataset/2", data);
+
+		assertTrue(kva.isDirectory("/container/dataset"));
+		assertFalse(kva.exists("/container/dataset/0"));
+		assertTrue(kva.exists("/container/dataset/1"));
+		assertTrue(kva.exists("/container/dataset/2"));
+		assertArrayEquals(new String[]{"1", "2"}, kva.list("/container/dataset"));
+
+		kva.reclaim();
+		assertNull(storage.get(BlobId.of(bucketName, "container/dataset/0")));
+		assertNotNull(storage.get(BlobId.of(bucketName, "container/dataset/1")));
+		assertNotNull(storage.get(BlobId.of(bucketName, "container/dataset/2")));
+
+		kva.delete("/");
+	}
+}
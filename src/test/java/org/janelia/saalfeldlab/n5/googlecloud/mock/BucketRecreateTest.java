@@ -0,0 +1,61 @@
+package org.janelia.saalfeldlab.n5.googlecloud.mock;
+
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.StorageException;
+import org.janelia.saalfeldlab.n5.googlecloud.GoogleCloudStorageKeyValueAccess;
+import org.janelia.saalfeldlab.n5.googlecloud.N5GoogleCloudStorageTests;
+import org.janelia.saalfeldlab.n5.readdata.ReadData;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class BucketRecreateTest {
+
+	/* like GCS, object writes to a missing bucket fail with 404 */
+	private static Storage bucketChecking(final Storage storage) {
+
+		return (Storage)Proxy.newProxyInstance(
+				Storage.class.getClassLoader(),
+				new Class<?>[]{Storage.class},
+				(proxy, method, args) -> {
+					if ((method.getName().equals("create") || method.getName().equals("writer"))
+							&& args != null && args.length > 0 && args[0] instanceof BlobInfo
+							&& storage.get(((BlobInfo)args[0]).getBucket()) == null)
+						throw new StorageException(404, "The specified bucket does not exist.");
+					try {
+						return method.invoke(storage, args);
+					} catch (final InvocationTargetException e) {
+						throw e.getCause();
+					}
+				});
+	}
+
+	@Test
+	public void testWriteAfterBucketDeletedElsewhere() {
+
+		final Storage storage = bucketChecking(MockGoogleCloudStorageFactory.getOrCreateStorage());
+		final String bucketName = N5GoogleCloudStorageTests.tempBucketName();
+		final GoogleCloudStorageKeyValueAccess kva = new GoogleCloudStorageKeyValueAccess(storage, "gs://" + bucketName + "/container", true);
+
+		kva.createDirectories("/container/dataset");
+		assertTrue(kva.bucketExists());
+
+		/* another process deletes the bucket, it is still cached as existing */
+		storage.delete(bucketName);
+
+		kva.write("/container/dataset/0", ReadData.from(new byte[]{1, 2, 3}));
+		assertNotNull(storage.get(bucketName));
+		assertTrue(kva.isFile("/container/dataset/0"));
+
+		storage.delete(bucketName);
+		kva.createDirectories("/container/other");
+		assertNotNull(storage.get(bucketName));
+
+		kva.delete("/");
+	}
+}
@@ -0,0 +1,65 @@
+package org.janelia.saalfeldlab.n5.googlecloud.mock;
+
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.BucketInfo;
+import com.google.cloud.storage.Storage;
+import org.janelia.saalfeldlab.n5.googlecloud.GcsIoPolicy;
+import org.janelia.saalfeldlab.n5.googlecloud.N5GoogleCloudStorageTests;
+import org.janelia.saalfeldlab.n5.readdata.VolatileReadData;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+
+import static org.junit.Assert.assertEquals;
+
+public class GcsCompareAndSwapTest {
+
+	@Test
+	public void testObservedGenerationsAreBounded() {
+
+		final Storage mock = MockGoogleCloudStorageFactory.getOrCreateStorage();
+		final String bucketName = N5GoogleCloudStorageTests.tempBucketName();
+		mock.create(BucketInfo.of(bucketName));
+
+		/* the mock does not report generations, give every object one */
+		final Storage storage = (Storage)Proxy.newProxyInstance(
+				Storage.class.getClassLoader(),
+				new Class<?>[]{Storage.class},
+				(proxy, method, args) -> {
+					final Object result;
+					try {
+						result = method.invoke(mock, args);
+					} catch (final InvocationTargetException e) {
+						throw e.getCause();
+					}
+					if (method.getName().equals("get") && result instanceof Blob) {
+						final Blob blob = (Blob)result;
+						return blob.toBuilder().setBlobId(BlobId.of(blob.getBucket(), blob.getName(), 42L)).build();
+					}
+					return result;
+				});
+
+		final GcsIoPolicy.CompareAndSwap policy = new GcsIoPolicy.CompareAndSwap(storage, bucketName, 4);
+		try {
+			for (int i = 0; i < 10; ++i) {
+				mock.create(BlobInfo.newBuilder(bucketName, "cas/" + i).build(), new byte[]{(byte) i});
+				try (VolatileReadData readData = policy.read("cas/" + i)) {
+					assertEquals(1, readData.requireLength());
+				}
+			}
+
+			/* only the most recently read keys are remembered */
+			assertEquals(4, policy.numObserved());
+
+			policy.delete("cas");
+			assertEquals(0, policy.numObserved());
+		} finally {
+			for (int i = 0; i < 10; ++i)
+				mock.delete(BlobId.of(bucketName, "cas/" + i));
+			mock.delete(bucketName);
+		}
+	}
+}
@@ -0,0 +1,104 @@
+package org.janelia.saalfeldlab.n5.googlecloud.mock;
+
+import com.google.cloud.storage.Storage;
+import org.janelia.saalfeldlab.n5.googlecloud.GcsContainerManifest;
+import org.janelia.saalfeldlab.n5.googlecloud.GoogleCloudStorageKeyValueAccess;
+import org.janelia.saalfeldlab.n5.googlecloud.N5GoogleCloudStorageTests;
+import org.janelia.saalfeldlab.n5.readdata.ReadData;
+import org.janelia.saalfeldlab.n5.readdata.VolatileReadData;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class GcsContainerManifestTest {
+
+	@Test
+	public void testManifest() {
+
+		final Storage storage = MockGoogleCloudStorageFactory.getOrCreateStorage();
+		final String bucketName = N5GoogleCloudStorageTests.tempBucketName();
+		final GoogleCloudStorageKeyValueAccess writer = new GoogleCloudStorageKeyValueAccess(storage, "gs://" + bucketName + "/container", true);
+		writer.setMaintainManifest(true);
+
+		final byte[] attributes = "{\"dimensions\":[4,4]}".getBytes();
+		final byte[] block = {1, 2, 3};
+		writer.createDirectories("/container/group/dataset");
+		writer.write("/container/attributes.json", ReadData.from("{}".getBytes()));
+		writer.write("/container/group/dataset/attributes.json", ReadData.from(attributes));
+		writer.write("/container/group/dataset/0/0", ReadData.from(block));
+
+		final GcsContainerManifest written = writer.writeManifest(false);
+		assertFalse(written.includesBlocks());
+
+		/* without blocks, block rows of the dataset are left to the backend */
+		assertTrue(written.isDirectory("container/group/dataset/"));
+		assertFalse(written.coversDirectory("container/group/dataset/0/"));
+		assertFalse(written.coversChildren("container/group/dataset/", true));
+		assertTrue(written.coversChildren("container/group/", true));
+
+		final GoogleCloudStorageKeyValueAccess reader = new GoogleCloudStorageKeyValueAccess(storage, "gs://" + bucketName + "/container", false);
+		assertTrue(reader.useManifest());
+		assertNotNull(reader.getManifest());
+
+		assertTrue(reader.isDirectory("/container/group/dataset/0"));
+		assertFalse(reader.isDirectory("/container/other"));
+		assertArrayEquals(new String[]{"group"}, reader.listDirectories("/container"));
+		assertArrayEquals(new String[]{"dataset"}, reader.listDirectories("/container/group"));
+		assertTrue(reader.isFile("/container/group/dataset/attributes.json"));
+		assertFalse(reader.exists("/container/group/attributes.json"));
+		assertEquals(attributes.length, reader.size("/container/group/dataset/attributes.json"));
+		try (VolatileReadData readData = reader.createReadData("/container/group/dataset/attributes.json")) {
+			assertArrayEquals(attributes, readData.allBytes());
+		}
+
+		/* blocks are not in the manifest, ask the backend */
+		assertTrue(reader.isFile("/container/group/dataset/0/0"));
+		assertArrayEquals(new String[]{"0"}, reader.list("/container/group/dataset/0"));
+
+		/* the first mutation of a maintaining writer removes the manifest */
+		writer.write("/container/group/dataset/0/1", ReadData.from(block));
+		assertNull(GcsContainerManifest.load(storage, bucketName, "container/"));
+
+		writer.writeManifest(true);
+		final GoogleCloudStorageKeyValueAccess blockReader = new GoogleCloudStorageKeyValueAccess(storage, "gs://" + bucketName + "/container", false);
+		assertTrue(blockReader.useManifest());
+		assertTrue(blockReader.getManifest().includesBlocks());
+		assertTrue(blockReader.exists("/container/group/dataset/0/1"));
+		assertFalse(blockReader.exists("/container/group/dataset/0/2"));
+		assertEquals(block.length, blockReader.size("/container/group/dataset/0/1"));
+		assertEquals(2, blockReader.list("/container/group/dataset/0").length);
+
+		writer.delete("/");
+	}
+
+	@Test
+	public void testStaleManifest() {
+
+		final Storage storage = MockGoogleCloudStorageFactory.getOrCreateStorage();
+		final String bucketName = N5GoogleCloudStorageTests.tempBucketName();
+		final GoogleCloudStorageKeyValueAccess writer = new GoogleCloudStorageKeyValueAccess(storage, "gs://" + bucketName + "/container", true);
+		writer.createDirectories("/container/group");
+		writer.write("/container/attributes.json", ReadData.from("{}".getBytes()));
+		writer.write("/container/group/attributes.json", ReadData.from("{\"a\":1}".getBytes()));
+		writer.writeManifest(false);
+
+		final GoogleCloudStorageKeyValueAccess reader = new GoogleCloudStorageKeyValueAccess(storage, "gs://" + bucketName + "/container", false);
+		assertTrue(reader.useManifest());
+
+		/* a writer that does not maintain the manifest removes metadata */
+		final GoogleCloudStorageKeyValueAccess other = new GoogleCloudStorageKeyValueAccess(storage, "gs://" + bucketName + "/container", false);
+		other.delete("/container/group/attributes.json");
+		assertNotNull(GcsContainerManifest.load(storage, bucketName, "container/"));
+
+		assertFalse(reader.useManifest());
+		assertNull(reader.getManifest());
+		assertFalse(reader.exists("/container/group/attributes.json"));
+
+		writer.delete("/");
+	}
+}
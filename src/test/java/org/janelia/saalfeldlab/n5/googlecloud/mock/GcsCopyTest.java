@@ -0,0 +1,74 @@
+package org.janelia.saalfeldlab.n5.googlecloud.mock;
+
+import com.google.cloud.storage.Storage;
+import org.janelia.saalfeldlab.n5.googlecloud.GcsCopy;
+import org.janelia.saalfeldlab.n5.googlecloud.GoogleCloudStorageKeyValueAccess;
+import org.janelia.saalfeldlab.n5.googlecloud.N5GoogleCloudStorageTests;
+import org.janelia.saalfeldlab.n5.readdata.ReadData;
+import org.janelia.saalfeldlab.n5.readdata.VolatileReadData;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+public class GcsCopyTest {
+
+	@Test
+	public void testCopyAndMove() {
+
+		final Storage storage = MockGoogleCloudStorageFactory.getOrCreateStorage();
+		final String bucketName = N5GoogleCloudStorageTests.tempBucketName();
+		final GoogleCloudStorageKeyValueAccess kva = new GoogleCloudStorageKeyValueAccess(storage, "gs://" + bucketName, true);
+
+		final byte[] data = {1, 2, 3, 4};
+		kva.createDirectories("/src/a");
+		kva.write("/src/a/0", ReadData.from(data));
+		kva.write("/src/b", ReadData.from(data));
+
+		final AtomicLong copied = new AtomicLong();
+		kva.copy("/src", kva, "/copy", new GcsCopy(storage).setParallelism(2).setProgressListener((objects, listed, bytes) -> copied.set(objects)));
+		assertTrue(kva.isFile("/copy/a/0"));
+		assertTrue(kva.isFile("/copy/b"));
+		assertTrue(kva.isFile("/src/b"));
+		assertTrue(copied.get() >= 2);
+		try (VolatileReadData readData = kva.createReadData("/copy/a/0")) {
+			assertArrayEquals(data, readData.allBytes());
+		}
+
+		kva.move("/src/b", "/moved");
+		assertFalse(kva.isFile("/src/b"));
+		assertEquals(data.length, kva.size("/moved"));
+
+		kva.delete("/");
+	}
+
+	@Test
+	public void testCopyIntoItself() {
+
+		final Storage storage = MockGoogleCloudStorageFactory.getOrCreateStorage();
+		final String bucketName = N5GoogleCloudStorageTests.tempBucketName();
+		final GoogleCloudStorageKeyValueAccess kva = new GoogleCloudStorageKeyValueAccess(storage, "gs://" + bucketName, true);
+
+		final byte[] data = {1, 2, 3, 4};
+		kva.createDirectories("/a");
+		kva.write("/a/0", ReadData.from(data));
+
+		assertThrows(IllegalArgumentException.class, () -> kva.copy("/a", "/a/b"));
+		assertThrows(IllegalArgumentException.class, () -> kva.move("/a", "/a"));
+		assertThrows(IllegalArgumentException.class, () -> kva.move("/a/0", "/a/0"));
+		assertThrows(IllegalArgumentException.class, () -> new GcsCopy(storage).copyPrefix(bucketName, "a/", bucketName, "a/b/", false));
+		assertTrue(kva.isFile("/a/0"));
+		assertFalse(kva.exists("/a/b"));
+
+		/* siblings with a common name prefix are fine */
+		kva.copy("/a", "/ab");
+		assertTrue(kva.isFile("/ab/0"));
+
+		kva.delete("/");
+	}
+}
@@ -0,0 +1,126 @@
+package org.janelia.saalfeldlab.n5.googlecloud.mock;
+
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.BucketInfo;
+import com.google.cloud.storage.Storage;
+import org.janelia.saalfeldlab.n5.N5Exception;
+import org.janelia.saalfeldlab.n5.googlecloud.GcsIoPolicy;
+import org.janelia.saalfeldlab.n5.googlecloud.N5GoogleCloudStorageTests;
+import org.janelia.saalfeldlab.n5.readdata.ReadData;
+import org.janelia.saalfeldlab.n5.readdata.VolatileReadData;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+public class GcsImmutablePolicyTest {
+
+	@Test
+	public void testWholeObjectsByDefault() throws IOException {
+
+		final Storage mock = MockGoogleCloudStorageFactory.getOrCreateStorage();
+		final String bucketName = N5GoogleCloudStorageTests.tempBucketName();
+		mock.create(BucketInfo.of(bucketName));
+
+		final byte[] data = new byte[1042];
+		new Random(2).nextBytes(data);
+		mock.create(BlobInfo.newBuilder(bucketName, "blob").build(), data);
+
+		final List<String> calls = Collections.synchronizedList(new ArrayList<>());
+		final Storage storage = (Storage)Proxy.newProxyInstance(
+				Storage.class.getClassLoader(),
+				new Class<?>[]{Storage.class},
+				(proxy, method, args) -> {
+					calls.add(method.getName());
+					try {
+						return method.invoke(mock, args);
+					} catch (final InvocationTargetException e) {
+						throw e.getCause();
+					}
+				});
+
+		GcsIoPolicy.Immutable.clearCache();
+		assertEquals(GcsIoPolicy.Immutable.UNBOUNDED, GcsIoPolicy.Immutable.getMaxCacheBytes());
+		try {
+			final GcsIoPolicy.Immutable policy = new GcsIoPolicy.Immutable(storage, bucketName);
+
+			/* a single GET without metadata request, then served from the cache */
+			try (VolatileReadData read = policy.read("blob")) {
+				assertEquals(data.length, read.requireLength());
+				assertArrayEquals(Arrays.copyOfRange(data, 1000, data.length), read.slice(1000, 42).allBytes());
+			}
+			try (VolatileReadData read = policy.read("blob")) {
+				assertArrayEquals(data, read.allBytes());
+			}
+			assertEquals(Collections.singletonList("readAllBytes"), calls);
+			assertEquals(data.length, GcsIoPolicy.Immutable.getCachedBytes());
+
+			assertThrows(N5Exception.N5NoSuchKeyException.class, () -> policy.read("missing").allBytes());
+		} finally {
+			GcsIoPolicy.Immutable.clearCache();
+			mock.delete(BlobId.of(bucketName, "blob"));
+			mock.delete(bucketName);
+		}
+	}
+
+	@Test
+	public void testPagedBoundedCache() throws IOException {
+
+		final Storage storage = MockGoogleCloudStorageFactory.getOrCreateStorage();
+		final String bucketName = N5GoogleCloudStorageTests.tempBucketName();
+		storage.create(BucketInfo.of(bucketName));
+
+		final byte[] data = new byte[10 * 100 + 42];
+		new Random(1).nextBytes(data);
+		storage.create(BlobInfo.newBuilder(bucketName, "shard").build(), data);
+
+		GcsIoPolicy.Immutable.clearCache();
+		GcsIoPolicy.Immutable.setMaxCacheBytes(300);
+		try {
+			final GcsIoPolicy.Immutable policy = new GcsIoPolicy.Immutable(storage, bucketName);
+			policy.setPageSize(100);
+
+			/* the size and a sub-range only fetch what they need */
+			try (VolatileReadData read = policy.read("shard")) {
+				assertEquals(data.length, read.requireLength());
+				assertArrayEquals(Arrays.copyOfRange(data, 1000, data.length), read.slice(1000, 42).allBytes());
+			}
+			assertEquals(42, GcsIoPolicy.Immutable.getCachedBytes());
+
+			/* a whole read is served, but the cache stays bounded */
+			try (VolatileReadData read = policy.read("shard")) {
+				assertArrayEquals(data, read.allBytes());
+			}
+			assertTrue(GcsIoPolicy.Immutable.getCachedBytes() <= 300);
+
+			/* cached pages are shared between reads */
+			try (VolatileReadData read = policy.read("shard")) {
+				assertArrayEquals(Arrays.copyOfRange(data, 950, 1000), read.slice(950, 50).allBytes());
+			}
+
+			policy.write("group/blob", ReadData.from(new byte[]{1, 2, 3}));
+			try (VolatileReadData read = policy.read("group/blob")) {
+				assertArrayEquals(new byte[]{1, 2, 3}, read.allBytes());
+			}
+			policy.delete("group");
+			assertThrows(N5Exception.N5NoSuchKeyException.class, () -> policy.read("group/blob").allBytes());
+		} finally {
+			GcsIoPolicy.Immutable.setMaxCacheBytes(GcsIoPolicy.Immutable.UNBOUNDED);
+			GcsIoPolicy.Immutable.clearCache();
+			storage.delete(BlobId.of(bucketName, "shard"));
+			storage.delete(bucketName);
+		}
+	}
+}
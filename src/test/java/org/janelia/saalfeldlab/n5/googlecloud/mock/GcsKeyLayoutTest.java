@@ -0,0 +1,124 @@
+package org.janelia.saalfeldlab.n5.googlecloud.mock;
+
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.Storage;
+import org.janelia.saalfeldlab.n5.googlecloud.GcsKeyLayout;
+import org.janelia.saalfeldlab.n5.googlecloud.GoogleCloudStorageKeyValueAccess;
+import org.janelia.saalfeldlab.n5.googlecloud.N5GoogleCloudStorageTests;
+import org.janelia.saalfeldlab.n5.readdata.ReadData;
+import org.janelia.saalfeldlab.n5.readdata.VolatileReadData;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+public class GcsKeyLayoutTest {
+
+	@Test
+	public void testMapping() {
+
+		final GcsKeyLayout layout = GcsKeyLayout.hashed(2);
+		final String objectKey = layout.toObjectKey("container/", "container/dataset/0/0/1");
+		assertTrue(objectKey.startsWith("container/" + GcsKeyLayout.DIRECTORY));
+		assertTrue(objectKey.endsWith("/dataset/0/0/1"));
+		assertEquals("container/dataset/0/0/1", layout.toLogicalKey("container/", objectKey));
+
+		/* sequential keys are spread over hash prefixes */
+		final Set<String> hashes = new HashSet<>();
+		for (int i = 0; i < 64; ++i)
+			hashes.add(layout.toObjectKey("container/", "container/dataset/0/0/" + i).split("/")[2]);
+		assertTrue(hashes.size() > 16);
+
+		/* metadata, directories, and keys outside the container keep their keys */
+		assertEquals("container/dataset/attributes.json", layout.toObjectKey("container/", "container/dataset/attributes.json"));
+		assertEquals("container/dataset/", layout.toObjectKey("container/", "container/dataset/"));
+		assertEquals("other/0", layout.toObjectKey("container/", "other/0"));
+		assertEquals(256, layout.objectPrefixes("container/", "container/dataset/").size());
+		assertThrows(IllegalArgumentException.class, () -> GcsKeyLayout.hashed(GcsKeyLayout.MAX_HASH_LENGTH + 1));
+
+		/* block directory records are not hashed keys */
+		final String record = layout.blockDirectoryKey("container/", "container/dataset/0/");
+		assertTrue(record.startsWith("container/" + GcsKeyLayout.DIRECTORY));
+		assertEquals(record, layout.toLogicalKey("container/", record));
+	}
+
+	@Test
+	public void testHashedContainer() {
+
+		final Storage storage = MockGoogleCloudStorageFactory.getOrCreateStorage();
+		final String bucketName = N5GoogleCloudStorageTests.tempBucketName();
+		final GoogleCloudStorageKeyValueAccess kva = new GoogleCloudStorageKeyValueAccess(storage, "gs://" + bucketName + "/container", true);
+		kva.setKeyLayout(GcsKeyLayout.hashed(1));
+
+		final ReadData data = ReadData.from(new byte[]{1, 2, 3});
+		kva.createDirectories("/container/dataset");
+		kva.write("/container/dataset/attributes.json", ReadData.from("{}".getBytes()));
+		for (int i = 0; i < 4; ++i)
+			kva.write("/container/dataset/0/" + i, data);
+
+		assertNull(storage.get(BlobId.of(bucketName, "container/dataset/0/1")));
+		assertNotNull(storage.get(BlobId.of(bucketName, "container/dataset/attributes.json")));
+
+		/* a reader picks up the layout from the container */
+		final AtomicInteger numListings = new AtomicInteger();
+		final Storage counting = (Storage)Proxy.newProxyInstance(
+				Storage.class.getClassLoader(),
+				new Class<?>[]{Storage.class},
+				(proxy, method, args) -> {
+					if (method.getName().equals("list"))
+						numListings.incrementAndGet();
+					try {
+						return method.invoke(storage, args);
+					} catch (final InvocationTargetException e) {
+						throw e.getCause();
+					}
+				});
+		final GoogleCloudStorageKeyValueAccess reader = new GoogleCloudStorageKeyValueAccess(counting, "gs://" + bucketName + "/container", false);
+		assertTrue(reader.getKeyLayout().isHashed());
+		assertTrue(reader.isFile("/container/dataset/0/1"));
+		assertTrue(reader.exists("/container/dataset/0/1"));
+		assertFalse(reader.exists("/container/dataset/0/9"));
+		assertTrue(reader.isDirectory("/container/dataset/0"));
+		assertEquals(3, reader.size("/container/dataset/0/2"));
+		try (VolatileReadData readData = reader.createReadData("/container/dataset/0/3")) {
+			assertArrayEquals(new byte[]{1, 2, 3}, readData.allBytes());
+		}
+
+		/* only directories that hold blocks are listed per hash value */
+		reader.isDirectory("/container/dataset/0");
+		numListings.set(0);
+		assertTrue(reader.isDirectory("/container/dataset/0"));
+		assertFalse(reader.isDirectory("/container/missing"));
+		assertArrayEquals(new String[]{"dataset"}, reader.list("/container"));
+		final String[] children = reader.list("/container/dataset");
+		Arrays.sort(children);
+		assertArrayEquals(new String[]{"0", "attributes.json"}, children);
+		assertTrue(numListings.get() < 8);
+		final String[] blocks = reader.list("/container/dataset/0");
+		Arrays.sort(blocks);
+		assertArrayEquals(new String[]{"0", "1", "2", "3"}, blocks);
+
+		kva.copy("/container/dataset", "/container/copy");
+		assertTrue(reader.isFile("/container/copy/0/2"));
+		assertTrue(reader.isFile("/container/copy/attributes.json"));
+
+		kva.delete("/container/dataset");
+		assertFalse(reader.exists("/container/dataset/0/1"));
+		assertFalse(reader.isDirectory("/container/dataset"));
+		assertTrue(reader.isFile("/container/copy/0/1"));
+
+		kva.delete("/");
+	}
+}
@@ -0,0 +1,56 @@
+package org.janelia.saalfeldlab.n5.googlecloud.mock;
+
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.BucketInfo;
+import com.google.cloud.storage.Storage;
+import org.janelia.saalfeldlab.n5.N5Exception;
+import org.janelia.saalfeldlab.n5.googlecloud.GcsPagedLazyRead;
+import org.janelia.saalfeldlab.n5.googlecloud.N5GoogleCloudStorageTests;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+
+public class GcsPagedLazyReadTest {
+
+	@Test
+	public void testPagedRead() {
+
+		final Storage storage = MockGoogleCloudStorageFactory.getOrCreateStorage();
+		final String bucketName = N5GoogleCloudStorageTests.tempBucketName();
+		storage.create(BucketInfo.of(bucketName));
+
+		final byte[] data = new byte[5 * 100 + 42];
+		new Random(1).nextBytes(data);
+		storage.create(BlobInfo.newBuilder(bucketName, "shard").build(), data);
+
+		final GcsPagedLazyRead read = new GcsPagedLazyRead(storage, bucketName, "shard", 100, 3, null);
+		assertEquals(data.length, read.size());
+
+		/* a sub-read fetches only the pages it covers */
+		assertArrayEquals(Arrays.copyOfRange(data, 150, 260), read.materialize(150, 110).allBytes());
+		assertEquals(2, read.numPages());
+
+		/* the tail page is short */
+		assertArrayEquals(Arrays.copyOfRange(data, 520, data.length), read.materialize(520, -1).allBytes());
+		assertEquals(3, read.numPages());
+
+		/* the page table is bounded */
+		assertArrayEquals(data, read.materialize(0, -1).allBytes());
+		assertEquals(3, read.numPages());
+
+		read.close();
+		assertEquals(0, read.numPages());
+
+		final GcsPagedLazyRead missing = new GcsPagedLazyRead(storage, bucketName, "missing");
+		assertThrows(N5Exception.N5NoSuchKeyException.class, missing::size);
+
+		storage.delete(BlobId.of(bucketName, "shard"));
+		storage.delete(bucketName);
+	}
+}
@@ -0,0 +1,133 @@
+package org.janelia.saalfeldlab.n5.googlecloud.mock;
+
+import com.google.cloud.storage.Storage;
+import org.janelia.saalfeldlab.n5.googlecloud.GcsFlow;
+import org.janelia.saalfeldlab.n5.googlecloud.GcsReadPublisher;
+import org.janelia.saalfeldlab.n5.googlecloud.GoogleCloudStorageKeyValueAccess;
+import org.janelia.saalfeldlab.n5.googlecloud.N5GoogleCloudStorageTests;
+import org.janelia.saalfeldlab.n5.readdata.ReadData;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class GcsReadPublisherTest {
+
+	/* requests batch items at a time, one by default */
+	private static class CollectingSubscriber implements GcsFlow.Subscriber<GcsReadPublisher.Item> {
+
+		final List<GcsReadPublisher.Item> items = new ArrayList<>();
+		final CountDownLatch done = new CountDownLatch(1);
+		volatile Throwable error = null;
+		private final int batch;
+		private GcsFlow.Subscription subscription;
+
+		CollectingSubscriber(final int batch) {
+
+			this.batch = batch;
+		}
+
+		CollectingSubscriber() {
+
+			this(1);
+		}
+
+		@Override
+		public void onSubscribe(final GcsFlow.Subscription subscription) {
+
+			this.subscription = subscription;
+			subscription.request(batch);
+		}
+
+		@Override
+		public void onNext(final GcsReadPublisher.Item item) {
+
+			items.add(item);
+			if (items.size() % batch == 0)
+				subscription.request(batch);
+		}
+
+		@Override
+		public void onError(final Throwable throwable) {
+
+			error = throwable;
+			done.countDown();
+		}
+
+		@Override
+		public void onComplete() {
+
+			done.countDown();
+		}
+	}
+
+	@Test
+	public void testPublish() throws InterruptedException {
+
+		final Storage storage = MockGoogleCloudStorageFactory.getOrCreateStorage();
+		final String bucketName = N5GoogleCloudStorageTests.tempBucketName();
+		final GoogleCloudStorageKeyValueAccess kva = new GoogleCloudStorageKeyValueAccess(storage, "gs://" + bucketName + "/container", true);
+		kva.createDirectories("/container/blocks");
+		for (int i = 0; i < 10; ++i)
+			kva.write("/container/blocks/" + i, ReadData.from(new byte[]{(byte) i}));
+
+		final CollectingSubscriber ordered = new CollectingSubscriber();
+		kva.publish(IntStream.range(0, 12).mapToObj(i -> "/container/blocks/" + i), 4, true).subscribe(ordered);
+		assertTrue(ordered.done.await(30, TimeUnit.SECONDS));
+		assertNull(ordered.error);
+		assertEquals(12, ordered.items.size());
+		for (int i = 0; i < 10; ++i)
+			assertArrayEquals(new byte[]{(byte) i}, ordered.items.get(i).getReadData().allBytes());
+		assertNull("missing keys have no data", ordered.items.get(11).getReadData());
+
+		final CollectingSubscriber unordered = new CollectingSubscriber();
+		kva.publish(IntStream.range(0, 10).mapToObj(i -> "/container/blocks/" + i), 4, false).subscribe(unordered);
+		assertTrue(unordered.done.await(30, TimeUnit.SECONDS));
+		assertNull(unordered.error);
+		assertEquals(10, unordered.items.size());
+
+		kva.delete("/");
+	}
+
+	@Test
+	public void testConcurrencyIsBoundedByDemand() throws InterruptedException {
+
+		final int maxConcurrency = 4;
+		for (final int batch : new int[]{2, 16}) {
+			final AtomicInteger inFlight = new AtomicInteger();
+			final AtomicInteger maxInFlight = new AtomicInteger();
+			final GcsReadPublisher publisher = new GcsReadPublisher(
+					IntStream.range(0, 64).mapToObj(Integer::toString).collect(Collectors.toList()).iterator(),
+					key -> {
+						maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+						try {
+							Thread.sleep(5);
+						} catch (final InterruptedException e) {
+							Thread.currentThread().interrupt();
+						}
+						inFlight.decrementAndGet();
+						return ReadData.from(key.getBytes());
+					},
+					maxConcurrency,
+					false);
+
+			final CollectingSubscriber subscriber = new CollectingSubscriber(batch);
+			publisher.subscribe(subscriber);
+			assertTrue(subscriber.done.await(30, TimeUnit.SECONDS));
+			assertNull(subscriber.error);
+			assertEquals(64, subscriber.items.size());
+			assertTrue("in flight " + maxInFlight.get() + " with demand " + batch,
+					maxInFlight.get() <= Math.min(batch, maxConcurrency));
+		}
+	}
+}
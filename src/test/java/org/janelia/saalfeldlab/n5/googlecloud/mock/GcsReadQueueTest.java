@@ -0,0 +1,140 @@
+package org.janelia.saalfeldlab.n5.googlecloud.mock;
+
+import com.google.cloud.ReadChannel;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.Storage;
+import org.janelia.saalfeldlab.n5.N5Exception;
+import org.janelia.saalfeldlab.n5.googlecloud.GcsReadQueue;
+import org.janelia.saalfeldlab.n5.googlecloud.GoogleCloudStorageKeyValueAccess;
+import org.janelia.saalfeldlab.n5.googlecloud.N5GoogleCloudStorageTests;
+import org.janelia.saalfeldlab.n5.readdata.ReadData;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+public class GcsReadQueueTest {
+
+	@Test
+	public void testReadQueue() throws Exception {
+
+		final Storage mock = MockGoogleCloudStorageFactory.getOrCreateStorage();
+		final String bucketName = N5GoogleCloudStorageTests.tempBucketName();
+
+		/* the order objects are downloaded in, and a download that blocks until it is aborted */
+		final List<String> served = Collections.synchronizedList(new ArrayList<>());
+		final CountDownLatch slowStarted = new CountDownLatch(1);
+		final CountDownLatch slowClosed = new CountDownLatch(1);
+		final Storage storage = (Storage)Proxy.newProxyInstance(
+				Storage.class.getClassLoader(),
+				new Class<?>[]{Storage.class},
+				(proxy, method, args) -> {
+					if (method.getName().equals("reader") && args[0] instanceof BlobId) {
+						final String name = ((BlobId)args[0]).getName();
+						served.add(name);
+						if (name.equals("container/tiles/slow"))
+							return slowChannel(slowStarted, slowClosed);
+					}
+					try {
+						return method.invoke(mock, args);
+					} catch (final InvocationTargetException e) {
+						throw e.getCause();
+					}
+				});
+
+		final GoogleCloudStorageKeyValueAccess kva = new GoogleCloudStorageKeyValueAccess(storage, "gs://" + bucketName + "/container", true);
+		kva.createDirectories("/container/tiles");
+		kva.write("/container/tiles/slow", ReadData.from(new byte[]{-1}));
+		for (int i = 0; i < 8; ++i)
+			kva.write("/container/tiles/" + i, ReadData.from(new byte[]{(byte) i}));
+
+		try (GcsReadQueue queue = kva.createReadQueue(1)) {
+			/* the only worker is busy with the slow download while the others queue up */
+			final GcsReadQueue.Request slow = queue.submit("/container/tiles/slow", 0);
+			assertTrue(slowStarted.await(10, TimeUnit.SECONDS));
+
+			final List<GcsReadQueue.Request> requests = new ArrayList<>();
+			for (int i = 0; i < 8; ++i)
+				requests.add(queue.submit("/container/tiles/" + i, i));
+			requests.get(0).setPriority(100);
+
+			final GcsReadQueue.Request cancelled = requests.get(7);
+			cancelled.cancel();
+			assertTrue(cancelled.isCancelled());
+			assertThrows(CancellationException.class, () -> cancelled.getResult().get());
+			assertEquals(7, queue.numPending());
+
+			/* aborting the download in flight closes its channel and frees the worker */
+			slow.cancel();
+			assertTrue(slowClosed.await(10, TimeUnit.SECONDS));
+			assertTrue(slow.isCancelled());
+			assertThrows(CancellationException.class, () -> slow.getResult().get());
+
+			for (int i = 0; i < 7; ++i)
+				assertArrayEquals(new byte[]{(byte) i}, requests.get(i).getResult().get(10, TimeUnit.SECONDS).allBytes());
+
+			/* highest priority first, the cancelled request never */
+			assertEquals(Arrays.asList(
+					"container/tiles/slow",
+					"container/tiles/0",
+					"container/tiles/6",
+					"container/tiles/5",
+					"container/tiles/4",
+					"container/tiles/3",
+					"container/tiles/2",
+					"container/tiles/1"), served);
+
+			final GcsReadQueue.Request missing = queue.submit("/container/tiles/missing", 0);
+			assertThrows(ExecutionException.class, () -> missing.getResult().get());
+
+			/* requests see the same data as streaming reads */
+			kva.deleteDeferred("/container/tiles");
+			final GcsReadQueue.Request tombstoned = queue.submit("/container/tiles/3", 0);
+			final ExecutionException e = assertThrows(ExecutionException.class, () -> tombstoned.getResult().get());
+			assertTrue(e.getCause() instanceof N5Exception.N5NoSuchKeyException);
+		}
+
+		kva.delete("/");
+	}
+
+	/* a channel whose reads block until it is closed, then fail like an aborted transfer */
+	private static ReadChannel slowChannel(final CountDownLatch started, final CountDownLatch closed) {
+
+		return (ReadChannel)Proxy.newProxyInstance(
+				ReadChannel.class.getClassLoader(),
+				new Class<?>[]{ReadChannel.class},
+				(proxy, method, args) -> {
+					switch (method.getName()) {
+					case "read":
+						started.countDown();
+						closed.await();
+						throw new IOException("channel closed");
+					case "close":
+						closed.countDown();
+						return null;
+					case "isOpen":
+						return closed.getCount() > 0;
+					case "hashCode":
+						return System.identityHashCode(proxy);
+					case "equals":
+						return proxy == args[0];
+					default:
+						return null;
+					}
+				});
+	}
+}
@@ -0,0 +1,183 @@
+package org.janelia.saalfeldlab.n5.googlecloud.mock;
+
+import com.google.cloud.ReadChannel;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.StorageException;
+import org.janelia.saalfeldlab.n5.N5Exception;
+import org.janelia.saalfeldlab.n5.googlecloud.GcsResumableInputStream;
+import org.janelia.saalfeldlab.n5.googlecloud.GoogleCloudStorageKeyValueAccess;
+import org.janelia.saalfeldlab.n5.googlecloud.N5GoogleCloudStorageTests;
+import org.janelia.saalfeldlab.n5.readdata.ReadData;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+
+public class GcsResumableInputStreamTest {
+
+	@Test
+	public void testStreamingRead() throws IOException {
+
+		final Storage storage = MockGoogleCloudStorageFactory.getOrCreateStorage();
+		final String bucketName = N5GoogleCloudStorageTests.tempBucketName();
+		final GoogleCloudStorageKeyValueAccess kva = new GoogleCloudStorageKeyValueAccess(storage, "gs://" + bucketName + "/container", true);
+		kva.createDirectories("/container");
+
+		final byte[] data = new byte[100_000];
+		new Random(1).nextBytes(data);
+		kva.write("/container/block", ReadData.from(data));
+
+		try (InputStream in = kva.createStreamingReadData("/container/block").inputStream()) {
+			final ByteArrayOutputStream out = new ByteArrayOutputStream();
+			final byte[] buffer = new byte[4096];
+			assertEquals(data[0] & 0xFF, in.read());
+			out.write(data[0]);
+			assertEquals(1000, in.skip(1000));
+			out.write(data, 1, 1000);
+			for (int n; (n = in.read(buffer)) >= 0; )
+				out.write(buffer, 0, n);
+			assertArrayEquals(data, out.toByteArray());
+		}
+
+		try (GcsResumableInputStream in = new GcsResumableInputStream(storage, bucketName, "container/missing")) {
+			assertThrows(N5Exception.N5NoSuchKeyException.class, in::read);
+		}
+
+		kva.delete("/");
+	}
+
+	@Test
+	public void testResumeAfterFailures() throws IOException {
+
+		final Storage mock = MockGoogleCloudStorageFactory.getOrCreateStorage();
+		final String bucketName = N5GoogleCloudStorageTests.tempBucketName();
+		final GoogleCloudStorageKeyValueAccess kva = new GoogleCloudStorageKeyValueAccess(mock, "gs://" + bucketName + "/container", true);
+		kva.createDirectories("/container");
+
+		final byte[] data = new byte[100_000];
+		new Random(2).nextBytes(data);
+		kva.write("/container/block", ReadData.from(data));
+
+		/* the first transfer is reset, the second one ends early, the third one completes */
+		final Deque<Failure> failures = new ArrayDeque<>(Arrays.asList(
+				Failure.error(new IOException("Connection reset")),
+				Failure.truncation(),
+				null));
+		final AtomicInteger readers = new AtomicInteger();
+		final Storage storage = failingStorage(mock, failures, readers);
+
+		try (GcsResumableInputStream in = new GcsResumableInputStream(storage, bucketName, "container/block")) {
+			final ByteArrayOutputStream out = new ByteArrayOutputStream();
+			final byte[] buffer = new byte[4096];
+			for (int n; (n = in.read(buffer)) >= 0; )
+				out.write(buffer, 0, n);
+			assertArrayEquals(data, out.toByteArray());
+			assertEquals(2, in.getResumes());
+			assertEquals(3, readers.get());
+		}
+
+		kva.delete("/");
+	}
+
+	@Test
+	public void testPermanentFailureIsNotRetried() throws IOException {
+
+		final Storage mock = MockGoogleCloudStorageFactory.getOrCreateStorage();
+		final String bucketName = N5GoogleCloudStorageTests.tempBucketName();
+		final GoogleCloudStorageKeyValueAccess kva = new GoogleCloudStorageKeyValueAccess(mock, "gs://" + bucketName + "/container", true);
+		kva.createDirectories("/container");
+		kva.write("/container/block", ReadData.from(new byte[100_000]));
+
+		final Deque<Failure> failures = new ArrayDeque<>(Arrays.asList(
+				Failure.error(new IOException(new StorageException(403, "Forbidden"))),
+				null));
+		final AtomicInteger readers = new AtomicInteger();
+		final Storage storage = failingStorage(mock, failures, readers);
+
+		try (GcsResumableInputStream in = new GcsResumableInputStream(storage, bucketName, "container/block")) {
+			final byte[] buffer = new byte[4096];
+			assertThrows(IOException.class, () -> {
+				while (in.read(buffer) >= 0);
+			});
+			assertEquals(0, in.getResumes());
+			assertEquals(1, readers.get());
+		}
+
+		kva.delete("/");
+	}
+
+	/* how a channel fails after a few successful reads */
+	private static class Failure {
+
+		final IOException error;
+
+		private Failure(final IOException error) {
+
+			this.error = error;
+		}
+
+		static Failure error(final IOException error) {
+
+			return new Failure(error);
+		}
+
+		static Failure truncation() {
+
+			return new Failure(null);
+		}
+	}
+
+	/* storage whose channels fail as the next entry of failures says, null for a channel that does not fail */
+	private static Storage failingStorage(final Storage mock, final Deque<Failure> failures, final AtomicInteger readers) {
+
+		return (Storage)Proxy.newProxyInstance(
+				Storage.class.getClassLoader(),
+				new Class<?>[]{Storage.class},
+				(proxy, method, args) -> {
+					final Object result;
+					try {
+						result = method.invoke(mock, args);
+					} catch (final InvocationTargetException e) {
+						throw e.getCause();
+					}
+					if (!method.getName().equals("reader"))
+						return result;
+
+					readers.incrementAndGet();
+					final Failure failure = failures.poll();
+					return failure == null ? result : failingChannel((ReadChannel)result, failure);
+				});
+	}
+
+	private static ReadChannel failingChannel(final ReadChannel channel, final Failure failure) {
+
+		final AtomicInteger reads = new AtomicInteger();
+		return (ReadChannel)Proxy.newProxyInstance(
+				ReadChannel.class.getClassLoader(),
+				new Class<?>[]{ReadChannel.class},
+				(proxy, method, args) -> {
+					if (method.getName().equals("read") && reads.incrementAndGet() > 3) {
+						if (failure.error != null)
+							throw failure.error;
+						return -1;
+					}
+					try {
+						return method.invoke(channel, args);
+					} catch (final InvocationTargetException e) {
+						throw e.getCause();
+					}
+				});
+	}
+}
@@ -0,0 +1,201 @@
+package org.janelia.saalfeldlab.n5.googlecloud.mock;
+
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.BucketInfo;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.StorageException;
+import org.janelia.saalfeldlab.n5.N5Exception;
+import org.janelia.saalfeldlab.n5.googlecloud.GcsShardUpdate;
+import org.janelia.saalfeldlab.n5.googlecloud.N5GoogleCloudStorageTests;
+import org.janelia.saalfeldlab.n5.readdata.ReadData;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+
+public class GcsShardUpdateTest {
+
+	/*
+	 * The mock neither reports generations nor composes, this wraps it with
+	 * both: every write gets a new generation, generation preconditions are
+	 * enforced, and compose concatenates its sources.
+	 */
+	private static class GenerationStorage {
+
+		final Storage mock;
+		final Map<String, Long> generations = new ConcurrentHashMap<>();
+		final AtomicLong nextGeneration = new AtomicLong(1);
+		final AtomicInteger composes = new AtomicInteger();
+		final List<String> uploads = new ArrayList<>();
+
+		/* a concurrent writer replaces the object right before the next compose */
+		final AtomicBoolean interfere = new AtomicBoolean(false);
+
+		final Storage storage;
+
+		GenerationStorage(final Storage mock) {
+
+			this.mock = mock;
+			this.storage = (Storage)Proxy.newProxyInstance(
+					Storage.class.getClassLoader(),
+					new Class<?>[]{Storage.class},
+					(proxy, method, args) -> {
+						switch (method.getName()) {
+						case "get":
+							if (args[0] instanceof BlobId)
+								return get((BlobId)args[0]);
+							break;
+						case "createFrom":
+							if (args[1] instanceof InputStream)
+								return createFrom((BlobInfo)args[0], (InputStream)args[1], ((Object[])args[2]).length > 0);
+							break;
+						case "compose":
+							return compose((Storage.ComposeRequest)args[0]);
+						case "reader":
+							if (args[0] instanceof BlobId) {
+								final BlobId blobId = (BlobId)args[0];
+								checkGeneration(blobId.getName(), blobId.getGeneration(), 404);
+								return mock.reader(BlobId.of(blobId.getBucket(), blobId.getName()));
+							}
+							break;
+						case "delete":
+							if (args.length == 1 && args[0] instanceof BlobId)
+								generations.remove(((BlobId)args[0]).getName());
+							break;
+						}
+						try {
+							return method.invoke(mock, args);
+						} catch (final InvocationTargetException e) {
+							throw e.getCause();
+						}
+					});
+		}
+
+		private void checkGeneration(final String name, final Long expected, final int code) {
+
+			if (expected != null && !expected.equals(generations.get(name)))
+				throw new StorageException(code, "Generation mismatch for " + name);
+		}
+
+		private Blob get(final BlobId blobId) {
+
+			final Long generation = generations.get(blobId.getName());
+			if (generation == null || (blobId.getGeneration() != null && !blobId.getGeneration().equals(generation)))
+				return null;
+			final Blob blob = mock.get(BlobId.of(blobId.getBucket(), blobId.getName()));
+			return blob.toBuilder().setBlobId(BlobId.of(blobId.getBucket(), blobId.getName(), generation)).build();
+		}
+
+		private Blob put(final String bucketName, final String name, final byte[] bytes) {
+
+			mock.create(BlobInfo.newBuilder(bucketName, name).build(), bytes);
+			generations.put(name, nextGeneration.getAndIncrement());
+			return get(BlobId.of(bucketName, name));
+		}
+
+		/* writes carry either a generation to match or, as the only option, doesNotExist */
+		private Blob createFrom(final BlobInfo blobInfo, final InputStream in, final boolean hasPrecondition) throws IOException {
+
+			final String name = blobInfo.getName();
+			if (blobInfo.getGeneration() != null)
+				checkGeneration(name, blobInfo.getGeneration(), 412);
+			else if (hasPrecondition && generations.containsKey(name))
+				throw new StorageException(412, name + " exists");
+
+			final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			final byte[] buffer = new byte[4096];
+			for (int n; (n = in.read(buffer)) >= 0; )
+				bytes.write(buffer, 0, n);
+			synchronized (uploads) {
+				uploads.add(name);
+			}
+			return put(blobInfo.getBucket(), name, bytes.toByteArray());
+		}
+
+		private Blob compose(final Storage.ComposeRequest request) {
+
+			composes.incrementAndGet();
+			final BlobInfo target = request.getTarget();
+			if (interfere.getAndSet(false))
+				put(target.getBucket(), target.getName(), new byte[]{-1});
+			checkGeneration(target.getName(), target.getGeneration(), 412);
+
+			final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			for (final Storage.ComposeRequest.SourceBlob source : request.getSourceBlobs()) {
+				checkGeneration(source.getName(), source.getGeneration(), 404);
+				final byte[] content = mock.readAllBytes(BlobId.of(target.getBucket(), source.getName()));
+				bytes.write(content, 0, content.length);
+			}
+			return put(target.getBucket(), target.getName(), bytes.toByteArray());
+		}
+	}
+
+	@Test
+	public void testAppendAndRewrite() throws IOException {
+
+		final Storage mock = MockGoogleCloudStorageFactory.getOrCreateStorage();
+		final String bucketName = N5GoogleCloudStorageTests.tempBucketName();
+		mock.create(BucketInfo.of(bucketName));
+		final GenerationStorage fake = new GenerationStorage(mock);
+		final Storage storage = fake.storage;
+
+		try {
+			/* a new shard is written as a whole */
+			GcsShardUpdate.update(storage, bucketName, "shard", 0, ReadData.from(new byte[]{1, 2, 3}));
+			assertArrayEquals(new byte[]{1, 2, 3}, mock.readAllBytes(BlobId.of(bucketName, "shard")));
+			assertEquals(0, fake.composes.get());
+
+			/* appending uploads only the tail and composes it server-side */
+			fake.uploads.clear();
+			final Blob appended = GcsShardUpdate.update(storage, bucketName, "shard", 3, ReadData.from(new byte[]{4, 5}));
+			assertArrayEquals(new byte[]{1, 2, 3, 4, 5}, mock.readAllBytes(BlobId.of(bucketName, "shard")));
+			assertEquals(1, fake.composes.get());
+			assertEquals(1, fake.uploads.size());
+			assertEquals(fake.generations.get("shard"), appended.getGeneration());
+
+			/* the temporary tail is removed */
+			final List<String> names = new ArrayList<>();
+			for (final Blob blob : mock.list(bucketName).iterateAll())
+				names.add(blob.getName());
+			assertEquals(1, names.size());
+			assertEquals("shard", names.get(0));
+
+			/* replacing part of the shard falls back to a rewrite of the kept range */
+			fake.uploads.clear();
+			GcsShardUpdate.update(storage, bucketName, "shard", 2, ReadData.from(new byte[]{6, 7, 8}));
+			assertArrayEquals(new byte[]{1, 2, 6, 7, 8}, mock.readAllBytes(BlobId.of(bucketName, "shard")));
+			assertEquals(1, fake.composes.get());
+			assertEquals(1, fake.uploads.size());
+			assertEquals("shard", fake.uploads.get(0));
+
+			/* a shard replaced during the update is not overwritten */
+			fake.interfere.set(true);
+			assertThrows(N5Exception.N5ConcurrentModificationException.class,
+					() -> GcsShardUpdate.update(storage, bucketName, "shard", 5, ReadData.from(new byte[]{9})));
+			assertArrayEquals(new byte[]{-1}, mock.readAllBytes(BlobId.of(bucketName, "shard")));
+
+			assertThrows(N5Exception.N5NoSuchKeyException.class,
+					() -> GcsShardUpdate.update(storage, bucketName, "missing", 1, ReadData.from(new byte[]{1})));
+		} finally {
+			for (final Blob blob : mock.list(bucketName).iterateAll())
+				mock.delete(blob.getBlobId());
+			mock.delete(bucketName);
+		}
+	}
+}
@@ -0,0 +1,52 @@
+package org.janelia.saalfeldlab.n5.googlecloud.mock;
+
+import com.google.cloud.storage.Storage;
+import org.janelia.saalfeldlab.n5.N5Exception;
+import org.janelia.saalfeldlab.n5.googlecloud.GoogleCloudStorageKeyValueAccess;
+import org.janelia.saalfeldlab.n5.googlecloud.N5GoogleCloudStorageTests;
+import org.janelia.saalfeldlab.n5.readdata.ReadData;
+import org.janelia.saalfeldlab.n5.readdata.VolatileReadData;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+public class GcsSnapshotTest {
+
+	@Test
+	public void testSnapshotView() {
+
+		final Storage storage = MockGoogleCloudStorageFactory.getOrCreateStorage();
+		final String bucketName = N5GoogleCloudStorageTests.tempBucketName();
+		final GoogleCloudStorageKeyValueAccess kva = new GoogleCloudStorageKeyValueAccess(storage, "gs://" + bucketName + "/container", true);
+
+		final byte[] data = {1, 2, 3};
+		kva.createDirectories("/container/group/dataset");
+		kva.write("/container/group/dataset/0", ReadData.from(data));
+		kva.write("/container/attributes.json", ReadData.from("{}".getBytes()));
+
+		final GoogleCloudStorageKeyValueAccess snapshot = kva.snapshot();
+
+		/* changes after the capture are not visible */
+		kva.write("/container/group/dataset/1", ReadData.from(data));
+		kva.createDirectories("/container/other");
+
+		assertTrue(snapshot.isFile("/container/group/dataset/0"));
+		assertFalse(snapshot.exists("/container/group/dataset/1"));
+		assertTrue(snapshot.isDirectory("/container/group"));
+		assertFalse(snapshot.isDirectory("/container/other"));
+		assertArrayEquals(new String[]{"group"}, snapshot.listDirectories("/container"));
+		assertEquals(data.length, snapshot.size("/container/group/dataset/0"));
+		try (VolatileReadData readData = snapshot.createReadData("/container/group/dataset/0")) {
+			assertArrayEquals(data, readData.allBytes());
+		}
+
+		assertThrows(N5Exception.class, () -> snapshot.write("/container/group/dataset/2", ReadData.from(data)));
+		assertThrows(N5Exception.class, () -> snapshot.delete("/container/group"));
+
+		kva.delete("/");
+	}
+}
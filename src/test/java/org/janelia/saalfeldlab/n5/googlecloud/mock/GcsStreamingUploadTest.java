@@ -0,0 +1,134 @@
+package org.janelia.saalfeldlab.n5.googlecloud.mock;
+
+import com.google.cloud.RestorableState;
+import com.google.cloud.WriteChannel;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.BucketInfo;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.StorageException;
+import org.janelia.saalfeldlab.n5.googlecloud.GcsIoPolicy;
+import org.janelia.saalfeldlab.n5.googlecloud.GcsStreamingUpload;
+import org.janelia.saalfeldlab.n5.googlecloud.N5GoogleCloudStorageTests;
+import org.janelia.saalfeldlab.n5.readdata.ReadData;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+public class GcsStreamingUploadTest {
+
+	private static class RecordingChannel implements WriteChannel {
+
+		final ByteArrayOutputStream written = new ByteArrayOutputStream();
+		boolean closed = false;
+		boolean fail = false;
+		boolean failUnchecked = false;
+
+		@Override
+		public void setChunkSize(final int chunkSize) {}
+
+		@Override
+		public RestorableState<WriteChannel> capture() {
+
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public int write(final ByteBuffer src) throws IOException {
+
+			if (fail)
+				throw new IOException("failed");
+			if (failUnchecked)
+				throw new StorageException(503, "failed");
+			final int n = src.remaining();
+			final byte[] bytes = new byte[n];
+			src.get(bytes);
+			written.write(bytes);
+			return n;
+		}
+
+		@Override
+		public boolean isOpen() {
+
+			return !closed;
+		}
+
+		@Override
+		public void close() {
+
+			closed = true;
+		}
+	}
+
+	@Test
+	public void testUpload() throws IOException {
+
+		final byte[] data = new byte[3 * 256 * 1024 + 17];
+		new Random(1).nextBytes(data);
+
+		final GcsStreamingUpload upload = new GcsStreamingUpload();
+		upload.setChunkSize(1);
+		assertEquals(256 * 1024, upload.getChunkSize());
+
+		final RecordingChannel channel = new RecordingChannel();
+		upload.upload(channel, ReadData.from(data));
+		assertArrayEquals(data, channel.written.toByteArray());
+		assertFalse(channel.isOpen());
+	}
+
+	@Test
+	public void testFailedUploadIsNotFinalized() {
+
+		final GcsStreamingUpload upload = new GcsStreamingUpload();
+		upload.setChunkSize(1);
+
+		final RecordingChannel channel = new RecordingChannel();
+		channel.fail = true;
+		assertThrows(IOException.class, () -> upload.upload(channel, ReadData.from(new byte[1024 * 1024])));
+		assertFalse("a failed upload must not be finalized", channel.closed);
+	}
+
+	@Test(timeout = 10000)
+	public void testStorageExceptionDoesNotDeadlock() {
+
+		final GcsStreamingUpload upload = new GcsStreamingUpload();
+		upload.setChunkSize(1);
+		upload.setNumBuffers(2);
+
+		/* more chunks than buffers, the producer needs recycled buffers after the failure */
+		final RecordingChannel channel = new RecordingChannel();
+		channel.failUnchecked = true;
+		final IOException e = assertThrows(IOException.class, () -> upload.upload(channel, ReadData.from(new byte[8 * 256 * 1024])));
+		assertTrue(e.getCause() instanceof StorageException);
+		assertFalse("a failed upload must not be finalized", channel.closed);
+	}
+
+	@Test
+	public void testIoPolicy() throws IOException {
+
+		final Storage storage = MockGoogleCloudStorageFactory.getOrCreateStorage();
+		final String bucketName = N5GoogleCloudStorageTests.tempBucketName();
+		storage.create(BucketInfo.of(bucketName));
+
+		final byte[] data = new byte[600 * 1024];
+		new Random(2).nextBytes(data);
+
+		final GcsIoPolicy.Unsafe policy = new GcsIoPolicy.Unsafe(storage, bucketName);
+		final GcsStreamingUpload upload = new GcsStreamingUpload();
+		upload.setChunkSize(256 * 1024);
+		policy.setStreamingUpload(upload);
+		policy.write("block", ReadData.from(data));
+
+		assertArrayEquals(data, storage.readAllBytes(BlobId.of(bucketName, "block")));
+		storage.delete(BlobId.of(bucketName, "block"));
+		storage.delete(bucketName);
+	}
+}
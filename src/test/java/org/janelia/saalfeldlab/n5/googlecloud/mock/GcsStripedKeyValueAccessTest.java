@@ -0,0 +1,102 @@
+package org.janelia.saalfeldlab.n5.googlecloud.mock;
+
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.Storage;
+import org.janelia.saalfeldlab.googlecloud.GoogleCloudStorageURI;
+import org.janelia.saalfeldlab.n5.N5Exception;
+import org.janelia.saalfeldlab.n5.googlecloud.GcsStripedKeyValueAccess;
+import org.janelia.saalfeldlab.n5.googlecloud.GoogleCloudStorageKeyValueAccess;
+import org.janelia.saalfeldlab.n5.googlecloud.N5GoogleCloudStorageTests;
+import org.janelia.saalfeldlab.n5.readdata.ReadData;
+import org.janelia.saalfeldlab.n5.readdata.VolatileReadData;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+public class GcsStripedKeyValueAccessTest {
+
+	@Test
+	public void testStripedContainer() {
+
+		final Storage storage = MockGoogleCloudStorageFactory.getOrCreateStorage();
+		final String[] buckets = {
+				N5GoogleCloudStorageTests.tempBucketName(),
+				N5GoogleCloudStorageTests.tempBucketName(),
+				N5GoogleCloudStorageTests.tempBucketName()};
+
+		final GcsStripedKeyValueAccess kva = GcsStripedKeyValueAccess.create(Arrays.asList(
+				new GoogleCloudStorageKeyValueAccess(storage, "gs://" + buckets[0] + "/container", true),
+				new GoogleCloudStorageKeyValueAccess(storage, "gs://" + buckets[1] + "/container", true),
+				new GoogleCloudStorageKeyValueAccess(storage, "gs://" + buckets[2] + "/container", true)));
+
+		final ReadData data = ReadData.from(new byte[]{1, 2, 3});
+		kva.createDirectories("/container/dataset");
+		kva.write("/container/dataset/attributes.json", ReadData.from("{}".getBytes()));
+		for (int i = 0; i < 32; ++i)
+			kva.write("/container/dataset/0/" + i, data);
+
+		/* blocks are spread over all buckets, metadata stays in the primary */
+		assertNotNull(storage.get(BlobId.of(buckets[0], "container/dataset/attributes.json")));
+		final Set<String> used = new HashSet<>();
+		for (int i = 0; i < 32; ++i)
+			for (final String bucket : buckets)
+				if (storage.get(BlobId.of(bucket, "container/dataset/0/" + i)) != null)
+					used.add(bucket);
+		assertEquals(3, used.size());
+
+		/* a reader picks up the stripe set from the primary */
+		final GcsStripedKeyValueAccess reader = GcsStripedKeyValueAccess.open(
+				bucket -> storage,
+				new GoogleCloudStorageURI("gs://" + buckets[0] + "/container"),
+				false);
+		assertEquals(3, reader.getStripes().size());
+		assertTrue(reader.isFile("/container/dataset/0/7"));
+		assertTrue(reader.exists("/container/dataset/0/7"));
+		assertFalse(reader.exists("/container/dataset/0/99"));
+		assertTrue(reader.isDirectory("/container/dataset/0"));
+		assertEquals(3, reader.size("/container/dataset/0/11"));
+		try (VolatileReadData readData = reader.createReadData("/container/dataset/0/13")) {
+			assertArrayEquals(new byte[]{1, 2, 3}, readData.allBytes());
+		}
+
+		assertArrayEquals(new String[]{"dataset"}, reader.list("/container"));
+		final String[] blocks = reader.list("/container/dataset/0");
+		assertEquals(32, blocks.length);
+
+		/* a plain key-value access on the primary reads metadata but refuses blocks */
+		final GoogleCloudStorageKeyValueAccess plain = new GoogleCloudStorageKeyValueAccess(storage, "gs://" + buckets[0] + "/container", false);
+		assertTrue(plain.isFile("/container/dataset/attributes.json"));
+		assertThrows(N5Exception.class, () -> plain.isFile("/container/dataset/0/7"));
+		assertThrows(N5Exception.class, () -> plain.write("/container/dataset/0/7", data));
+
+		/* the same stripe set can be opened again for writing */
+		assertEquals(3, GcsStripedKeyValueAccess.create(Arrays.asList(
+				new GoogleCloudStorageKeyValueAccess(storage, "gs://" + buckets[0] + "/container", false),
+				new GoogleCloudStorageKeyValueAccess(storage, "gs://" + buckets[1] + "/container", false),
+				new GoogleCloudStorageKeyValueAccess(storage, "gs://" + buckets[2] + "/container", false))).getStripes().size());
+
+		/* the stripe set cannot change */
+		assertThrows(N5Exception.class, () -> GcsStripedKeyValueAccess.create(Arrays.asList(
+				new GoogleCloudStorageKeyValueAccess(storage, "gs://" + buckets[0] + "/container", false),
+				new GoogleCloudStorageKeyValueAccess(storage, "gs://" + buckets[1] + "/container", false))));
+
+		kva.delete("/container/dataset");
+		assertFalse(reader.exists("/container/dataset/0/7"));
+		assertFalse(reader.isDirectory("/container/dataset"));
+		for (int i = 0; i < 32; ++i)
+			for (final String bucket : buckets)
+				assertNull(storage.get(BlobId.of(bucket, "container/dataset/0/" + i)));
+
+		kva.delete("/");
+	}
+}
@@ -0,0 +1,162 @@
+package org.janelia.saalfeldlab.n5.googlecloud.mock;
+
+import com.google.cloud.storage.Storage;
+import org.janelia.saalfeldlab.n5.googlecloud.GcsSync;
+import org.janelia.saalfeldlab.n5.googlecloud.GoogleCloudStorageKeyValueAccess;
+import org.janelia.saalfeldlab.n5.googlecloud.N5GoogleCloudStorageTests;
+import org.janelia.saalfeldlab.n5.readdata.ReadData;
+import org.janelia.saalfeldlab.n5.readdata.VolatileReadData;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class GcsSyncTest {
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testUploadAndDownload() throws Exception {
+
+		final Storage storage = MockGoogleCloudStorageFactory.getOrCreateStorage();
+		final String bucketName = N5GoogleCloudStorageTests.tempBucketName();
+		final GoogleCloudStorageKeyValueAccess kva = new GoogleCloudStorageKeyValueAccess(storage, "gs://" + bucketName + "/container", true);
+		kva.createDirectories("/container");
+
+		final Path local = folder.newFolder("local").toPath();
+		Files.createDirectories(local.resolve("dataset/0"));
+		Files.createDirectories(local.resolve("empty"));
+		Files.write(local.resolve("attributes.json"), "{}".getBytes());
+		Files.write(local.resolve("dataset/0/0"), new byte[]{1, 2, 3});
+		Files.write(local.resolve("dataset/0/1"), new byte[]{4, 5, 6});
+
+		final GcsSync sync = new GcsSync(kva).setParallelism(4).setDeleteExtraneous(true);
+		GcsSync.Result result = sync.upload(local);
+		assertTrue(result.isSuccess());
+		assertEquals(0, result.getUnchanged());
+		assertTrue(kva.isDirectory("/container/empty"));
+		try (VolatileReadData readData = kva.createReadData("/container/dataset/0/1")) {
+			assertArrayEquals(new byte[]{4, 5, 6}, readData.allBytes());
+		}
+
+		/* a changed object and an extraneous object */
+		Files.write(local.resolve("dataset/0/1"), new byte[]{7, 8, 9, 10});
+		kva.write("/container/dataset/0/2", ReadData.from(new byte[]{0}));
+		result = sync.upload(local);
+		assertTrue(result.isSuccess());
+		assertEquals(1, result.getTransferred());
+		assertEquals(2, result.getUnchanged());
+		assertEquals(1, result.getDeleted());
+		assertFalse(kva.exists("/container/dataset/0/2"));
+		try (VolatileReadData readData = kva.createReadData("/container/dataset/0/1")) {
+			assertArrayEquals(new byte[]{7, 8, 9, 10}, readData.allBytes());
+		}
+
+		/* download into a stale copy */
+		final Path copy = folder.newFolder("copy").toPath();
+		Files.createDirectories(copy.resolve("stale"));
+		Files.write(copy.resolve("stale/x"), new byte[]{1});
+		Files.createDirectories(copy.resolve("dataset/0"));
+		Files.write(copy.resolve("dataset/0/0"), new byte[]{1, 2, 3});
+		result = sync.download(copy);
+		result.throwOnFailure();
+		assertEquals(1, result.getUnchanged());
+		assertArrayEquals(new byte[]{7, 8, 9, 10}, Files.readAllBytes(copy.resolve("dataset/0/1")));
+		assertArrayEquals("{}".getBytes(), Files.readAllBytes(copy.resolve("attributes.json")));
+		assertTrue(Files.isDirectory(copy.resolve("empty")));
+		assertFalse(Files.exists(copy.resolve("stale")));
+
+		/* nothing left to do */
+		result = sync.download(copy);
+		assertEquals(0, result.getTransferred());
+		assertEquals(0, result.getDeleted());
+
+		kva.delete("/");
+	}
+
+	@Test
+	public void testSameSizeChange() throws Exception {
+
+		final Storage storage = MockGoogleCloudStorageFactory.getOrCreateStorage();
+		final String bucketName = N5GoogleCloudStorageTests.tempBucketName();
+		final GoogleCloudStorageKeyValueAccess kva = new GoogleCloudStorageKeyValueAccess(storage, "gs://" + bucketName + "/container", true);
+		kva.createDirectories("/container");
+
+		final Path local = folder.newFolder("local").toPath();
+		Files.write(local.resolve("block"), new byte[]{1, 2, 3});
+		final GcsSync sync = new GcsSync(kva);
+		sync.upload(local).throwOnFailure();
+
+		/* same size, different content */
+		Files.write(local.resolve("block"), new byte[]{4, 5, 6});
+		GcsSync.Result result = sync.upload(local);
+		result.throwOnFailure();
+		assertEquals(1, result.getTransferred());
+		assertEquals(0, result.getUnchanged());
+		try (VolatileReadData readData = kva.createReadData("/container/block")) {
+			assertArrayEquals(new byte[]{4, 5, 6}, readData.allBytes());
+		}
+
+		result = sync.upload(local);
+		assertEquals(0, result.getTransferred());
+		assertEquals(1, result.getUnchanged());
+
+		/* and back */
+		kva.write("/container/block", ReadData.from(new byte[]{7, 8, 9}));
+		result = sync.download(local);
+		result.throwOnFailure();
+		assertEquals(1, result.getTransferred());
+		assertArrayEquals(new byte[]{7, 8, 9}, Files.readAllBytes(local.resolve("block")));
+
+		kva.delete("/");
+	}
+
+	@Test
+	public void testFailedDeletesAreReported() throws Exception {
+
+		final Storage mock = MockGoogleCloudStorageFactory.getOrCreateStorage();
+		final String bucketName = N5GoogleCloudStorageTests.tempBucketName();
+
+		/* batch deletes of extraneous objects report failure without deleting */
+		final Storage storage = (Storage)Proxy.newProxyInstance(
+				Storage.class.getClassLoader(),
+				new Class<?>[]{Storage.class},
+				(proxy, method, args) -> {
+					if (method.getName().equals("delete") && args.length == 1 && args[0] instanceof Iterable) {
+						final List<Boolean> deleted = new ArrayList<>();
+						for (final Object ignored : (Iterable<?>)args[0])
+							deleted.add(false);
+						return deleted;
+					}
+					try {
+						return method.invoke(mock, args);
+					} catch (final InvocationTargetException e) {
+						throw e.getCause();
+					}
+				});
+		final GoogleCloudStorageKeyValueAccess kva = new GoogleCloudStorageKeyValueAccess(storage, "gs://" + bucketName + "/container", true);
+		kva.createDirectories("/container");
+		kva.write("/container/extraneous", ReadData.from(new byte[]{1}));
+
+		final Path local = folder.newFolder("local").toPath();
+		final GcsSync.Result result = new GcsSync(kva).setDeleteExtraneous(true).upload(local);
+		assertFalse(result.isSuccess());
+		assertEquals(Collections.singleton("container/extraneous"), result.getFailures().keySet());
+		assertEquals(0, result.getDeleted());
+
+		new GoogleCloudStorageKeyValueAccess(mock, "gs://" + bucketName + "/container", false).delete("/");
+	}
+}
@@ -0,0 +1,134 @@
+package org.janelia.saalfeldlab.n5.googlecloud.mock;
+
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.StorageException;
+import org.janelia.saalfeldlab.n5.N5Exception;
+import org.janelia.saalfeldlab.n5.googlecloud.GoogleCloudStorageKeyValueAccess;
+import org.janelia.saalfeldlab.n5.googlecloud.N5GoogleCloudStorageTests;
+import org.janelia.saalfeldlab.n5.readdata.ReadData;
+import org.janelia.saalfeldlab.n5.readdata.VolatileReadData;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class GcsTombstonesTest {
+
+	@Test
+	public void testDeleteDeferred() throws Exception {
+
+		final Storage storage = MockGoogleCloudStorageFactory.getOrCreateStorage();
+		final String bucketName = N5GoogleCloudStorageTests.tempBucketName();
+		final GoogleCloudStorageKeyValueAccess kva = new GoogleCloudStorageKeyValueAccess(storage, "gs://" + bucketName + "/container", true);
+
+		final ReadData data = ReadData.from(new byte[]{1, 2, 3});
+		kva.createDirectories("/container/dataset");
+		kva.createDirectories("/container/other");
+		for (int i = 0; i < 10; ++i)
+			kva.write("/container/dataset/" + i, data);
+		kva.write("/container/dataset.json", data);
+
+		/* creation times have millisecond resolution */
+		Thread.sleep(2);
+		kva.deleteDeferred("/container/dataset");
+
+		/* hidden immediately, objects still there */
+		assertFalse(kva.exists("/container/dataset"));
+		assertFalse(kva.isDirectory("/container/dataset"));
+		assertFalse(kva.isFile("/container/dataset/0"));
+		assertFalse(kva.exists("/container/dataset/0"));
+		assertTrue(kva.exists("/container/dataset.json"));
+		try (VolatileReadData readData = kva.createReadData("/container/dataset/0")) {
+			readData.allBytes();
+			throw new AssertionError("read a tombstoned key");
+		} catch (final N5Exception.N5NoSuchKeyException expected) {}
+		assertNotNull(storage.get(BlobId.of(bucketName, "container/dataset/0")));
+
+		final String[] children = kva.list("/container");
+		Arrays.sort(children);
+		assertArrayEquals(new String[]{"dataset.json", "other"}, children);
+
+		/* other instances see the tombstone */
+		final GoogleCloudStorageKeyValueAccess other = new GoogleCloudStorageKeyValueAccess(storage, "gs://" + bucketName + "/container", false);
+		assertFalse(other.exists("/container/dataset/3"));
+
+		kva.reclaimInBackground().get();
+		assertNull(storage.get(BlobId.of(bucketName, "container/dataset/0")));
+		assertNull(storage.get(BlobId.of(bucketName, "container/dataset/")));
+		assertTrue(kva.exists("/container/dataset.json"));
+
+		kva.delete("/");
+	}
+
+	@Test
+	public void testWriteDoesNotReclaim() throws InterruptedException {
+
+		final Storage storage = MockGoogleCloudStorageFactory.getOrCreateStorage();
+		final String bucketName = N5GoogleCloudStorageTests.tempBucketName();
+		final GoogleCloudStorageKeyValueAccess kva = new GoogleCloudStorageKeyValueAccess(storage, "gs://" + bucketName + "/container", true);
+
+		final ReadData data = ReadData.from(new byte[]{1});
+		kva.createDirectories("/container/dataset");
+		kva.write("/container/dataset/0", data);
+		kva.write("/container/dataset/1", data);
+
+		/* creation times have millisecond resolution */
+		Thread.sleep(2);
+		kva.deleteDeferred("/container/dataset");
+		Thread.sleep(2);
+		kva.createDirectories("/container/dataset");
+		kva.write("/container/dataset/1", data);
+
+		/* the old block 0 is left to the reclaimer and does not reappear */
+		assertNotNull(storage.get(BlobId.of(bucketName, "container/dataset/0")));
+		assertFalse(kva.exists("/container/dataset/0"));
+
+		/* the rewritten block 1 is visible */
+		assertTrue(kva.isDirectory("/container/dataset"));
+		assertTrue(kva.exists("/container/dataset/1"));
+		try (VolatileReadData readData = kva.createReadData("/container/dataset/1")) {
+			assertArrayEquals(new byte[]{1}, readData.allBytes());
+		}
+		assertArrayEquals(new String[]{"1"}, kva.list("/container/dataset"));
+
+		kva.delete("/");
+	}
+
+	@Test
+	public void testTombstonesWithoutListPermission() {
+
+		final Storage storage = MockGoogleCloudStorageFactory.getOrCreateStorage();
+		final String bucketName = N5GoogleCloudStorageTests.tempBucketName();
+		final GoogleCloudStorageKeyValueAccess writer = new GoogleCloudStorageKeyValueAccess(storage, "gs://" + bucketName + "/container", true);
+		writer.write("/container/dataset/0", ReadData.from(new byte[]{1, 2, 3}));
+
+		/* a reader granted storage.objects.get but not storage.objects.list */
+		final Storage getOnly = (Storage)Proxy.newProxyInstance(
+				Storage.class.getClassLoader(),
+				new Class<?>[]{Storage.class},
+				(proxy, method, args) -> {
+					if (method.getName().equals("list"))
+						throw new StorageException(403, "does not have storage.objects.list access");
+					try {
+						return method.invoke(storage, args);
+					} catch (final InvocationTargetException e) {
+						throw e.getCause();
+					}
+				});
+		final GoogleCloudStorageKeyValueAccess reader = new GoogleCloudStorageKeyValueAccess(getOnly, "gs://" + bucketName + "/container", false);
+		assertTrue(reader.isFile("/container/dataset/0"));
+		try (VolatileReadData readData = reader.createReadData("/container/dataset/0")) {
+			assertArrayEquals(new byte[]{1, 2, 3}, readData.allBytes());
+		}
+
+		writer.delete("/");
+	}
+}
@@ -0,0 +1,228 @@
+package org.janelia.saalfeldlab.n5.googlecloud.mock;
+
+import com.google.cloud.RestorableState;
+import com.google.cloud.WriteChannel;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.StorageException;
+import org.janelia.saalfeldlab.n5.googlecloud.GcsUploadJournal;
+import org.janelia.saalfeldlab.n5.readdata.ReadData;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+public class GcsUploadJournalTest {
+
+	private static final int CHUNK_SIZE = 256 * 1024;
+
+	/* upload sessions by id, as kept by the server */
+	private static final Map<Integer, ByteArrayOutputStream> sessions = new ConcurrentHashMap<>();
+	private static final Map<Integer, byte[]> objects = new ConcurrentHashMap<>();
+	private static final AtomicInteger sessionIds = new AtomicInteger();
+	private static final Set<Integer> expired = ConcurrentHashMap.newKeySet();
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	private static class SessionState implements RestorableState<WriteChannel>, Serializable {
+
+		final int session;
+		final int position;
+
+		SessionState(final int session, final int position) {
+
+			this.session = session;
+			this.position = position;
+		}
+
+		@Override
+		public WriteChannel restore() {
+
+			final ByteArrayOutputStream received = sessions.get(session);
+			final byte[] bytes = Arrays.copyOf(received.toByteArray(), position);
+			received.reset();
+			received.write(bytes, 0, bytes.length);
+			return new SessionChannel(session);
+		}
+	}
+
+	private static class SessionChannel implements WriteChannel {
+
+		final int session;
+		boolean open = true;
+
+		SessionChannel(final int session) {
+
+			this.session = session;
+		}
+
+		@Override
+		public void setChunkSize(final int chunkSize) {}
+
+		@Override
+		public RestorableState<WriteChannel> capture() {
+
+			return new SessionState(session, sessions.get(session).size());
+		}
+
+		@Override
+		public int write(final ByteBuffer src) {
+
+			if (expired.contains(session))
+				throw new StorageException(410, "upload session expired");
+			final int n = src.remaining();
+			final byte[] bytes = new byte[n];
+			src.get(bytes);
+			sessions.get(session).write(bytes, 0, n);
+			return n;
+		}
+
+		@Override
+		public boolean isOpen() {
+
+			return open;
+		}
+
+		@Override
+		public void close() {
+
+			open = false;
+			objects.put(session, sessions.get(session).toByteArray());
+		}
+	}
+
+	/* fails after limit bytes, like a process that dies mid-upload */
+	private static class FailingInputStream extends FilterInputStream {
+
+		long remaining;
+
+		FailingInputStream(final InputStream in, final long limit) {
+
+			super(in);
+			this.remaining = limit;
+		}
+
+		@Override
+		public int read(final byte[] b, final int off, final int len) throws IOException {
+
+			if (remaining <= 0)
+				throw new IOException("killed");
+			final int n = super.read(b, off, (int) Math.min(len, remaining));
+			if (n > 0)
+				remaining -= n;
+			return n;
+		}
+	}
+
+	@Test
+	public void testResumeAfterFailure() throws IOException {
+
+		final byte[] data = new byte[5 * CHUNK_SIZE + 1234];
+		new Random(1).nextBytes(data);
+
+		final AtomicInteger opened = new AtomicInteger();
+		final GcsUploadJournal journal = new GcsUploadJournal(folder.getRoot().toPath(), blobInfo -> {
+			opened.incrementAndGet();
+			final int session = sessionIds.incrementAndGet();
+			sessions.put(session, new ByteArrayOutputStream());
+			return new SessionChannel(session);
+		});
+		journal.setChunkSize(CHUNK_SIZE);
+		final BlobInfo blobInfo = BlobInfo.newBuilder("bucket", "dataset/s0/0/0")
+				.setMetadata(Collections.singletonMap("n5-upload-id", "first"))
+				.build();
+
+		assertThrows(IOException.class, () -> journal.upload(
+				blobInfo,
+				ReadData.from(new FailingInputStream(new ByteArrayInputStream(data), 3 * CHUNK_SIZE + 100)),
+				null));
+		assertTrue(journal.hasPending("bucket", "dataset/s0/0/0"));
+		final int session = sessionIds.get();
+		assertEquals(3 * CHUNK_SIZE + 100, sessions.get(session).size());
+		assertEquals("first", journal.getPendingMetadata("bucket", "dataset/s0/0/0").get("n5-upload-id"));
+
+		/* continue the same session after the last journaled chunk */
+		journal.upload(blobInfo, ReadData.from(data), null);
+		assertEquals(1, opened.get());
+		assertFalse(journal.hasPending("bucket", "dataset/s0/0/0"));
+		assertArrayEquals(data, objects.get(session));
+	}
+
+	@Test
+	public void testChangedSourceStartsOver() throws IOException {
+
+		final byte[] data = new byte[3 * CHUNK_SIZE];
+		new Random(2).nextBytes(data);
+
+		final AtomicInteger opened = new AtomicInteger();
+		final GcsUploadJournal journal = new GcsUploadJournal(folder.getRoot().toPath(), blobInfo -> {
+			opened.incrementAndGet();
+			final int session = sessionIds.incrementAndGet();
+			sessions.put(session, new ByteArrayOutputStream());
+			return new SessionChannel(session);
+		});
+		journal.setChunkSize(CHUNK_SIZE);
+		final BlobInfo blobInfo = BlobInfo.newBuilder("bucket", "dataset/s0/0/1").build();
+
+		assertThrows(IOException.class, () -> journal.upload(
+				blobInfo,
+				ReadData.from(new FailingInputStream(new ByteArrayInputStream(data), 2 * CHUNK_SIZE)),
+				null));
+
+		final byte[] changed = data.clone();
+		changed[10] ^= 1;
+		journal.upload(blobInfo, ReadData.from(changed), null);
+		assertEquals(2, opened.get());
+		assertArrayEquals(changed, objects.get(sessionIds.get()));
+	}
+
+	@Test
+	public void testExpiredSessionStartsOver() throws IOException {
+
+		final byte[] data = new byte[4 * CHUNK_SIZE];
+		new Random(3).nextBytes(data);
+
+		final AtomicInteger opened = new AtomicInteger();
+		final GcsUploadJournal journal = new GcsUploadJournal(folder.getRoot().toPath(), blobInfo -> {
+			opened.incrementAndGet();
+			final int session = sessionIds.incrementAndGet();
+			sessions.put(session, new ByteArrayOutputStream());
+			return new SessionChannel(session);
+		});
+		journal.setChunkSize(CHUNK_SIZE);
+		final BlobInfo blobInfo = BlobInfo.newBuilder("bucket", "dataset/s0/0/2").build();
+
+		assertThrows(IOException.class, () -> journal.upload(
+				blobInfo,
+				ReadData.from(new FailingInputStream(new ByteArrayInputStream(data), 2 * CHUNK_SIZE + 100)),
+				null));
+		assertTrue(journal.hasPending("bucket", "dataset/s0/0/2"));
+		expired.add(sessionIds.get());
+
+		/* the restored session is gone, the same call uploads in a new one */
+		journal.upload(blobInfo, ReadData.from(data), null);
+		assertEquals(2, opened.get());
+		assertFalse(journal.hasPending("bucket", "dataset/s0/0/2"));
+		assertArrayEquals(data, objects.get(sessionIds.get()));
+	}
+}
@@ -0,0 +1,99 @@
+package org.janelia.saalfeldlab.n5.googlecloud.mock;
+
+import com.google.cloud.storage.Storage;
+import org.janelia.saalfeldlab.n5.N5Exception.N5IOException;
+import org.janelia.saalfeldlab.n5.googlecloud.GcsWriteBehind;
+import org.janelia.saalfeldlab.n5.googlecloud.GoogleCloudStorageKeyValueAccess;
+import org.janelia.saalfeldlab.n5.googlecloud.N5GoogleCloudStorageTests;
+import org.janelia.saalfeldlab.n5.readdata.ReadData;
+import org.janelia.saalfeldlab.n5.readdata.VolatileReadData;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+public class GcsWriteBehindTest {
+
+	@Test
+	public void testCoalesceAndFlush() throws Exception {
+
+		final Map<String, byte[]> uploaded = new ConcurrentHashMap<>();
+		final AtomicInteger uploads = new AtomicInteger();
+		final CountDownLatch release = new CountDownLatch(1);
+		final GcsWriteBehind writeBehind = new GcsWriteBehind((key, data) -> {
+			try {
+				release.await();
+			} catch (final InterruptedException e) {
+				throw new IOException(e);
+			}
+			uploads.incrementAndGet();
+			uploaded.put(key, data.allBytes());
+		}, 1, 1 << 20);
+
+		writeBehind.write("a", ReadData.from(new byte[]{1}));
+		writeBehind.write("b", ReadData.from(new byte[]{2}));
+		writeBehind.write("b", ReadData.from(new byte[]{3}));
+		assertArrayEquals(new byte[]{3}, writeBehind.pending("b"));
+
+		release.countDown();
+		writeBehind.flush();
+		assertNull(writeBehind.pending("b"));
+		assertEquals(0, writeBehind.getBufferedBytes());
+		assertArrayEquals(new byte[]{3}, uploaded.get("b"));
+		assertEquals("repeated writes are coalesced", 2, uploads.get());
+
+		writeBehind.close();
+	}
+
+	@Test
+	public void testFailuresSurfaceOnFlush() {
+
+		final GcsWriteBehind writeBehind = new GcsWriteBehind((key, data) -> {
+			throw new IOException("failed " + key);
+		}, 2, 1 << 20);
+
+		writeBehind.write("a", ReadData.from(new byte[]{1}));
+		writeBehind.write("b", ReadData.from(new byte[]{2}));
+		final N5IOException e = assertThrows(N5IOException.class, writeBehind::flush);
+		assertEquals(1, e.getSuppressed().length);
+
+		/* failures are reported once */
+		writeBehind.close();
+	}
+
+	@Test
+	public void testKeyValueAccess() {
+
+		final Storage storage = MockGoogleCloudStorageFactory.getOrCreateStorage();
+		final String bucketName = N5GoogleCloudStorageTests.tempBucketName();
+		final GoogleCloudStorageKeyValueAccess kva = new GoogleCloudStorageKeyValueAccess(storage, "gs://" + bucketName + "/container", true);
+		kva.createDirectories("/container/dataset");
+		kva.enableWriteBehind(4, 1 << 20);
+
+		final byte[] data = {1, 2, 3};
+		for (int i = 0; i < 16; ++i)
+			kva.write("/container/dataset/" + i, ReadData.from(data));
+
+		/* read your writes, whether or not the upload completed */
+		assertTrue(kva.isFile("/container/dataset/7"));
+		assertEquals(data.length, kva.size("/container/dataset/7"));
+		try (VolatileReadData readData = kva.createReadData("/container/dataset/7")) {
+			assertArrayEquals(data, readData.allBytes());
+		}
+
+		kva.flush();
+		assertEquals(16, kva.list("/container/dataset").length);
+
+		kva.disableWriteBehind();
+		kva.delete("/");
+	}
+}
@@ -0,0 +1,84 @@
+package org.janelia.saalfeldlab.n5.googlecloud.mock;
+
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.Storage;
+import org.janelia.saalfeldlab.n5.googlecloud.GoogleCloudBlockIndex;
+import org.janelia.saalfeldlab.n5.googlecloud.GoogleCloudStorageKeyValueAccess;
+import org.janelia.saalfeldlab.n5.googlecloud.N5GoogleCloudStorageTests;
+import org.janelia.saalfeldlab.n5.readdata.ReadData;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class GoogleCloudBlockIndexTest {
+
+	@Test
+	public void testBlockIndex() {
+
+		final Storage storage = MockGoogleCloudStorageFactory.getOrCreateStorage();
+		final String bucketName = N5GoogleCloudStorageTests.tempBucketName();
+		final GoogleCloudStorageKeyValueAccess kva = new GoogleCloudStorageKeyValueAccess(storage, "gs://" + bucketName + "/container", true);
+		kva.createDirectories("/container/dataset");
+
+		final String[] blocks = {"dataset/0/0/0", "dataset/0/10/2", "dataset/2/1/0", "dataset/10/0/0"};
+		for (int i = 0; i < blocks.length; ++i)
+			storage.create(BlobInfo.newBuilder(bucketName, "container/" + blocks[i]).build(), new byte[i + 1]);
+		storage.create(BlobInfo.newBuilder(bucketName, "container/dataset/attributes.json").build(), "{}".getBytes());
+
+		final GoogleCloudBlockIndex index = kva.indexBlocks("/container/dataset");
+		assertEquals(3, index.numDimensions());
+		assertEquals(blocks.length, index.numBlocks());
+		assertTrue(index.exists(0, 10, 2));
+		assertFalse(index.exists(0, 1, 2));
+		assertEquals(4, index.size(10, 0, 0));
+		assertEquals(-1, index.size(1, 0, 0));
+		assertFalse(index.covers("container/dataset/attributes.json"));
+
+		assertTrue(kva.isFile("/container/dataset/2/1/0"));
+		assertFalse(kva.exists("/container/dataset/2/1/1"));
+		assertEquals(2, kva.size("/container/dataset/0/10/2"));
+		assertTrue(kva.isFile("/container/dataset/attributes.json"));
+
+		/* writing through the access adds the block to the index */
+		kva.write("/container/dataset/2/1/1", ReadData.from(new byte[]{1, 2, 3, 4, 5, 6}));
+		assertTrue(index.exists(2, 1, 1));
+		assertEquals(6, index.size(2, 1, 1));
+		assertEquals(blocks.length + 1, index.numBlocks());
+		assertTrue(kva.exists("/container/dataset/2/1/1"));
+		assertEquals(6, kva.size("/container/dataset/2/1/1"));
+
+		/* overwriting a listed block updates its size */
+		kva.write("/container/dataset/0/0/0", ReadData.from(new byte[]{1, 2}));
+		assertEquals(2, index.size(0, 0, 0));
+		assertEquals(blocks.length + 1, index.numBlocks());
+
+		kva.delete("/");
+	}
+
+	@Test
+	public void testEmptyDataset() {
+
+		final Storage storage = MockGoogleCloudStorageFactory.getOrCreateStorage();
+		final String bucketName = N5GoogleCloudStorageTests.tempBucketName();
+		final GoogleCloudStorageKeyValueAccess kva = new GoogleCloudStorageKeyValueAccess(storage, "gs://" + bucketName + "/container", true);
+		kva.createDirectories("/container/dataset");
+		storage.create(
+				BlobInfo.newBuilder(bucketName, "container/dataset/attributes.json").build(),
+				"{\"dimensions\":[100,200,300],\"blockSize\":[10,10,10]}".getBytes());
+
+		/* the dimensions come from the attributes */
+		final GoogleCloudBlockIndex index = kva.indexBlocks("/container/dataset");
+		assertEquals(3, index.numDimensions());
+		assertEquals(0, index.numBlocks());
+		assertTrue(index.covers("container/dataset/1/2/3"));
+		assertFalse(kva.exists("/container/dataset/1/2/3"));
+
+		kva.write("/container/dataset/1/2/3", ReadData.from(new byte[]{1}));
+		assertTrue(index.exists(1, 2, 3));
+		assertTrue(kva.exists("/container/dataset/1/2/3"));
+
+		kva.delete("/");
+	}
+}
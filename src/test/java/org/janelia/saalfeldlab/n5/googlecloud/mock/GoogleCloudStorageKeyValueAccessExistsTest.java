@@ -0,0 +1,75 @@
+package org.janelia.saalfeldlab.n5.googlecloud.mock;
+
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.StorageException;
+import org.janelia.saalfeldlab.n5.googlecloud.GoogleCloudStorageKeyValueAccess;
+import org.janelia.saalfeldlab.n5.googlecloud.N5GoogleCloudStorageTests;
+import org.janelia.saalfeldlab.n5.readdata.ReadData;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class GoogleCloudStorageKeyValueAccessExistsTest {
+
+	@Test
+	public void testExistsWithSiblings() {
+
+		final Storage storage = MockGoogleCloudStorageFactory.getOrCreateStorage();
+		final String bucketName = N5GoogleCloudStorageTests.tempBucketName();
+		final GoogleCloudStorageKeyValueAccess kva = new GoogleCloudStorageKeyValueAccess(storage, "gs://" + bucketName + "/container", true);
+
+		final ReadData data = ReadData.from(new byte[]{1});
+		kva.createDirectories("/container");
+
+		/* siblings that sort before "dataset/" */
+		for (int i = 0; i < 40; ++i)
+			kva.write("/container/dataset-" + i, data);
+		kva.write("/container/dataset.json", data);
+		kva.write("/container/dataset/0", data);
+		kva.write("/container/file", data);
+		kva.createDirectories("/container/empty");
+
+		assertTrue(kva.exists("/container/dataset"));
+		assertTrue(kva.exists("/container/dataset/0"));
+		assertTrue(kva.exists("/container/file"));
+		assertTrue(kva.exists("/container/empty"));
+		assertTrue(kva.exists("/container/dataset.json"));
+		assertFalse(kva.exists("/container/data"));
+		assertFalse(kva.exists("/container/fil"));
+		assertFalse(kva.exists("/container/dataset/1"));
+		assertFalse(kva.exists("/container/zzz"));
+
+		kva.delete("/");
+	}
+
+	@Test
+	public void testExistsWithoutListPermission() {
+
+		final Storage storage = MockGoogleCloudStorageFactory.getOrCreateStorage();
+		final String bucketName = N5GoogleCloudStorageTests.tempBucketName();
+		final GoogleCloudStorageKeyValueAccess writer = new GoogleCloudStorageKeyValueAccess(storage, "gs://" + bucketName + "/container", true);
+		writer.write("/container/dataset/0", ReadData.from(new byte[]{1}));
+
+		/* a reader granted storage.objects.get but not storage.objects.list */
+		final Storage getOnly = (Storage)Proxy.newProxyInstance(
+				Storage.class.getClassLoader(),
+				new Class<?>[]{Storage.class},
+				(proxy, method, args) -> {
+					if (method.getName().equals("list"))
+						throw new StorageException(403, "does not have storage.objects.list access");
+					try {
+						return method.invoke(storage, args);
+					} catch (final InvocationTargetException e) {
+						throw e.getCause();
+					}
+				});
+		final GoogleCloudStorageKeyValueAccess reader = new GoogleCloudStorageKeyValueAccess(getOnly, "gs://" + bucketName + "/container", false);
+		assertTrue(reader.exists("/container/dataset/0"));
+
+		writer.delete("/");
+	}
+}
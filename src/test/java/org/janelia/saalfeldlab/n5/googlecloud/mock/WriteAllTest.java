@@ -0,0 +1,113 @@
+package org.janelia.saalfeldlab.n5.googlecloud.mock;
+
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.Storage;
+import com.google.cloud.storage.StorageException;
+import org.janelia.saalfeldlab.n5.N5Exception;
+import org.janelia.saalfeldlab.n5.googlecloud.GcsBatchWriteResult;
+import org.janelia.saalfeldlab.n5.googlecloud.GoogleCloudStorageKeyValueAccess;
+import org.janelia.saalfeldlab.n5.googlecloud.N5GoogleCloudStorageTests;
+import org.janelia.saalfeldlab.n5.readdata.ReadData;
+import org.janelia.saalfeldlab.n5.readdata.VolatileReadData;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+public class WriteAllTest {
+
+	@Test
+	public void testWriteAll() {
+
+		final Storage storage = MockGoogleCloudStorageFactory.getOrCreateStorage();
+		final String bucketName = N5GoogleCloudStorageTests.tempBucketName();
+		final GoogleCloudStorageKeyValueAccess kva = new GoogleCloudStorageKeyValueAccess(storage, "gs://" + bucketName + "/container", true);
+
+		final Map<String, ReadData> batch = new HashMap<>();
+		for (int x = 0; x < 4; ++x)
+			for (int y = 0; y < 4; ++y)
+				batch.put("/container/dataset/" + x + "/" + y, ReadData.from(new byte[]{(byte) x, (byte) y}));
+
+		final GcsBatchWriteResult result = kva.writeAll(batch, 4);
+		result.throwOnFailure();
+		assertTrue(result.isSuccess());
+		assertEquals(batch.keySet(), result.getWritten());
+
+		/* the dataset gets a marker, block rows do not */
+		assertNotNull(storage.get(BlobId.of(bucketName, "container/dataset/")));
+		assertNull(storage.get(BlobId.of(bucketName, "container/dataset/3/")));
+
+		assertTrue(kva.isDirectory("/container/dataset/3"));
+		assertEquals(4, kva.listDirectories("/container/dataset").length);
+		try (VolatileReadData readData = kva.createReadData("/container/dataset/2/3")) {
+			assertArrayEquals(new byte[]{2, 3}, readData.allBytes());
+		}
+
+		kva.delete("/");
+	}
+
+	@Test
+	public void testFailuresAreAggregated() {
+
+		final Storage mock = MockGoogleCloudStorageFactory.getOrCreateStorage();
+		final String bucketName = N5GoogleCloudStorageTests.tempBucketName();
+
+		/* uploads of these objects are denied */
+		final Set<String> denied = new HashSet<>(Arrays.asList("container/dataset/1/2", "container/dataset/3/0"));
+		final Storage storage = (Storage)Proxy.newProxyInstance(
+				Storage.class.getClassLoader(),
+				new Class<?>[]{Storage.class},
+				(proxy, method, args) -> {
+					if (args != null && args.length > 0 && args[0] instanceof BlobInfo && denied.contains(((BlobInfo)args[0]).getName()))
+						throw new StorageException(403, "Forbidden");
+					try {
+						return method.invoke(mock, args);
+					} catch (final InvocationTargetException e) {
+						throw e.getCause();
+					}
+				});
+		final GoogleCloudStorageKeyValueAccess kva = new GoogleCloudStorageKeyValueAccess(storage, "gs://" + bucketName + "/container", true);
+
+		final Map<String, ReadData> batch = new HashMap<>();
+		for (int x = 0; x < 4; ++x)
+			for (int y = 0; y < 4; ++y)
+				batch.put("/container/dataset/" + x + "/" + y, ReadData.from(new byte[]{(byte) x, (byte) y}));
+
+		final GcsBatchWriteResult result = kva.writeAll(batch, 4);
+		assertFalse(result.isSuccess());
+		assertEquals(new HashSet<>(Arrays.asList("/container/dataset/1/2", "/container/dataset/3/0")), result.getFailures().keySet());
+		assertEquals(14, result.getWritten().size());
+		assertTrue(kva.exists("/container/dataset/1/1"));
+		assertFalse(kva.exists("/container/dataset/1/2"));
+
+		final N5Exception.N5IOException e = assertThrows(N5Exception.N5IOException.class, result::throwOnFailure);
+		assertTrue(e.getMessage().startsWith("2 of 16 writes failed"));
+		assertEquals(1, e.getSuppressed().length);
+
+		/* without the directory marker, nothing is written */
+		denied.add("container/other/");
+		final Map<String, ReadData> other = new HashMap<>();
+		for (int x = 0; x < 2; ++x)
+			other.put("/container/other/" + x + "/0", ReadData.from(new byte[]{(byte) x}));
+		final GcsBatchWriteResult failed = kva.writeAll(other, 4);
+		assertEquals(new HashSet<>(Arrays.asList("container/other/")), failed.getFailures().keySet());
+		assertTrue(failed.getWritten().isEmpty());
+		assertFalse(kva.exists("/container/other/0/0"));
+
+		kva.delete("/");
+	}
+}